@@ -0,0 +1,139 @@
+package bench;
+
+import service.NormalStore;
+import service.StoreConfig;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+//进程内测量 set 和 get 每次操作在调用线程上分配的字节数，用 com.sun.management.ThreadMXBean 统计
+//用法：java bench.AllocationBench --dir=/tmp/easydb-alloc --records=10000 --operations=200000 --value-size=100 --warmup=200000
+//先写入 records 条记录并重新打开存储，之后的 get 都从数据文件读取；预热之后依次测量 get 和覆盖已有 key 的 set
+//get 的结果包含返回的 value 字符串本身；set 的结果包含内存表落盘分摊到每次写入的部分
+//每次运行在 --dir 下新建一个子目录，结束后删除
+public class AllocationBench {
+    private static final String KEY_PREFIX = "user";
+    private static final int VALUE_VARIANTS = 16;   //轮流写入的不同 value 个数
+
+    private final String dir;
+    private final int records;
+    private final long operations;
+    private final int valueSize;
+    private final long warmup;
+    private final String[] keys;
+    private final String[] values = new String[VALUE_VARIANTS];
+    private final com.sun.management.ThreadMXBean threadBean;
+    private long found;   //最近一轮 get 读到的次数，同时避免读取被优化掉
+
+    public AllocationBench(Map<String, String> options) {
+        this.dir = options.getOrDefault("dir", System.getProperty("java.io.tmpdir") + File.separator + "easydb-alloc");
+        this.records = Integer.parseInt(options.getOrDefault("records", "10000"));
+        this.operations = Long.parseLong(options.getOrDefault("operations", "200000"));
+        this.valueSize = Integer.parseInt(options.getOrDefault("value-size", "100"));
+        this.warmup = Long.parseLong(options.getOrDefault("warmup", "200000"));
+        if (records <= 0 || operations <= 0 || valueSize < 0 || warmup < 0) {
+            throw new IllegalArgumentException("records、operations 必须大于 0，value-size、warmup 不能为负数");
+        }
+        this.threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            throw new IllegalStateException("当前 JVM 不支持按线程统计分配的字节数");
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        keys = new String[records];
+        for (int i = 0; i < records; i++) {
+            keys[i] = KEY_PREFIX + i;
+        }
+        Random random = new Random(42);
+        for (int v = 0; v < VALUE_VARIANTS; v++) {
+            char[] chars = new char[valueSize];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ('a' + random.nextInt(26));
+            }
+            values[v] = new String(chars);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("参数格式应为 --name=value: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        new AllocationBench(options).run();
+    }
+
+    public void run() throws Exception {
+        File runDir = new File(dir, "run-" + System.currentTimeMillis());
+        StoreConfig config = StoreConfig.load();
+        try {
+            System.out.println("加载 " + records + " 条记录，value " + valueSize + " 字节...");
+            NormalStore loader = new NormalStore(runDir.getPath(), config);
+            try {
+                for (int i = 0; i < records; i++) {
+                    loader.set(keys[i], values[i % VALUE_VARIANTS]);
+                }
+            } finally {
+                loader.close();   //重新打开之后内存表是空的，get 从数据文件读取
+            }
+            NormalStore store = new NormalStore(runDir.getPath(), config);
+            try {
+                gets(store, warmup);
+                long getBytes = allocated(() -> gets(store, operations));
+                long missing = operations - found;
+                sets(store, warmup);
+                long setBytes = allocated(() -> sets(store, operations));
+                System.out.printf("get: %.1f 字节/次（%d 次，未读到 %d 次）%n", (double) getBytes / operations, operations, missing);
+                System.out.printf("set: %.1f 字节/次（%d 次）%n", (double) setBytes / operations, operations);
+            } finally {
+                store.close();
+            }
+        } finally {
+            delete(runDir);
+        }
+    }
+
+    //在当前线程上执行 task，返回期间分配的字节数
+    private long allocated(Runnable task) {
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        task.run();
+        return threadBean.getThreadAllocatedBytes(tid) - before;
+    }
+
+    private void gets(NormalStore store, long count) {
+        long hits = 0;
+        for (long i = 0; i < count; i++) {
+            if (store.get(keys[(int) (i % records)]) != null) {
+                hits++;
+            }
+        }
+        found = hits;
+    }
+
+    //覆盖已有的 key，value 轮流使用预先生成的字符串，测量的只有存储本身的分配
+    private void sets(NormalStore store, long count) {
+        for (long i = 0; i < count; i++) {
+            store.set(keys[(int) (i % records)], values[(int) (i % VALUE_VARIANTS)]);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
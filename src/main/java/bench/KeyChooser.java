@@ -0,0 +1,86 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+//按指定分布选择要访问的记录编号，每个压测线程使用自己的实例
+public interface KeyChooser {
+    long next();
+
+    //uniform：所有已插入的记录等概率；zipfian：少数热点记录访问最多，热点经过打散不集中在相邻编号上；
+    //latest：越新插入的记录越热
+    static KeyChooser create(String distribution, AtomicLong inserted, ZipfianChooser.Zeta zeta, Random random) {
+        switch (distribution) {
+            case "uniform":
+                return () -> (long) (random.nextDouble() * inserted.get());
+            case "zipfian":
+                ZipfianChooser zipfian = new ZipfianChooser(zeta, random);
+                return () -> fnvHash(zipfian.next()) % inserted.get();
+            case "latest":
+                ZipfianChooser recent = new ZipfianChooser(zeta, random);
+                return () -> {
+                    long max = inserted.get() - 1;
+                    return Math.max(0, max - recent.next() % (max + 1));
+                };
+            default:
+                throw new IllegalArgumentException("不支持的分布: " + distribution);
+        }
+    }
+
+    //64 位 FNV-1a，用来把 Zipf 排名打散到整个编号空间
+    static long fnvHash(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash & Long.MAX_VALUE;
+    }
+
+    //Gray 等人的 Zipf 生成算法，与 YCSB 相同，排名 0 最热
+    class ZipfianChooser {
+        public static final double DEFAULT_THETA = 0.99;
+        private final Zeta zeta;
+        private final Random random;
+
+        public ZipfianChooser(Zeta zeta, Random random) {
+            this.zeta = zeta;
+            this.random = random;
+        }
+
+        public long next() {
+            double u = random.nextDouble();
+            double uz = u * zeta.zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, zeta.theta)) {
+                return 1;
+            }
+            return (long) (zeta.items * Math.pow(zeta.eta * u - zeta.eta + 1, zeta.alpha));
+        }
+
+        //只依赖记录数和 theta 的常量，计算 zetan 需要遍历全部记录，所有线程共用一份
+        public static class Zeta {
+            private final long items;
+            private final double theta;
+            private final double zetan;
+            private final double alpha;
+            private final double eta;
+
+            public Zeta(long items, double theta) {
+                this.items = Math.max(1, items);
+                this.theta = theta;
+                double sum = 0;
+                for (long i = 1; i <= this.items; i++) {
+                    sum += 1.0 / Math.pow(i, theta);
+                }
+                this.zetan = sum;
+                double zeta2 = 1.0 + 1.0 / Math.pow(2, theta);
+                this.alpha = 1.0 / (1.0 - theta);
+                this.eta = (1 - Math.pow(2.0 / this.items, 1 - theta)) / (1 - zeta2 / zetan);
+            }
+        }
+    }
+}
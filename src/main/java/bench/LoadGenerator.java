@@ -0,0 +1,407 @@
+package bench;
+
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import dto.ActionDTO;
+import dto.ActionTypeEnum;
+import dto.RespDTO;
+import dto.RespStatusTypeEnum;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+//YCSB 风格的端到端压测工具，通过 socket 协议访问 SocketServerController
+//用法：java bench.LoadGenerator --host=localhost --port=12345 --threads=16 --duration=60 --records=100000
+//        --workload=read=0.95,update=0.05 --distribution=zipfian --value-size=uniform:100-1000 --rate=20000 --load --out=result
+//--rate 大于 0 时为开环压测：按目标速率排好每个请求的计划发出时间，延迟从计划时间算起，服务端变慢导致的排队时间也计入延迟
+//--rate 为 0 时为闭环压测，每个线程收到响应后立即发出下一个请求
+//每个报告周期输出一行吞吐和延迟百分位，--out 指定时同时写入 <out>.csv（每个周期每种操作一行）和 <out>.json（整体汇总）
+public class LoadGenerator {
+    private static final String KEY_PREFIX = "user";
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+
+    enum Op {READ, UPDATE, INSERT, SCAN}
+
+    //每种操作的统计：total 累计整个压测，interval 每个报告周期取出后清零
+    static class OpStats {
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram interval = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong intervalErrors = new AtomicLong();
+
+        void record(long micros) {
+            total.record(micros);
+            interval.record(micros);
+        }
+
+        void error() {
+            errors.incrementAndGet();
+            intervalErrors.incrementAndGet();
+        }
+    }
+
+    private final Map<String, String> options;
+    private final String host;
+    private final int port;
+    private final int threads;
+    private final long durationSeconds;
+    private final long operations;
+    private final double rate;
+    private final long records;
+    private final double[] ratios = new double[Op.values().length];
+    private final String distribution;
+    private final String valueSize;
+    private final int scanLength;
+    private final int reportInterval;
+    private final String out;
+
+    private final AtomicLong inserted = new AtomicLong();   //可以被读取的记录数，编号 [0, inserted) 的 key 已经写入
+    private final AtomicLong nextInsert = new AtomicLong();
+    private final AtomicLong issued = new AtomicLong();
+    private final OpStats[] stats = new OpStats[Op.values().length];
+    private final char[] valuePool;
+    private PrintWriter csv;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.host = options.getOrDefault("host", "localhost");
+        this.port = Integer.parseInt(options.getOrDefault("port", "12345"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        this.durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        this.operations = Long.parseLong(options.getOrDefault("operations", "0"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.records = Long.parseLong(options.getOrDefault("records", "10000"));
+        this.distribution = options.getOrDefault("distribution", "zipfian");
+        this.valueSize = options.getOrDefault("value-size", "fixed:100");
+        this.scanLength = Integer.parseInt(options.getOrDefault("scan-length", "10"));
+        this.reportInterval = Integer.parseInt(options.getOrDefault("report-interval", "1"));
+        this.out = options.get("out");
+        parseWorkload(options.getOrDefault("workload", "read=0.5,update=0.5"));
+        //没有记录时只能靠 insert 产生可读的 key，否则读、更新和扫描无从选择
+        if (records < 0 || (records == 0 && ratios[Op.INSERT.ordinal()] <= 0)) {
+            throw new IllegalArgumentException("records 必须大于 0，records=0 时 workload 必须包含 insert: " + records);
+        }
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OpStats();
+        }
+        Random random = new Random(42);
+        valuePool = new char[1 << 20];
+        for (int i = 0; i < valuePool.length; i++) {
+            valuePool[i] = (char) ('a' + random.nextInt(26));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("参数格式应为 --name=value: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception {
+        if (Boolean.parseBoolean(options.getOrDefault("load", "false"))) {
+            load();
+        } else {
+            inserted.set(records);
+        }
+        nextInsert.set(inserted.get());
+        for (OpStats s : stats) {
+            s.total.drain();
+            s.interval.drain();
+        }
+        if (out != null) {
+            csv = new PrintWriter(new FileWriter(out + ".csv"));
+            csv.println("time_s,op,count,ops_per_sec,errors,mean_us,p50_us,p95_us,p99_us,p999_us,max_us");
+        }
+        System.out.println("开始压测：" + threads + " 线程，" + (rate > 0 ? "目标速率 " + rate + " ops/s" : "闭环")
+                + "，分布 " + distribution + "，记录数 " + inserted.get());
+
+        KeyChooser.ZipfianChooser.Zeta zeta = new KeyChooser.ZipfianChooser.Zeta(records, KeyChooser.ZipfianChooser.DEFAULT_THETA);
+        long start = System.nanoTime();
+        long deadline = durationSeconds > 0 ? start + durationSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    work(id, start, deadline, zeta);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-worker-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        long lastReport = start;
+        while (!done.await(reportInterval, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            report((now - start) / 1e9, (now - lastReport) / 1e9);
+            lastReport = now;
+        }
+        long end = System.nanoTime();
+        report((end - start) / 1e9, (end - lastReport) / 1e9);
+        summary((end - start) / 1e9);
+        if (csv != null) {
+            csv.close();
+        }
+    }
+
+    //加载阶段：按编号顺序写入 records 条记录，闭环执行，不计入压测结果
+    private void load() throws InterruptedException {
+        System.out.println("加载 " + records + " 条记录...");
+        long start = System.nanoTime();
+        AtomicLong next = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<Thread> loaders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread loader = new Thread(() -> {
+                long id;
+                while ((id = next.getAndIncrement()) < records) {
+                    if (!send(new ActionDTO(ActionTypeEnum.SET, key(id), value(random)))) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }, "load-loader-" + t);
+            loader.start();
+            loaders.add(loader);
+        }
+        for (Thread loader : loaders) {
+            loader.join();
+        }
+        inserted.set(records);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("加载完成：%.1f 秒，%.0f ops/s，失败 %d%n", seconds, records / seconds, failed.get());
+    }
+
+    private void work(int id, long start, long deadline, KeyChooser.ZipfianChooser.Zeta zeta) {
+        Random random = new Random(System.nanoTime() + id);
+        KeyChooser chooser = KeyChooser.create(distribution, inserted, zeta, random);
+        //开环时每个线程承担 rate / threads 的速率，各线程的起点错开，避免同时发出请求
+        long period = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+        long intended = start + (rate > 0 ? (long) (id * 1e9 / rate) : 0);
+        while (true) {
+            if (operations > 0 && issued.incrementAndGet() > operations) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (rate > 0) {
+                while (now < intended) {
+                    LockSupport.parkNanos(intended - now);
+                    now = System.nanoTime();
+                }
+            } else {
+                intended = now;
+            }
+            if (intended >= deadline) {
+                return;
+            }
+            Op op = chooseOp(random);
+            if (op != Op.INSERT && inserted.get() == 0) {
+                op = Op.INSERT;   //第一条记录插入之前先插入，不去读不存在的编号
+            }
+            boolean ok = execute(op, chooser, random);
+            long micros = (System.nanoTime() - intended) / 1000;
+            if (ok) {
+                stats[op.ordinal()].record(micros);
+            } else {
+                stats[op.ordinal()].error();
+            }
+            intended += period;
+        }
+    }
+
+    private boolean execute(Op op, KeyChooser chooser, Random random) {
+        switch (op) {
+            case READ:
+                return send(new ActionDTO(ActionTypeEnum.GET, key(chooser.next()), null));
+            case UPDATE:
+                return send(new ActionDTO(ActionTypeEnum.SET, key(chooser.next()), value(random)));
+            case INSERT:
+                long id = nextInsert.getAndIncrement();
+                boolean ok = send(new ActionDTO(ActionTypeEnum.SET, key(id), value(random)));
+                if (ok) {
+                    inserted.accumulateAndGet(id + 1, Math::max);
+                }
+                return ok;
+            case SCAN:
+                //socket 协议没有范围查询，用一次 MGET 读取从起点开始编号连续的 scanLength 个 key
+                long first = chooser.next();
+                List<String> keys = new ArrayList<>(scanLength);
+                for (int i = 0; i < scanLength; i++) {
+                    keys.add(key(first + i));
+                }
+                return send(new ActionDTO(ActionTypeEnum.MGET, keys));
+            default:
+                throw new IllegalStateException(op.name());
+        }
+    }
+
+    //服务端每个连接只处理一个请求，每次操作都新建连接；返回是否成功
+    private boolean send(ActionDTO dto) {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            oos.writeObject(dto);
+            oos.flush();
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            RespDTO resp = (RespDTO) ois.readObject();
+            return resp.getStatus() == RespStatusTypeEnum.SUCCESS;
+        } catch (IOException | ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private Op chooseOp(Random random) {
+        double r = random.nextDouble();
+        for (int i = 0; i < ratios.length; i++) {
+            r -= ratios[i];
+            if (r < 0) {
+                return Op.values()[i];
+            }
+        }
+        //浮点误差落在末尾时取最后一个比例不为 0 的操作
+        for (int i = ratios.length - 1; i >= 0; i--) {
+            if (ratios[i] > 0) {
+                return Op.values()[i];
+            }
+        }
+        return Op.READ;
+    }
+
+    private void parseWorkload(String workload) {
+        double sum = 0;
+        for (String part : workload.split(",")) {
+            String[] kv = part.split("=");
+            Op op = Op.valueOf(kv[0].trim().toUpperCase());
+            ratios[op.ordinal()] = Double.parseDouble(kv[1].trim());
+            sum += ratios[op.ordinal()];
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("workload 中的比例之和必须大于 0: " + workload);
+        }
+        //按比例之和归一化，read=95,update=5 与 read=0.95,update=0.05 等价
+        for (int i = 0; i < ratios.length; i++) {
+            ratios[i] /= sum;
+        }
+    }
+
+    private static String key(long id) {
+        return KEY_PREFIX + String.format("%012d", id);
+    }
+
+    //value 大小：fixed:N 固定长度；uniform:A-B 在区间内均匀分布；zipfian:A-B 偏向较小的长度
+    private String value(Random random) {
+        String[] kind = valueSize.split(":");
+        int size;
+        if ("fixed".equals(kind[0])) {
+            size = Integer.parseInt(kind[1]);
+        } else {
+            String[] range = kind[1].split("-");
+            int min = Integer.parseInt(range[0]);
+            int max = Integer.parseInt(range[1]);
+            if ("uniform".equals(kind[0])) {
+                size = min + random.nextInt(max - min + 1);
+            } else if ("zipfian".equals(kind[0])) {
+                //对数均匀分布近似偏向小值的长度分布，不需要为每种区间预先计算 zeta
+                size = (int) Math.round(min * Math.pow((double) max / Math.max(1, min), random.nextDouble()));
+            } else {
+                throw new IllegalArgumentException("不支持的 value 大小分布: " + valueSize);
+            }
+        }
+        size = Math.min(size, valuePool.length);
+        int offset = random.nextInt(valuePool.length - size + 1);
+        return new String(valuePool, offset, size);
+    }
+
+    private void report(double elapsed, double seconds) {
+        StringBuilder line = new StringBuilder(String.format("[%6.1fs]", elapsed));
+        long totalOps = 0;
+        for (Op op : Op.values()) {
+            OpStats s = stats[op.ordinal()];
+            LatencyHistogram h = s.interval.drain();
+            long errors = s.intervalErrors.getAndSet(0);
+            long count = h.count();
+            totalOps += count;
+            if (count == 0 && errors == 0) {
+                continue;
+            }
+            line.append(String.format(" %s %d p50=%dus p99=%dus p999=%dus", op, count, h.percentile(50), h.percentile(99), h.percentile(99.9)));
+            if (errors > 0) {
+                line.append(" err=").append(errors);
+            }
+            if (csv != null) {
+                csv.printf("%.1f,%s,%d,%.1f,%d,%.1f,%d,%d,%d,%d,%d%n", elapsed, op, count, count / seconds, errors, h.mean(),
+                        h.percentile(50), h.percentile(95), h.percentile(99), h.percentile(99.9), h.max());
+            }
+        }
+        if (csv != null) {
+            csv.flush();
+        }
+        line.insert(9, String.format(" %.0f ops/s", totalOps / seconds));
+        System.out.println(line);
+    }
+
+    private void summary(double seconds) throws IOException {
+        JSONObject result = new JSONObject(true);
+        result.put("options", options);
+        result.put("seconds", seconds);
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        JSONObject ops = new JSONObject(true);
+        for (Op op : Op.values()) {
+            OpStats s = stats[op.ordinal()];
+            if (s.total.count() == 0 && s.errors.get() == 0) {
+                continue;
+            }
+            all.add(s.total);
+            errors += s.errors.get();
+            ops.put(op.name(), describe(s.total, s.errors.get(), seconds));
+        }
+        result.put("overall", describe(all, errors, seconds));
+        result.put("operations", ops);
+        String json = JSONObject.toJSONString(result, SerializerFeature.PrettyFormat);
+        System.out.println(json);
+        if (out != null) {
+            Files.write(Paths.get(out + ".json"), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static JSONObject describe(LatencyHistogram h, long errors, double seconds) {
+        JSONObject o = new JSONObject(true);
+        o.put("count", h.count());
+        o.put("errors", errors);
+        o.put("opsPerSec", h.count() / seconds);
+        o.put("meanUs", h.mean());
+        for (double p : PERCENTILES) {
+            o.put("p" + (p == Math.floor(p) ? String.valueOf((long) p) : String.valueOf(p).replace(".", "")) + "Us", h.percentile(p));
+        }
+        o.put("maxUs", h.max());
+        return o;
+    }
+}
@@ -7,10 +7,40 @@
  */
 package client;
 
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+
 public interface Client {
     void set(String key, String value);
 
     String get(String key);
 
     void rm(String key);
+
+    //服务端原子加，返回新值；key 不存在时按 0 计算
+    long incrBy(String key, long delta);
+
+    //服务端比较并设置，当前值等于 expected（null 表示 key 不存在）时写入 value，返回是否写入
+    boolean compareAndSet(String key, String expected, String value);
+
+    //key 不存在时写入，返回是否写入
+    boolean setIfAbsent(String key, String value);
+
+    //流式写入，value 从 in 中分块读取并发送，适合很大的 value
+    void set(String key, InputStream in);
+
+    //流式读取，value 分块写入 out，返回字节数，key 不存在时返回 -1
+    long get(String key, WritableByteChannel out);
+
+    //二进制 key/value，不经过字符集转换
+    void set(byte[] key, byte[] value);
+
+    byte[] get(byte[] key);
+
+    void rm(byte[] key);
+
+    //批量查询，返回结果中不包含不存在的 key
+    Map<String, String> multiGet(Collection<String> keys);
 }
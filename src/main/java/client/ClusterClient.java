@@ -0,0 +1,147 @@
+package client;
+
+import service.BinaryStore;
+
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//集群客户端：按一致性哈希把 key 分布到多个 easy-db 服务端上，对应用代码来说和单机 Client 一样使用
+//增删节点只会改变大约 1/N 的 key 的归属，已有数据的迁移需要另外完成
+public class ClusterClient implements Client {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final ConsistentHashRing<String> ring;
+    private final Map<String, Client> clients = new HashMap<>();   //地址 host:port -> 单机客户端
+    private final ExecutorService executor;   //批量请求按节点并行发送
+
+    public ClusterClient(List<String> addresses) {
+        this(addresses, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ClusterClient(List<String> addresses, int virtualNodes) {
+        this.ring = new ConsistentHashRing<>(virtualNodes);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "easy-db-cluster-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String address : addresses) {
+            addNode(address);
+        }
+    }
+
+    //加入一个节点，地址格式为 host:port
+    public synchronized void addNode(String address) {
+        int idx = address.lastIndexOf(':');
+        if (idx <= 0) {
+            throw new IllegalArgumentException("节点地址格式应为 host:port: " + address);
+        }
+        clients.put(address, new SocketClient(address.substring(0, idx), Integer.parseInt(address.substring(idx + 1))));
+        ring.addNode(address);
+    }
+
+    public synchronized void removeNode(String address) {
+        ring.removeNode(address);
+        clients.remove(address);
+    }
+
+    //key 当前归属的节点地址
+    public String nodeFor(String key) {
+        return ring.nodeFor(key);
+    }
+
+    private synchronized Client clientFor(String key) {
+        return clients.get(ring.nodeFor(key));
+    }
+
+    @Override
+    public void set(String key, String value) {
+        clientFor(key).set(key, value);
+    }
+
+    @Override
+    public String get(String key) {
+        return clientFor(key).get(key);
+    }
+
+    @Override
+    public void rm(String key) {
+        clientFor(key).rm(key);
+    }
+
+    @Override
+    public long incrBy(String key, long delta) {
+        return clientFor(key).incrBy(key, delta);
+    }
+
+    @Override
+    public boolean compareAndSet(String key, String expected, String value) {
+        return clientFor(key).compareAndSet(key, expected, value);
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, String value) {
+        return clientFor(key).setIfAbsent(key, value);
+    }
+
+    @Override
+    public void set(String key, InputStream in) {
+        clientFor(key).set(key, in);
+    }
+
+    @Override
+    public long get(String key, WritableByteChannel out) {
+        return clientFor(key).get(key, out);
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value) {
+        clientFor(BinaryStore.toKey(key)).set(key, value);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return clientFor(BinaryStore.toKey(key)).get(key);
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        clientFor(BinaryStore.toKey(key)).rm(key);
+    }
+
+    //按节点分组，每个节点发送一次批量请求，各节点之间并行
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        Map<Client, List<String>> grouped = new HashMap<>();
+        synchronized (this) {
+            for (String key : keys) {
+                grouped.computeIfAbsent(clients.get(ring.nodeFor(key)), c -> new ArrayList<>()).add(key);
+            }
+        }
+        List<Future<Map<String, String>>> futures = new ArrayList<>(grouped.size());
+        for (Map.Entry<Client, List<String>> entry : grouped.entrySet()) {
+            futures.add(executor.submit(() -> entry.getKey().multiGet(entry.getValue())));
+        }
+        Map<String, String> result = new HashMap<>();
+        try {
+            for (Future<Map<String, String>> future : futures) {
+                result.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return result;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+}
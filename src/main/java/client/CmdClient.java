@@ -8,6 +8,8 @@
 package client;
 
 //命令行客户端类
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Scanner;
 import client.Client;
 
@@ -41,6 +43,18 @@ public class CmdClient {
                 case "rm":
                     handleRmCommand(tokens);
                     break;
+                case "mget":
+                    handleMgetCommand(tokens);
+                    break;
+                case "incrby":
+                    handleIncrByCommand(tokens);
+                    break;
+                case "cas":
+                    handleCasCommand(tokens);
+                    break;
+                case "setnx":
+                    handleSetNxCommand(tokens);
+                    break;
                 case "quit":
                     running = false;
                     break;
@@ -57,6 +71,10 @@ public class CmdClient {
         System.out.println("set <key> <value> ");
         System.out.println("get <key> ");
         System.out.println("rm <key> ");
+        System.out.println("mget <key1> <key2> ... ");
+        System.out.println("incrby <key> <delta> ");
+        System.out.println("cas <key> <expected|-> <value> ");
+        System.out.println("setnx <key> <value> ");
         System.out.println("quit ");
         System.out.println("====================");
     }
@@ -96,4 +114,43 @@ public class CmdClient {
         String key = tokens[1];
         client.rm(key);
     }
+
+    private void handleMgetCommand(String[] tokens) {
+        if (tokens.length < 2) {
+            System.out.println("ERROR: 用法：mget <key1> <key2> ...");
+            return;
+        }
+
+        Map<String, String> values = client.multiGet(Arrays.asList(tokens).subList(1, tokens.length));
+        System.out.println(values);
+    }
+
+    private void handleIncrByCommand(String[] tokens) {
+        if (tokens.length < 3) {
+            System.out.println("ERROR: 用法：incrby <key> <delta>");
+            return;
+        }
+
+        System.out.println(client.incrBy(tokens[1], Long.parseLong(tokens[2])));
+    }
+
+    private void handleCasCommand(String[] tokens) {
+        if (tokens.length < 4) {
+            System.out.println("ERROR: 用法：cas <key> <expected|-> <value>");
+            return;
+        }
+
+        //expected 为 - 表示要求 key 不存在
+        String expected = "-".equals(tokens[2]) ? null : tokens[2];
+        System.out.println(client.compareAndSet(tokens[1], expected, tokens[3]));
+    }
+
+    private void handleSetNxCommand(String[] tokens) {
+        if (tokens.length < 3) {
+            System.out.println("ERROR: 用法：setnx <key> <value>");
+            return;
+        }
+
+        System.out.println(client.setIfAbsent(tokens[1], tokens[2]));
+    }
 }
\ No newline at end of file
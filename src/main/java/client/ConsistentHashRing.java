@@ -0,0 +1,62 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+//带虚拟节点的一致性哈希环，增删一个节点时只有大约 1/N 的 key 需要换节点
+public class ConsistentHashRing<T> {
+    private final int virtualNodes;   //每个物理节点在环上的虚拟节点数量
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+    private final Set<T> nodes = new LinkedHashSet<>();
+
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public synchronized void addNode(T node) {
+        if (!nodes.add(node)) {
+            return;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(node.toString() + "#" + i), node);
+        }
+    }
+
+    public synchronized void removeNode(T node) {
+        if (!nodes.remove(node)) {
+            return;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.remove(hash(node.toString() + "#" + i), node);
+        }
+    }
+
+    //顺时针找到第一个虚拟节点，越过环尾时回到环首
+    public synchronized T nodeFor(String key) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("哈希环上没有节点");
+        }
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public synchronized Set<T> getNodes() {
+        return new LinkedHashSet<>(nodes);
+    }
+
+    //取 MD5 的前 8 个字节，分布比 String.hashCode 均匀得多
+    static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
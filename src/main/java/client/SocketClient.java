@@ -10,11 +10,21 @@ package client;
 import dto.ActionDTO;
 import dto.ActionTypeEnum;
 import dto.RespDTO;
+import dto.RespStatusTypeEnum;
+import utils.ChunkedInputStream;
+import utils.ChunkedOutputStream;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 public class SocketClient implements Client {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;   //流式读写时每次复制的字节数
     private String host;
     private int port;
 
@@ -52,6 +62,7 @@ public class SocketClient implements Client {
             RespDTO resp = (RespDTO) ois.readObject();
             System.out.println("resp data: " + resp.toString());
             // 接收响应数据
+            return resp.getValue();
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
@@ -75,4 +86,129 @@ public class SocketClient implements Client {
         }
     }
 
+    @Override
+    public long incrBy(String key, long delta) {
+        ActionDTO dto = new ActionDTO(ActionTypeEnum.INCRBY, key, null);
+        dto.setDelta(delta);
+        return Long.parseLong(successValue(send(dto)));
+    }
+
+    @Override
+    public boolean compareAndSet(String key, String expected, String value) {
+        ActionDTO dto = new ActionDTO(ActionTypeEnum.CAS, key, value);
+        dto.setExpected(expected);
+        return Boolean.parseBoolean(successValue(send(dto)));
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, String value) {
+        return Boolean.parseBoolean(successValue(send(new ActionDTO(ActionTypeEnum.SETNX, key, value))));
+    }
+
+    //原子操作的结果决定调用方的后续逻辑，连接失败或服务端执行失败时抛出异常，而不是返回默认值
+    private static String successValue(RespDTO resp) {
+        if (resp == null) {
+            throw new RuntimeException("请求发送失败");
+        }
+        if (resp.getStatus() != RespStatusTypeEnum.SUCCESS) {
+            throw new RuntimeException(resp.getValue());
+        }
+        return resp.getValue();
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value) {
+        send(new ActionDTO(ActionTypeEnum.SET_BYTES, key, value));
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        RespDTO resp = send(new ActionDTO(ActionTypeEnum.GET_BYTES, key, null));
+        return resp == null ? null : resp.getValueBytes();
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        send(new ActionDTO(ActionTypeEnum.RM_BYTES, key, null));
+    }
+
+    private RespDTO send(ActionDTO dto) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            oos.writeObject(dto);
+            oos.flush();
+            return (RespDTO) ois.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public void set(String key, InputStream in) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            oos.writeObject(new ActionDTO(ActionTypeEnum.SET_STREAM, key, null));
+            // value 分块发送，每次只占用一个缓冲区
+            try (ChunkedOutputStream out = new ChunkedOutputStream(oos)) {
+                byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+                for (int n; (n = in.read(buffer)) >= 0; ) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            oos.flush();
+            RespDTO resp = (RespDTO) ois.readObject();
+            System.out.println("resp data: " + resp.toString());
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public long get(String key, WritableByteChannel out) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream())) {
+            oos.writeObject(new ActionDTO(ActionTypeEnum.GET_STREAM, key, null));
+            oos.flush();
+            // 服务器的对象流流头之后是分块的 value，最后一个 int 表示 key 是否存在
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            if (in.readShort() != ObjectStreamConstants.STREAM_MAGIC || in.readShort() != ObjectStreamConstants.STREAM_VERSION) {
+                throw new StreamCorruptedException("流头错误");
+            }
+            ChunkedInputStream chunks = new ChunkedInputStream(in);
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            long received = 0;
+            for (int n; (n = chunks.read(buffer, 0, buffer.length)) >= 0; ) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+                received += n;
+            }
+            return in.readInt() == 1 ? received : -1;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        try (Socket socket = new Socket(host, port);
+             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+             ObjectInputStream ois = new ObjectInputStream(socket.getInputStream())) {
+            // 一次请求发送全部 key
+            ActionDTO dto = new ActionDTO(ActionTypeEnum.MGET, new ArrayList<>(keys));
+            oos.writeObject(dto);
+            oos.flush();
+            RespDTO resp = (RespDTO) ois.readObject();
+            // 接收响应数据
+            return resp.getValues() == null ? new HashMap<>() : resp.getValues();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return new HashMap<>();
+    }
+
 }
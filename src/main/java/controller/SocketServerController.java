@@ -11,14 +11,26 @@ import lombok.Getter;
 import lombok.Setter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import replication.ChangeFeed;
 import service.NormalStore;
 import service.Store;
+import service.StoreConfig;
 import utils.LoggerUtil;
 
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Setter
 @Getter
@@ -29,11 +41,30 @@ public class SocketServerController implements Controller {
     private String host;   //主机名
     private int port;   //端口
     private Store store;   //存储引擎
+    private int workers;   //处理请求的线程数
+    private int queueSize;   //等待处理线程的连接数上限
+    private long queueTimeoutMillis;   //连接在队列中等待的时间上限
+    private int maxInFlightPerClient;   //同一个客户端地址同时在处理或排队的请求数上限
+    private int changeBacklogSize;   //变更订阅在内存中保留的最近操作数量，小于等于 0 表示不提供变更订阅
+    private int maxSubscribers;   //同时存在的变更订阅数上限
+    private ChangeFeed changeFeed;   //服务器启动时创建，只有单个 NormalStore 有全局有序的序列号，其他存储引擎为 null
+    private final ConcurrentHashMap<InetAddress, AtomicInteger> inFlight = new ConcurrentHashMap<>();   //每个客户端地址正在处理或排队的请求数
+    private final LongAdder rejected = new LongAdder();   //返回 BUSY 或直接断开的请求数
 
     public SocketServerController(String host, int port, Store store) {
+        this(host, port, store, StoreConfig.load());
+    }
+
+    public SocketServerController(String host, int port, Store store, StoreConfig config) {
         this.host = host;
         this.port = port;
         this.store = store;
+        this.workers = Math.max(1, config.getServerWorkers());
+        this.queueSize = Math.max(1, config.getServerQueueSize());
+        this.queueTimeoutMillis = config.getServerQueueTimeoutMillis();
+        this.maxInFlightPerClient = config.getMaxInFlightPerClient();
+        this.changeBacklogSize = config.getChangeBacklogSize();
+        this.maxSubscribers = config.getMaxSubscribers();
     }
 
     @Override
@@ -51,25 +82,97 @@ public class SocketServerController implements Controller {
         store.rm(key);
     }
 
+    public long getRejected() {
+        return rejected.sum();
+    }
+
     @Override
     public void startServer() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        //固定数量的处理线程加有界队列：过载时排队的连接数和线程数都有上限，超出的请求返回 BUSY，而不是无限创建线程
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), daemonThreads("easy-db-worker-"));
+        //拒绝也要先读出请求再回复，否则关闭还有未读数据的连接会发送 RST，客户端收不到 BUSY；这部分工作很轻，单独一个线程处理
+        ThreadPoolExecutor rejecter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), daemonThreads("easy-db-rejecter-"));
+        if (store instanceof NormalStore && changeBacklogSize > 0) {
+            changeFeed = new ChangeFeed((NormalStore) store, changeBacklogSize, maxSubscribers);
+            changeFeed.start();
+        }
+        //用 ServerSocketChannel 接受连接，socket 带有通道，流式读取时可以用 transferTo 直接从文件发送
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.bind(new InetSocketAddress(port));
             //输出日志信息
             LoggerUtil.info(LOGGER, logFormat,"startServer","服务器已启动，等待连接...");
 
             while (true) {
                 try {
-                    Socket socket = serverSocket.accept();
-                    LoggerUtil.info(LOGGER, logFormat,"startServer","新用户已连接");
-                    //每有客户端连接时，创建一个新的线程
-                    new Thread(new SocketServerHandler(socket, store)).start();
+                    Socket socket = serverSocket.accept().socket();
+                    LoggerUtil.debug(LOGGER, logFormat,"startServer","新用户已连接");
+                    admit(socket, executor, rejecter);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            executor.shutdownNow();
+            rejecter.shutdownNow();
+            if (changeFeed != null) {
+                changeFeed.stop();
+            }
         }
 
     }
+
+    //同一个客户端地址的请求数超过上限或队列已满时交给拒绝线程回复 BUSY，拒绝线程也忙不过来时直接断开
+    private void admit(Socket socket, ThreadPoolExecutor executor, ThreadPoolExecutor rejecter) {
+        InetAddress client = socket.getInetAddress();
+        AtomicInteger count = inFlight.computeIfAbsent(client, c -> new AtomicInteger());
+        Runnable release = () -> {
+            if (count.decrementAndGet() == 0) {
+                inFlight.remove(client, count);
+            }
+        };
+        if (count.incrementAndGet() > maxInFlightPerClient && maxInFlightPerClient > 0) {
+            reject(socket, rejecter, release, "客户端同时进行的请求过多");
+            return;
+        }
+        SocketServerHandler handler = new SocketServerHandler(socket, store);
+        handler.setRelease(release);
+        handler.setRejected(rejected);
+        handler.setChangeFeed(changeFeed);
+        handler.setQueueDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis));
+        try {
+            executor.execute(handler);
+        } catch (RejectedExecutionException e) {
+            reject(socket, rejecter, release, "请求队列已满");
+        }
+    }
+
+    private void reject(Socket socket, ThreadPoolExecutor rejecter, Runnable release, String reason) {
+        SocketServerHandler handler = new SocketServerHandler(socket, store);
+        handler.setRelease(release);
+        handler.setRejected(rejected);
+        handler.setBusyReason(reason);
+        try {
+            rejecter.execute(handler);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            release.run();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
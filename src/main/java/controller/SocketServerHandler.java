@@ -11,71 +11,267 @@ import dto.ActionDTO;
 import dto.ActionTypeEnum;
 import dto.RespDTO;
 import dto.RespStatusTypeEnum;
+import event.ServerRequestEvent;
+import replication.ChangeFeed;
+import service.BinaryStore;
 import service.NormalStore;
 import service.Store;
+import utils.ChunkedInputStream;
+import utils.ChunkedWritableChannel;
 import utils.LoggerUtil;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 //处理 Socket连接的服务器端处理器，它接收客户端发送的命令，根据命令类型执行相应的操作，并将结果返回给客户端
 public class SocketServerHandler implements Runnable {
+    private static final int BUSY_READ_TIMEOUT = 1000;   //拒绝请求时读取请求对象的超时毫秒数，避免慢客户端占住拒绝线程
     private final Logger LOGGER = LoggerFactory.getLogger(SocketServerHandler.class);
     private Socket socket;
     private Store store;
+    private long queueDeadline;   //System.nanoTime() 的值，开始处理时已经超过说明排队太久，0 表示不限制
+    private String busyReason;   //不为 null 时不执行请求，直接返回 BUSY
+    private Runnable release;   //请求处理结束后调用，释放准入时占用的名额
+    private LongAdder rejected;   //返回 BUSY 时计数
+    private ChangeFeed changeFeed;   //为 null 表示不提供变更订阅
+    private boolean detached;   //连接已经交给变更订阅的推送线程，由它负责关闭
 
     public SocketServerHandler(Socket socket, Store store) {
         this.socket = socket;
         this.store = store;
     }
 
+    public void setQueueDeadline(long queueDeadline) {
+        this.queueDeadline = queueDeadline;
+    }
+
+    public void setBusyReason(String busyReason) {
+        this.busyReason = busyReason;
+    }
+
+    public void setRelease(Runnable release) {
+        this.release = release;
+    }
+
+    public void setRejected(LongAdder rejected) {
+        this.rejected = rejected;
+    }
+
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    private static boolean isWrite(ActionTypeEnum type) {
+        switch (type) {
+            case SET:
+            case RM:
+            case SET_STREAM:
+            case SET_BYTES:
+            case RM_BYTES:
+            case INCRBY:
+            case CAS:
+            case SETNX:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    //排队超时或写入积压时返回拒绝原因，读请求在写入积压时照常执行
+    private String busyReason(ActionDTO dto, boolean expired) {
+        if (busyReason != null) {
+            return busyReason;
+        }
+        if (expired) {
+            return "请求排队超时";
+        }
+        if (isWrite(dto.getType()) && store.isWriteOverloaded()) {
+            return "写入积压过多";
+        }
+        return null;
+    }
+
+    private BinaryStore binaryStore() {
+        if (!(store instanceof BinaryStore)) {
+            throw new UnsupportedOperationException("存储引擎不支持二进制操作");
+        }
+        return (BinaryStore) store;
+    }
+
     @Override
     public void run() {
-        try (ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-             ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream())) {
+        ServerRequestEvent event = new ServerRequestEvent();
+        ActionDTO request = null;
+        String status = RespStatusTypeEnum.SUCCESS.name();
+        boolean expired = queueDeadline != 0 && System.nanoTime() - queueDeadline > 0;   //排队时间按开始处理的时刻计算，不包括读取请求的时间
+        try {
+            if (busyReason != null || expired) {
+                socket.setSoTimeout(BUSY_READ_TIMEOUT);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        //不用 try-with-resources 关闭流：订阅请求的连接在处理结束后继续使用，其余请求在 finally 中关闭连接
+        try {
+            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
 
             // 接收序列化对象，该对象包含了客户端发送的命令信息
             ActionDTO dto = (ActionDTO) ois.readObject();
+            request = dto;
+            event.begin();
             LoggerUtil.debug(LOGGER, "[SocketServerHandler][ActionDTO]: {}", dto.toString());
             System.out.println("" + dto.toString());
 
-            // 处理命令的逻辑
-            switch (dto.getType()) {
-                case GET:
-                    String value = this.store.get(dto.getKey());
-                    LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "获取命令的响应" + dto.toString());
-                    RespDTO respGet = new RespDTO(RespStatusTypeEnum.SUCCESS, value);
-                    oos.writeObject(respGet);
+            String busy = busyReason(dto, expired);
+            if (busy != null) {
+                status = RespStatusTypeEnum.BUSY.name();
+                if (rejected != null) {
+                    rejected.increment();
+                }
+                //流式读取的客户端等待的是数据块，无法返回状态，直接断开；流式写入的 value 没有读取，客户端可能收到连接重置
+                if (dto.getType() != ActionTypeEnum.GET_STREAM) {
+                    oos.writeObject(new RespDTO(RespStatusTypeEnum.BUSY, busy));
                     oos.flush();
-                    break;
-                case SET:
-                    this.store.set(dto.getKey(), dto.getValue());
-                    LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "设置命令的响应" + dto.toString());
-                    RespDTO respSet = new RespDTO(RespStatusTypeEnum.SUCCESS, dto.getValue());
-                    oos.writeObject(respSet);
-                    oos.flush();
-                    break;
-                case RM:
-                    this.store.rm(dto.getKey());
-                    LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "删除命令的响应" + dto.toString());
-                    RespDTO respRm = new RespDTO(RespStatusTypeEnum.SUCCESS, "删除成功");
-                    oos.writeObject(respRm);
-                    oos.flush();
-                    break;
-                default:
-                    break;
+                }
+                return;
+            }
+
+            // 处理命令的逻辑
+            try {
+                switch (dto.getType()) {
+                    case GET:
+                        String value = this.store.get(dto.getKey());
+                        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "获取命令的响应" + dto.toString());
+                        RespDTO respGet = new RespDTO(RespStatusTypeEnum.SUCCESS, value);
+                        oos.writeObject(respGet);
+                        oos.flush();
+                        break;
+                    case SET:
+                        this.store.set(dto.getKey(), dto.getValue());
+                        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "设置命令的响应" + dto.toString());
+                        RespDTO respSet = new RespDTO(RespStatusTypeEnum.SUCCESS, dto.getValue());
+                        oos.writeObject(respSet);
+                        oos.flush();
+                        break;
+                    case RM:
+                        this.store.rm(dto.getKey());
+                        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "删除命令的响应" + dto.toString());
+                        RespDTO respRm = new RespDTO(RespStatusTypeEnum.SUCCESS, "删除成功");
+                        oos.writeObject(respRm);
+                        oos.flush();
+                        break;
+                    case MGET:
+                        Map<String, String> values = this.store.multiGet(dto.getKeys());   //多分片存储按分片分组并行查询
+                        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "批量获取命令的响应" + dto.toString());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, values));
+                        oos.flush();
+                        break;
+                    case SET_STREAM:
+                        //value 以 [int len][bytes] 分块跟在请求之后，边读边写入存储，不整体放入内存
+                        this.store.set(dto.getKey(), new ChunkedInputStream(ois));
+                        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "流式设置命令的响应" + dto.toString());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, "写入成功"));
+                        oos.flush();
+                        break;
+                    case GET_STREAM:
+                        //流头之后直接在 socket 上分块发送 value，最后一个 int 表示 key 是否存在
+                        oos.flush();
+                        WritableByteChannel channel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
+                        ChunkedWritableChannel chunked = new ChunkedWritableChannel(channel);
+                        long sent = this.store.get(dto.getKey(), chunked);
+                        chunked.close();
+                        ByteBuffer found = ByteBuffer.allocate(4).putInt(sent >= 0 ? 1 : 0);
+                        found.flip();
+                        while (found.hasRemaining()) {
+                            channel.write(found);
+                        }
+                        LoggerUtil.debug(LOGGER, "[SocketServerHandler][run]: {}", "流式获取命令发送字节数 " + sent);
+                        break;
+                    case SET_BYTES:
+                        binaryStore().set(dto.getKeyBytes(), dto.getValueBytes());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, "写入成功"));
+                        oos.flush();
+                        break;
+                    case GET_BYTES:
+                        ByteBuffer buffer = binaryStore().get(dto.getKeyBytes());
+                        byte[] bytes = null;
+                        if (buffer != null) {
+                            bytes = new byte[buffer.remaining()];
+                            buffer.get(bytes);
+                        }
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, bytes));
+                        oos.flush();
+                        break;
+                    case RM_BYTES:
+                        binaryStore().rm(dto.getKeyBytes());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, "删除成功"));
+                        oos.flush();
+                        break;
+                    case INCRBY:
+                        long counter = this.store.incrBy(dto.getKey(), dto.getDelta());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, String.valueOf(counter)));
+                        oos.flush();
+                        break;
+                    case CAS:
+                        boolean swapped = this.store.compareAndSet(dto.getKey(), dto.getExpected(), dto.getValue());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, String.valueOf(swapped)));
+                        oos.flush();
+                        break;
+                    case SETNX:
+                        boolean absent = this.store.setIfAbsent(dto.getKey(), dto.getValue());
+                        oos.writeObject(new RespDTO(RespStatusTypeEnum.SUCCESS, String.valueOf(absent)));
+                        oos.flush();
+                        break;
+                    case SUBSCRIBE:
+                        //推送在单独的线程中进行，不占用处理线程
+                        if (changeFeed == null) {
+                            throw new UnsupportedOperationException("变更订阅未开启（changeBacklogSize 为 0）或存储引擎不支持变更订阅");
+                        }
+                        if (changeFeed.subscribe(socket, ois, oos, dto.getFromSeq(), dto.getCredits())) {
+                            detached = true;
+                        } else {
+                            status = RespStatusTypeEnum.BUSY.name();
+                            oos.writeObject(new RespDTO(RespStatusTypeEnum.BUSY, "变更订阅数已达上限"));
+                            oos.flush();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                status = RespStatusTypeEnum.FAIL.name();
+                if (dto.getType() == ActionTypeEnum.GET_STREAM) {
+                    throw e;   //数据块已经开始发送，无法再返回失败状态，直接断开连接
+                }
+                //存储层拒绝或执行失败时返回失败状态，而不是直接断开连接
+                LoggerUtil.error(LOGGER, e, "[SocketServerHandler][run]: {}", dto.toString());
+                oos.writeObject(new RespDTO(RespStatusTypeEnum.FAIL, e.getMessage()));
+                oos.flush();
             }
 
         } catch (IOException | ClassNotFoundException e) {
+            status = "IO_ERROR";
             e.printStackTrace();
         } finally {
-            try {
-                socket.close();   //关闭连接
-            } catch (IOException e) {
-                e.printStackTrace();
+            event.end(request, status, socket.getRemoteSocketAddress());
+            if (release != null) {
+                release.run();
+            }
+            if (!detached) {
+                try {
+                    socket.close();   //关闭连接
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
@@ -11,6 +11,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.io.Serializable;
+import java.util.List;
 
 @Setter
 @Getter
@@ -18,6 +19,13 @@ public class ActionDTO implements Serializable {
     private ActionTypeEnum type;
     private String key;
     private String value;
+    private List<String> keys;   //批量查询的 key 列表
+    private byte[] keyBytes;   //二进制操作的 key
+    private byte[] valueBytes;   //二进制操作的 value
+    private String expected;   //CAS 期望的当前值，null 表示要求 key 不存在
+    private long delta;   //INCRBY 的增量
+    private long fromSeq;   //SUBSCRIBE 从这个序列号之后开始推送，0 表示先发送全量快照
+    private int credits;   //SUBSCRIBE 的初始额度，即服务端在收到新额度之前最多推送的操作数
 
     public ActionDTO(ActionTypeEnum type, String key, String value) {
         this.type = type;
@@ -25,12 +33,29 @@ public class ActionDTO implements Serializable {
         this.value = value;
     }
 
+    public ActionDTO(ActionTypeEnum type, byte[] keyBytes, byte[] valueBytes) {
+        this.type = type;
+        this.keyBytes = keyBytes;
+        this.valueBytes = valueBytes;
+    }
+
+    public ActionDTO(ActionTypeEnum type, List<String> keys) {
+        this.type = type;
+        this.keys = keys;
+    }
+
     @Override
     public String toString() {
         return "ActionDTO{" +
                 "type=" + type +
                 ", key='" + key + '\'' +
                 ", value='" + value + '\'' +
+                ", keys=" + keys +
+                (type == ActionTypeEnum.CAS ? ", expected='" + expected + '\'' : "") +
+                (type == ActionTypeEnum.INCRBY ? ", delta=" + delta : "") +
+                (type == ActionTypeEnum.SUBSCRIBE ? ", fromSeq=" + fromSeq + ", credits=" + credits : "") +
+                (keyBytes == null ? "" : ", keyBytes=" + keyBytes.length + " bytes") +
+                (valueBytes == null ? "" : ", valueBytes=" + valueBytes.length + " bytes") +
                 '}';
     }
 }
@@ -19,5 +19,45 @@ public enum ActionTypeEnum {
     /*
     * 查
     * */
-    GET
+    GET,
+    /*
+     * 批量查
+     * */
+    MGET,
+    /*
+     * 流式增、改，value 紧跟在请求之后分块发送
+     * */
+    SET_STREAM,
+    /*
+     * 流式查，value 紧跟在流头之后分块返回
+     * */
+    GET_STREAM,
+    /*
+     * 二进制增、改，key 和 value 都是 byte[]
+     * */
+    SET_BYTES,
+    /*
+     * 二进制查
+     * */
+    GET_BYTES,
+    /*
+     * 二进制删
+     * */
+    RM_BYTES,
+    /*
+     * 原子加，增量放在 delta 中，返回新值
+     * */
+    INCRBY,
+    /*
+     * 比较并设置，当前值等于 expected 时写入 value
+     * */
+    CAS,
+    /*
+     * key 不存在时写入
+     * */
+    SETNX,
+    /*
+     * 变更订阅，从 fromSeq 之后持续推送已提交的 set/rm，连接保持到订阅者断开
+     * */
+    SUBSCRIBE
 }
\ No newline at end of file
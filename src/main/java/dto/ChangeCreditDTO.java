@@ -0,0 +1,25 @@
+package dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+//变更订阅者处理完数据后发给服务器的额度，服务器在额度内继续推送
+@Setter
+@Getter
+public class ChangeCreditDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private int credits;   //新增的额度，按操作数计算
+
+    public ChangeCreditDTO(int credits) {
+        this.credits = credits;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeCreditDTO{" +
+                "credits=" + credits +
+                '}';
+    }
+}
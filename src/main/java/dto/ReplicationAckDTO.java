@@ -0,0 +1,25 @@
+package dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+//从节点应用完一批数据后回复给主节点的确认，主节点据此统计每个从节点的复制延迟
+@Setter
+@Getter
+public class ReplicationAckDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private long appliedSeq;   //从节点已经应用的最后一个序列号
+
+    public ReplicationAckDTO(long appliedSeq) {
+        this.appliedSeq = appliedSeq;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationAckDTO{" +
+                "appliedSeq=" + appliedSeq +
+                '}';
+    }
+}
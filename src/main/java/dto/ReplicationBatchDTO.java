@@ -0,0 +1,42 @@
+package dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+//主节点发送给从节点、或服务器推送给变更订阅者的一批 WAL 操作，payload 是 GZIP 压缩后的 WALEntry JSON 数组
+@Setter
+@Getter
+public class ReplicationBatchDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private boolean snapshot;   //是否属于全量快照
+    private boolean snapshotEnd;   //是否是全量快照的最后一批
+    private long lastSeq;   //本批数据对应的序列号，快照批次为快照时的序列号
+    private long leaderSeq;   //发送时主节点最新的序列号，用于计算复制延迟
+    private long timestamp;   //发送时间
+    private int count;   //本批操作的数量
+    private byte[] payload;
+
+    public ReplicationBatchDTO(boolean snapshot, boolean snapshotEnd, long lastSeq, long leaderSeq, int count, byte[] payload) {
+        this.snapshot = snapshot;
+        this.snapshotEnd = snapshotEnd;
+        this.lastSeq = lastSeq;
+        this.leaderSeq = leaderSeq;
+        this.timestamp = System.currentTimeMillis();
+        this.count = count;
+        this.payload = payload;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationBatchDTO{" +
+                "snapshot=" + snapshot +
+                ", snapshotEnd=" + snapshotEnd +
+                ", lastSeq=" + lastSeq +
+                ", leaderSeq=" + leaderSeq +
+                ", count=" + count +
+                ", payloadSize=" + (payload == null ? 0 : payload.length) +
+                '}';
+    }
+}
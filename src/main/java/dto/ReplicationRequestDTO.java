@@ -0,0 +1,25 @@
+package dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+//从节点连接主节点后发送的第一条消息，说明从哪个序列号之后开始复制
+@Setter
+@Getter
+public class ReplicationRequestDTO implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private long fromSeq;   //从节点已经应用的最后一个序列号，0 表示需要全量快照
+
+    public ReplicationRequestDTO(long fromSeq) {
+        this.fromSeq = fromSeq;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationRequestDTO{" +
+                "fromSeq=" + fromSeq +
+                '}';
+    }
+}
@@ -11,23 +11,38 @@ import lombok.Getter;
 import lombok.Setter;
 
 import java.io.Serializable;
+import java.util.Map;
 
 @Setter
 @Getter
 public class RespDTO implements Serializable {
     private RespStatusTypeEnum status;
     private String value;
+    private Map<String, String> values;   //批量查询的结果，不包含不存在的 key
+    private byte[] valueBytes;   //二进制查询的结果
 
     public RespDTO(RespStatusTypeEnum status, String value) {
         this.status = status;
         this.value = value;
     }
 
+    public RespDTO(RespStatusTypeEnum status, byte[] valueBytes) {
+        this.status = status;
+        this.valueBytes = valueBytes;
+    }
+
+    public RespDTO(RespStatusTypeEnum status, Map<String, String> values) {
+        this.status = status;
+        this.values = values;
+    }
+
     @Override
     public String toString() {
         return "RespDTO{" +
                 "status=" + status +
                 ", value='" + value + '\'' +
+                ", values=" + values +
+                (valueBytes == null ? "" : ", valueBytes=" + valueBytes.length + " bytes") +
                 '}';
     }
 }
@@ -17,5 +17,10 @@ public enum RespStatusTypeEnum {
     /*
     * 失败
     * */
-    FAIL
+    FAIL,
+
+    /*
+    * 服务器过载，请求没有执行，稍后可以重试
+    * */
+    BUSY
 }
@@ -0,0 +1,20 @@
+package dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+//MANIFEST 中的一条版本编辑，只记录发生变化的部分，为空的字段表示没有变化
+@Data
+@NoArgsConstructor
+public class VersionEdit {
+    private List<Integer> addedFiles;   //新增的数据文件，有删除的文件时插入到第一个被删除文件的位置，否则追加到末尾
+    private List<Integer> removedFiles;   //不再有效的数据文件
+    private List<Integer> coldFiles;   //新增的数据文件中存放在冷存储目录的文件
+    private Map<Integer, Long> ingestSeqs;   //新增的数据文件中批量导入的文件及整批的序列号，文件中的记录本身不带序列号
+    private Integer nextFileIndex;   //下一个可分配的数据文件编号
+    private Long lastSeq;   //已经落盘的最大序列号
+    private Integer walCheckpoint;   //最近一个检查点所在的 WAL分段编号，回放从这个分段开始
+}
@@ -1,17 +1,30 @@
 package dto;
 
 import lombok.Data;
+import model.command.ValuePointer;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
 public class WALEntry {
     private String commandType;
     private String key;
     private String value;
+    private long expireAt;   //过期时间戳（毫秒），0 表示永不过期
+    private long seq;   //操作的序列号，按写入顺序递增
+    private ValuePointer valuePointer;   //流式写入的 value 已经在值日志中，WAL 只记录指针，此时 value 为空
+    private byte[] binaryValue;   //订阅者收到的值日志中 value 的原始字节，避免二进制数据按字符串转换后损坏
+    private Boolean streamedValue;   //复制时 value 不在这条操作中，而是跟在这一批之后分块发送；为空时不序列化
 
     public WALEntry(String commandType, String key, String value) {
+        this(commandType, key, value, 0L);
+    }
+
+    public WALEntry(String commandType, String key, String value, long expireAt) {
         this.commandType = commandType;
         this.key = key;
         this.value = value;
+        this.expireAt = expireAt;
     }
 
 }
@@ -0,0 +1,49 @@
+package event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//后台合并已封存的数据文件
+@Name("easydb.Compaction")
+@Label("Compaction")
+@Category({"EasyDB", "Background"})
+@Enabled(false)
+@StackTrace(false)
+public class CompactionEvent extends Event {
+    @Label("Input Files")
+    private String inputFiles;
+
+    @Label("Output File")
+    private int outputFile;
+
+    @Label("Bytes In")
+    @DataAmount
+    private long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    private long bytesOut;
+
+    @Label("Records Kept")
+    private int recordsKept;
+
+    @Label("Records Dropped")
+    private int recordsDropped;
+
+    public void end(String inputFiles, int outputFile, long bytesIn, long bytesOut, int recordsKept, int recordsDropped) {
+        if (shouldCommit()) {
+            this.inputFiles = inputFiles;
+            this.outputFile = outputFile;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.recordsKept = recordsKept;
+            this.recordsDropped = recordsDropped;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//数据文件写满后切换到新文件
+@Name("easydb.FileRotation")
+@Label("Data File Rotation")
+@Category({"EasyDB", "Background"})
+@Enabled(false)
+@StackTrace(false)
+public class FileRotationEvent extends Event {
+    @Label("Sealed File")
+    private int sealedFile;
+
+    @Label("New File")
+    private int newFile;
+
+    @Label("Sealed Size")
+    @DataAmount
+    private long sealedSize;
+
+    public void end(int sealedFile, int newFile, long sealedSize) {
+        if (shouldCommit()) {
+            this.sealedFile = sealedFile;
+            this.newFile = newFile;
+            this.sealedSize = sealedSize;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//内存表落盘，期间持有写锁，前台读写都会等待
+@Name("easydb.MemTableFlush")
+@Label("MemTable Flush")
+@Category({"EasyDB", "Background"})
+@Enabled(false)
+@StackTrace(false)
+public class MemTableFlushEvent extends Event {
+    @Label("Data File")
+    private int fileIndex;
+
+    @Label("Entries")
+    private int entries;
+
+    @Label("Bytes Written")
+    @DataAmount
+    private long bytes;
+
+    public void end(int fileIndex, int entries, long bytes) {
+        if (shouldCommit()) {
+            this.fileIndex = fileIndex;
+            this.entries = entries;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
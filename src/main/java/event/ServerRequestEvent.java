@@ -0,0 +1,51 @@
+package event;
+
+import dto.ActionDTO;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+//SocketServerHandler 处理一个请求，从读到请求对象开始，到响应发送完为止
+@Name("easydb.ServerRequest")
+@Label("Server Request")
+@Category({"EasyDB", "Server"})
+@Enabled(false)
+@StackTrace(false)
+public class ServerRequestEvent extends Event {
+    @Label("Action")
+    private String action;
+
+    @Label("Key Size")
+    @DataAmount
+    private int keySize;
+
+    @Label("Status")
+    private String status;
+
+    @Label("Remote Address")
+    private String remoteAddress;
+
+    //dto 为 null 表示请求对象没有读出来；字段只在事件开启时才计算
+    public void end(ActionDTO dto, String status, SocketAddress remote) {
+        if (shouldCommit()) {
+            if (dto != null) {
+                this.action = String.valueOf(dto.getType());
+                if (dto.getKeyBytes() != null) {
+                    this.keySize = dto.getKeyBytes().length;
+                } else if (dto.getKey() != null) {
+                    this.keySize = dto.getKey().getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+            this.status = status;
+            this.remoteAddress = String.valueOf(remote);
+            commit();
+        }
+    }
+}
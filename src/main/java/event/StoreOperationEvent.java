@@ -0,0 +1,46 @@
+package event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import utils.CommandUtil;
+
+//set、get、rm 的 JFR 事件，默认关闭；关闭时 shouldCommit 直接返回 false，事件对象会被 JIT 消除
+@Name("easydb.StoreOperation")
+@Label("Store Operation")
+@Category({"EasyDB", "Store"})
+@Description("A set, get or rm executed by the storage engine")
+@Enabled(false)
+@StackTrace(false)
+public class StoreOperationEvent extends Event {
+    @Label("Operation")
+    private String operation;
+
+    @Label("Key Size")
+    @DataAmount
+    private int keySize;
+
+    @Label("Value Size")
+    @DataAmount
+    private long valueSize;
+
+    @Label("Segment")
+    @Description("WAL segment written by set/rm, data file read by get, -1 for the memtable")
+    private int segment;
+
+    //结束事件，只在事件开启时才计算 key 和 value 的 UTF-8 字节数
+    public void end(String operation, String key, String value, int segment) {
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.keySize = CommandUtil.utf8Length(key);
+            this.valueSize = CommandUtil.utf8Length(value);
+            this.segment = segment;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+//WAL 写入并刷盘一条记录
+@Name("easydb.WalSync")
+@Label("WAL Sync")
+@Category({"EasyDB", "Store"})
+@Enabled(false)
+@StackTrace(false)
+public class WalSyncEvent extends Event {
+    @Label("Segment")
+    private int segment;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    public void end(int segment, long bytes) {
+        if (shouldCommit()) {
+            this.segment = segment;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
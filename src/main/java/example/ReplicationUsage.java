@@ -0,0 +1,32 @@
+package example;
+
+import controller.SocketServerController;
+import replication.ReplicationFollower;
+import replication.ReplicationLeader;
+import service.NormalStore;
+import service.ReadOnlyStore;
+
+import java.io.IOException;
+
+//主从复制示例：
+//主节点 leader <dataDir> <port> <replicationPort>
+//从节点 follower <dataDir> <port> <leaderHost> <leaderReplicationPort>
+public class ReplicationUsage {
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        String role = args[0];
+        String dataDir = args[1];
+        int port = Integer.parseInt(args[2]);
+        NormalStore store = new NormalStore(dataDir);
+        if ("leader".equals(role)) {
+            ReplicationLeader leader = new ReplicationLeader(Integer.parseInt(args[3]), store);
+            leader.start();
+            new SocketServerController(host, port, store).startServer();
+        } else {
+            ReplicationFollower follower = new ReplicationFollower(args[3], Integer.parseInt(args[4]), store);
+            follower.start();
+            //从节点只对外提供读
+            new SocketServerController(host, port, new ReadOnlyStore(store)).startServer();
+        }
+    }
+}
@@ -9,19 +9,21 @@ package example;
 
 import controller.SocketServerController;
 import service.NormalStore;
+import service.ShardedStore;
 import service.Store;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class SocketServerUsage {
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
         String host = "localhost";
         int port = 12345;
         String dataDir = "data" + File.separator;
-        Store store = new NormalStore(dataDir);
+        //传入分片数量时使用多分片存储，否则使用单个 NormalStore
+        Store store = args.length > 0 ? new ShardedStore(dataDir, Integer.parseInt(args[0])) : new NormalStore(dataDir);
         SocketServerController controller = new SocketServerController(host, port, store);
         controller.startServer();
     }
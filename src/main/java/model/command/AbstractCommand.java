@@ -19,6 +19,11 @@ public abstract class AbstractCommand implements Command {
     * */
     private CommandTypeEnum type;
 
+    /*
+     * 写入时的序列号，用于快照读判断版本可见性
+     * */
+    private long seq;
+
     public AbstractCommand(CommandTypeEnum type) {
         this.type = type;
     }
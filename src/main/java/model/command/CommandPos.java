@@ -13,19 +13,67 @@ import lombok.Setter;
 @Setter
 @Getter
 public class CommandPos {
-    private int pos;  //命令的起始位置
-    private int len;   //命令的长度
+    private int fileIndex;   //命令所在的数据文件编号
+    private int pos;  //命令的起始位置，冷存储中压缩的有序块里的记录为所在块的起始位置
+    private int len;   //命令的长度，冷存储中压缩的有序块里的记录为所在块的长度
+    private int blockEntry = -1;   //记录在有序块中的序号，-1 表示按长度前缀单独存放的记录
+    private long expireAt;   //过期时间戳（毫秒），0 表示永不过期
+    private long seq;   //命令写入时的序列号
+    private boolean deleted;   //删除版本，只出现在为快照保留的历史版本中，没有对应的磁盘数据
+    private ValuePointer valuePointer;   //value 在值日志中的位置，value 内联在数据文件中时为空
 
     public CommandPos(int pos, int len) {
+        this(0, pos, len, 0L);
+    }
+
+    public CommandPos(int fileIndex, int pos, int len, long expireAt) {
+        this(fileIndex, pos, len, expireAt, 0L);
+    }
+
+    public CommandPos(int fileIndex, int pos, int len, long expireAt, long seq) {
+        this.fileIndex = fileIndex;
         this.pos = pos;
         this.len = len;
+        this.expireAt = expireAt;
+        this.seq = seq;
+    }
+
+    //在 seq 时被删除的版本
+    public static CommandPos deletedAt(long seq) {
+        CommandPos cmdPos = new CommandPos(-1, -1, 0, 0L, seq);
+        cmdPos.setDeleted(true);
+        return cmdPos;
+    }
+
+    //判断是否指向同一条磁盘记录
+    public boolean samePlace(CommandPos other) {
+        return other != null && !deleted && fileIndex == other.fileIndex && pos == other.pos
+                && blockEntry == other.blockEntry;
+    }
+
+    //位置随压缩改变时原地修改快照引用的历史版本，索引中的位置由索引自己修改
+    public void moveTo(CommandPos to) {
+        this.fileIndex = to.fileIndex;
+        this.pos = to.pos;
+        this.len = to.len;
+        this.blockEntry = to.blockEntry;
+    }
+
+    //判断索引指向的数据在给定时间点是否已经过期
+    public boolean isExpired(long now) {
+        return expireAt > 0 && expireAt <= now;
     }
 
     @Override
     public String toString() {
         return "CommandPos{" +
-                "pos=" + pos +
+                "fileIndex=" + fileIndex +
+                ", pos=" + pos +
                 ", len=" + len +
+                (blockEntry >= 0 ? ", blockEntry=" + blockEntry : "") +
+                ", expireAt=" + expireAt +
+                ", seq=" + seq +
+                (deleted ? ", deleted" : "") +
                 '}';
     }
 }
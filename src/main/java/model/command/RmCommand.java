@@ -15,6 +15,11 @@ import lombok.Setter;
 public class RmCommand extends AbstractCommand {
     private String key;
 
+    //反序列化时使用，保证序列号等非构造参数的字段也能被还原
+    public RmCommand() {
+        super(CommandTypeEnum.RM);
+    }
+
     public RmCommand(String key) {
         super(CommandTypeEnum.RM);
         this.key = key;
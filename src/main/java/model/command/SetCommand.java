@@ -15,10 +15,27 @@ import lombok.Setter;
 public class SetCommand extends AbstractCommand {
     private String key;
     private String value;
+    private long expireAt;   //过期时间戳（毫秒），0 表示永不过期
+    private ValuePointer valuePointer;   //大 value 存放在值日志中时不为空，此时 value 为空
+
+    //反序列化时使用，保证序列号、值指针等非构造参数的字段也能被还原
+    public SetCommand() {
+        super(CommandTypeEnum.SET);
+    }
 
     public SetCommand(String key, String value) {
+        this(key, value, 0L);
+    }
+
+    public SetCommand(String key, String value, long expireAt) {
         super(CommandTypeEnum.SET);
         this.key = key;
         this.value = value;
+        this.expireAt = expireAt;
+    }
+
+    //判断命令在给定时间点是否已经过期
+    public boolean isExpired(long now) {
+        return expireAt > 0 && expireAt <= now;
     }
 }
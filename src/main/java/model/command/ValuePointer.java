@@ -0,0 +1,34 @@
+package model.command;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//大 value 在值日志中的位置，数据文件和索引中只保存这个指针
+@Setter
+@Getter
+@NoArgsConstructor
+public class ValuePointer {
+    private int fileIndex;   //值日志文件编号
+    private long pos;   //value 字节的起始偏移量
+    private int len;   //value 的字节数
+
+    public ValuePointer(int fileIndex, long pos, int len) {
+        this.fileIndex = fileIndex;
+        this.pos = pos;
+        this.len = len;
+    }
+
+    public boolean samePlace(ValuePointer other) {
+        return other != null && fileIndex == other.fileIndex && pos == other.pos;
+    }
+
+    @Override
+    public String toString() {
+        return "ValuePointer{" +
+                "fileIndex=" + fileIndex +
+                ", pos=" + pos +
+                ", len=" + len +
+                '}';
+    }
+}
@@ -0,0 +1,216 @@
+package replication;
+
+import dto.ChangeCreditDTO;
+import dto.ReplicationBatchDTO;
+import dto.RespDTO;
+import dto.RespStatusTypeEnum;
+import dto.WALEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.NormalStore;
+import utils.LoggerUtil;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+//变更订阅：把已提交的 set/rm 按序列号顺序分批推送给订阅者，订阅者记录收到的最后一个序列号，重连时从它之后继续
+//最近的操作保存在自己的环形缓冲区中（与主从复制的结构相同，但不共用），写路径上只多一次入队；订阅的序列号已经不在缓冲区中时先发送全量快照
+//流量由订阅者控制：订阅者按操作数授予额度，服务器只在额度内推送，额度用完后暂停，直到订阅者处理完数据再授予新的额度
+public class ChangeFeed {
+    private static final int MAX_BATCH_ENTRIES = 512;   //每批最多发送的操作数量
+    private static final long HEARTBEAT_MS = 1000;   //有额度但没有新操作时发送空批次的间隔，订阅者据此得知最新的序列号
+    private final Logger LOGGER = LoggerFactory.getLogger(ChangeFeed.class);
+    private final String logFormat = "[ChangeFeed][{}]: {}";
+
+    private final NormalStore store;
+    private final CommitBacklog backlog;
+    private final Consumer<WALEntry> commitListener;
+    private final int maxSubscribers;
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();   //正在推送的连接，停止时全部关闭
+    private volatile boolean running;
+
+    public ChangeFeed(NormalStore store, int backlogSize, int maxSubscribers) {
+        this.store = store;
+        this.backlog = new CommitBacklog(backlogSize, store::getLastSeq);
+        this.commitListener = backlog::add;
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    public void start() {
+        running = true;
+        store.addWalListener(commitListener);
+        LoggerUtil.info(LOGGER, logFormat, "start", "变更订阅已启动，序列号 " + store.getLastSeq());
+    }
+
+    public void stop() {
+        running = false;
+        store.removeWalListener(commitListener);
+        backlog.close();
+        for (Socket socket : sessions) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.get();
+    }
+
+    //在单独的线程中开始推送，连接之后由这个线程负责关闭；订阅数已满或已经停止时返回 false，连接仍由调用方处理
+    public boolean subscribe(Socket socket, ObjectInputStream ois, ObjectOutputStream oos, long fromSeq, int credits) {
+        while (true) {
+            int current = subscribers.get();
+            if (!running || current >= maxSubscribers) {
+                return false;
+            }
+            if (subscribers.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        sessions.add(socket);
+        Thread session = new Thread(() -> serve(socket, ois, oos, fromSeq, credits), "easy-db-cdc-" + socket.getRemoteSocketAddress());
+        session.setDaemon(true);
+        session.start();
+        return true;
+    }
+
+    //订阅者授予的额度，推送线程用完后在这里等待
+    private static class Credits {
+        private long available;
+        private boolean closed;
+
+        Credits(long available) {
+            this.available = available;
+        }
+
+        synchronized void grant(long credits) {
+            available += credits;
+            notifyAll();
+        }
+
+        //快照批次整体发送，额度可能暂时为负，之后授予的额度先抵扣
+        synchronized void take(long credits) {
+            available -= credits;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        //等待到有额度为止，超时或订阅者断开时返回 0
+        synchronized long await(long waitMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + waitMs;
+            while (!closed && available <= 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                wait(remaining);
+            }
+            return closed ? 0 : available;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+    }
+
+    private void serve(Socket socket, ObjectInputStream ois, ObjectOutputStream oos, long fromSeq, int initialCredits) {
+        String subscriber = String.valueOf(socket.getRemoteSocketAddress());
+        Credits credits = new Credits(initialCredits);
+        try {
+            send(oos, new RespDTO(RespStatusTypeEnum.SUCCESS, String.valueOf(store.getLastSeq())));
+            LoggerUtil.info(LOGGER, logFormat, "serve", subscriber + " 从序列号 " + fromSeq + " 开始订阅，额度 " + initialCredits);
+            startCreditReader(subscriber, ois, credits);
+            long sentSeq = fromSeq;
+            while (running && !credits.isClosed()) {
+                long window = credits.await(HEARTBEAT_MS);
+                if (window <= 0) {
+                    continue;
+                }
+                if (!backlog.covers(sentSeq)) {
+                    sentSeq = sendSnapshot(oos, credits);
+                    continue;
+                }
+                List<WALEntry> entries = backlog.fetch(sentSeq, (int) Math.min(MAX_BATCH_ENTRIES, window), HEARTBEAT_MS);
+                if (entries == null) {
+                    continue;   //订阅者落后超出缓冲区，下一轮发送快照
+                }
+                long last = entries.isEmpty() ? sentSeq : entries.get(entries.size() - 1).getSeq();
+                credits.take(entries.size());
+                entries = ReplicationLeader.markStreamed(entries);
+                ReplicationLeader.send(oos, store, new ReplicationBatchDTO(false, false, last, store.getLastSeq(), entries.size(),
+                        ReplicationLeader.encode(entries)), entries);
+                sentSeq = last;
+            }
+        } catch (IOException e) {
+            LoggerUtil.info(LOGGER, logFormat, "serve", "订阅者断开 " + subscriber + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LoggerUtil.error(LOGGER, e, logFormat, "serve", subscriber);
+        } finally {
+            credits.close();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            sessions.remove(socket);
+            subscribers.decrementAndGet();
+        }
+    }
+
+    //在读锁下把全部有效数据按批压缩写入临时文件，释放锁之后逐批读出、按额度发送，返回快照对应的序列号
+    private long sendSnapshot(ObjectOutputStream oos, Credits credits) throws IOException, InterruptedException {
+        try (SnapshotSpill spill = SnapshotSpill.scan(store, MAX_BATCH_ENTRIES)) {
+            while (spill.next()) {
+                while (credits.await(HEARTBEAT_MS) <= 0) {
+                    if (!running || credits.isClosed()) {
+                        throw new IOException("快照发送中断");
+                    }
+                }
+                credits.take(spill.getCount());
+                ReplicationLeader.send(oos, store, new ReplicationBatchDTO(true, spill.isLast(), spill.getSnapshotSeq(), store.getLastSeq(), spill.getCount(),
+                        spill.getPayload()), spill.getStreamed());
+            }
+            LoggerUtil.info(LOGGER, logFormat, "sendSnapshot", "快照发送完成，序列号 " + spill.getSnapshotSeq());
+            return spill.getSnapshotSeq();
+        }
+    }
+
+    private void startCreditReader(String subscriber, ObjectInputStream ois, Credits credits) {
+        Thread reader = new Thread(() -> {
+            try {
+                while (running) {
+                    ChangeCreditDTO credit = (ChangeCreditDTO) ois.readObject();
+                    credits.grant(credit.getCredits());
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                //连接断开，推送线程在额度上等待时被唤醒并退出
+            } finally {
+                credits.close();
+            }
+        }, "easy-db-cdc-credit-" + subscriber);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void send(ObjectOutputStream oos, Object message) throws IOException {
+        oos.writeObject(message);
+        oos.flush();
+        oos.reset();   //长连接上清理对象引用缓存，避免内存持续增长
+    }
+}
@@ -0,0 +1,158 @@
+package replication;
+
+import dto.ActionDTO;
+import dto.ActionTypeEnum;
+import dto.ChangeCreditDTO;
+import dto.ReplicationBatchDTO;
+import dto.RespDTO;
+import dto.RespStatusTypeEnum;
+import dto.WALEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.ChunkedInputStream;
+import utils.LoggerUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.List;
+
+//变更订阅的客户端：通过服务器端口订阅已提交的 set/rm，处理完一批后再授予同样多的额度，断线后从最后处理的序列号继续
+public class ChangeSubscriber {
+    public static final int DEFAULT_CREDITS = 4096;   //服务器最多领先订阅者处理进度的操作数
+    private static final long RETRY_MS = 1000;   //断线或服务器忙时重连的间隔
+    private static final int VALUE_BUFFER_SIZE = 8192;   //读取分块 value 时每次读取的字节数
+    private final Logger LOGGER = LoggerFactory.getLogger(ChangeSubscriber.class);
+    private final String logFormat = "[ChangeSubscriber][{}]: {}";
+
+    //snapshot 为 true 时 entries 是全量快照的一部分，snapshotEnd 之前收到的快照数据合起来才是完整的当前状态，
+    //订阅者需要据此重建，快照中没有出现的 key 已经不存在；lastSeq 是处理完这一批之后可以用来续订的序列号
+    public interface Listener {
+        void onChanges(boolean snapshot, boolean snapshotEnd, long lastSeq, List<WALEntry> entries);
+    }
+
+    private final String host;
+    private final int port;
+    private final Listener listener;
+    private final int credits;
+    private volatile long lastSeq;   //已经交给 listener 处理完的最后一个序列号
+    private volatile long serverSeq;   //最近一次收到的服务器序列号
+    private volatile boolean running;
+    private volatile Socket socket;
+
+    //fromSeq 是上一次处理到的序列号，0 表示从全量快照开始
+    public ChangeSubscriber(String host, int port, long fromSeq, Listener listener) {
+        this(host, port, fromSeq, DEFAULT_CREDITS, listener);
+    }
+
+    public ChangeSubscriber(String host, int port, long fromSeq, int credits, Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.lastSeq = fromSeq;
+        this.credits = credits;
+        this.listener = listener;
+    }
+
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this::run, "easy-db-cdc-subscriber");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    //已经处理完的最后一个序列号，调用方持久化后可以用来续订
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    //落后服务器的操作数量
+    public long getLag() {
+        return Math.max(0, serverSeq - lastSeq);
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(host, port)) {
+                socket = s;
+                receive(s);
+            } catch (IOException | ClassNotFoundException e) {
+                if (running) {
+                    LoggerUtil.info(LOGGER, logFormat, "run", "与服务器的连接断开，稍后重连: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "run", e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void receive(Socket s) throws IOException, ClassNotFoundException {
+        ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+        ActionDTO request = new ActionDTO(ActionTypeEnum.SUBSCRIBE, (String) null, null);
+        request.setFromSeq(lastSeq);
+        request.setCredits(credits);
+        oos.writeObject(request);
+        oos.flush();
+        ObjectInputStream ois = new ObjectInputStream(s.getInputStream());
+        RespDTO resp = (RespDTO) ois.readObject();
+        if (resp.getStatus() != RespStatusTypeEnum.SUCCESS) {
+            LoggerUtil.info(LOGGER, logFormat, "receive", "订阅被拒绝: " + resp);
+            return;   //服务器忙或不支持订阅，稍后重试
+        }
+        LoggerUtil.info(LOGGER, logFormat, "receive", "从序列号 " + lastSeq + " 开始订阅");
+        while (running) {
+            ReplicationBatchDTO batch = (ReplicationBatchDTO) ois.readObject();
+            serverSeq = batch.getLeaderSeq();
+            if (batch.getCount() > 0 || batch.isSnapshot()) {
+                List<WALEntry> entries = ReplicationLeader.decode(batch.getPayload());
+                receiveValues(ois, entries);
+                listener.onChanges(batch.isSnapshot(), batch.isSnapshotEnd(), batch.getLastSeq(), entries);
+            }
+            //快照没有发完之前中断，需要重新接收整个快照，不能从快照序列号续订
+            if (!batch.isSnapshot() || batch.isSnapshotEnd()) {
+                lastSeq = batch.getLastSeq();
+            }
+            if (batch.getCount() > 0) {
+                oos.writeObject(new ChangeCreditDTO(batch.getCount()));
+                oos.flush();
+                oos.reset();
+            }
+        }
+    }
+
+    //值日志中的 value 跟在批次之后分块发送，读出后按原始字节放入 binaryValue；发送时 key 已经不存在的改为 rm
+    private void receiveValues(ObjectInputStream ois, List<WALEntry> entries) throws IOException {
+        for (WALEntry entry : entries) {
+            if (entry.getStreamedValue() == null) {
+                continue;
+            }
+            ByteArrayOutputStream value = new ByteArrayOutputStream();
+            byte[] buffer = new byte[VALUE_BUFFER_SIZE];
+            ChunkedInputStream chunks = new ChunkedInputStream(ois);
+            for (int n; (n = chunks.read(buffer, 0, buffer.length)) >= 0; ) {
+                value.write(buffer, 0, n);
+            }
+            if (ois.readBoolean()) {
+                entry.setBinaryValue(value.toByteArray());
+            } else {
+                entry.setCommandType("rm");
+            }
+            entry.setStreamedValue(null);
+        }
+    }
+}
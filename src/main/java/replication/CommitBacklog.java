@@ -0,0 +1,79 @@
+package replication;
+
+import dto.WALEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+//最近提交的 WAL 操作，按序列号取模存放在环形缓冲区中，主从复制和变更订阅从这里按序列号取出操作
+//入队在存储引擎的写锁内执行，只做一次数组赋值
+class CommitBacklog {
+    private final WALEntry[] entries;
+    private final LongSupplier lastSeq;   //存储引擎最新的序列号，缓冲区为空时用来判断是否已经追上
+    private long firstSeq = 0;   //缓冲区中最早的序列号
+    private int count = 0;
+    private boolean closed;
+
+    CommitBacklog(int size, LongSupplier lastSeq) {
+        this.entries = new WALEntry[size];
+        this.lastSeq = lastSeq;
+    }
+
+    //存储引擎提交操作后回调
+    synchronized void add(WALEntry entry) {
+        if (entry.getSeq() <= 0) {
+            return;   //快照数据没有序列号，不进入缓冲区
+        }
+        //序列号不连续时清空缓冲区，从这一条重新开始
+        if (count == 0 || entry.getSeq() != firstSeq + count) {
+            firstSeq = entry.getSeq();
+            count = 0;
+        }
+        entries[(int) (entry.getSeq() % entries.length)] = entry;
+        if (count == entries.length) {
+            firstSeq++;
+        } else {
+            count++;
+        }
+        notifyAll();
+    }
+
+    //判断从 afterSeq 之后的操作能否由缓冲区提供
+    synchronized boolean covers(long afterSeq) {
+        if (count == 0) {
+            return afterSeq == lastSeq.getAsLong();
+        }
+        return afterSeq >= firstSeq - 1 && afterSeq <= firstSeq + count - 1;
+    }
+
+    //取出 afterSeq 之后最多 max 条操作，没有新操作时最多等待 waitMs；缓冲区已经覆盖不到时返回 null
+    synchronized List<WALEntry> fetch(long afterSeq, int max, long waitMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMs;
+        while (!closed && (count == 0 || afterSeq >= firstSeq + count - 1)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        if (!covers(afterSeq)) {
+            return null;
+        }
+        List<WALEntry> result = new ArrayList<>();
+        if (count == 0) {
+            return result;
+        }
+        long last = Math.min(firstSeq + count - 1, afterSeq + max);
+        for (long seq = Math.max(afterSeq + 1, firstSeq); seq <= last; seq++) {
+            result.add(entries[(int) (seq % entries.length)]);
+        }
+        return result;
+    }
+
+    //唤醒等待中的 fetch，之后的 fetch 不再等待
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -0,0 +1,170 @@
+package replication;
+
+import dto.ReplicationAckDTO;
+import dto.ReplicationBatchDTO;
+import dto.ReplicationRequestDTO;
+import dto.WALEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import model.command.ValuePointer;
+import service.NormalStore;
+import utils.ChunkedInputStream;
+import utils.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+//从节点：连接主节点，把收到的 WAL 操作应用到本地存储，断线后从本地序列号继续复制
+public class ReplicationFollower {
+    public static final String SNAPSHOT_MARKER = "REPLICA_SNAPSHOT";   //快照应用过程中存在，重启时据此重新请求快照
+    private static final long RETRY_MS = 1000;   //断线重连的间隔
+    private final Logger LOGGER = LoggerFactory.getLogger(ReplicationFollower.class);
+    private final String logFormat = "[ReplicationFollower][{}]: {}";
+
+    private final String leaderHost;
+    private final int leaderPort;
+    private final NormalStore store;
+    private final File snapshotMarker;
+    private volatile boolean running;
+    private volatile Socket socket;
+    private volatile long leaderSeq;   //最近一次收到的主节点序列号
+    private volatile long lastBatchTimestamp;   //最近一次收到的批次的发送时间
+
+    public ReplicationFollower(String leaderHost, int leaderPort, NormalStore store) {
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+        this.store = store;
+        this.snapshotMarker = new File(store.getDataDir(), SNAPSHOT_MARKER);
+    }
+
+    public void start() {
+        running = true;
+        Thread thread = new Thread(this::run, "easy-db-repl-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    //落后主节点的操作数量
+    public long getLag() {
+        return Math.max(0, leaderSeq - store.getLastSeq());
+    }
+
+    //落后主节点的时间（毫秒），已经追上时为 0
+    public long getLagMillis() {
+        if (getLag() == 0 || lastBatchTimestamp == 0) {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - lastBatchTimestamp);
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket(leaderHost, leaderPort)) {
+                socket = s;
+                replicate(s);
+            } catch (IOException | ClassNotFoundException e) {
+                if (running) {
+                    LoggerUtil.info(LOGGER, logFormat, "run", "与主节点的连接断开，稍后重连: " + e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "run", e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void replicate(Socket s) throws IOException, ClassNotFoundException {
+        ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream());
+        oos.flush();
+        ObjectInputStream ois = new ObjectInputStream(s.getInputStream());
+        //上一次快照没有应用完，本地数据不完整，重新请求快照
+        long fromSeq = snapshotMarker.exists() ? 0 : store.getLastSeq();
+        oos.writeObject(new ReplicationRequestDTO(fromSeq));
+        oos.flush();
+        LoggerUtil.info(LOGGER, logFormat, "replicate", "从序列号 " + fromSeq + " 开始复制");
+
+        Set<String> snapshotKeys = null;
+        while (running) {
+            ReplicationBatchDTO batch = (ReplicationBatchDTO) ois.readObject();
+            List<WALEntry> entries = ReplicationLeader.decode(batch.getPayload());
+            receiveValues(ois, entries);
+            if (batch.isSnapshot()) {
+                if (snapshotKeys == null) {
+                    snapshotMarker.createNewFile();
+                    snapshotKeys = new HashSet<>();
+                }
+                for (WALEntry entry : entries) {
+                    snapshotKeys.add(entry.getKey());
+                    store.applyReplicated(entry);
+                }
+                if (batch.isSnapshotEnd()) {
+                    removeStale(snapshotKeys);
+                    store.advanceSeq(batch.getLastSeq());
+                    snapshotMarker.delete();
+                    snapshotKeys = null;
+                    LoggerUtil.info(LOGGER, logFormat, "replicate", "快照应用完成，序列号 " + batch.getLastSeq());
+                }
+            } else {
+                for (WALEntry entry : entries) {
+                    store.applyReplicated(entry);
+                }
+            }
+            leaderSeq = batch.getLeaderSeq();
+            lastBatchTimestamp = batch.getTimestamp();
+            oos.writeObject(new ReplicationAckDTO(store.getLastSeq()));
+            oos.flush();
+            oos.reset();
+        }
+    }
+
+    //读出跟在批次之后的 value，按块写入本地值日志，操作中只保留指针；发送时 key 已经不存在的改为 rm
+    private void receiveValues(ObjectInputStream ois, List<WALEntry> entries) throws IOException {
+        for (WALEntry entry : entries) {
+            if (entry.getStreamedValue() == null) {
+                continue;
+            }
+            ChunkedInputStream chunks = new ChunkedInputStream(ois);
+            ValuePointer pointer = store.appendReplicatedValue(entry.getKey(), chunks);
+            chunks.close();
+            if (ois.readBoolean()) {
+                entry.setValuePointer(pointer);
+            } else {
+                entry.setCommandType("rm");
+            }
+            entry.setStreamedValue(null);
+        }
+    }
+
+    //删除快照中不存在的本地数据，这些 key 在主节点上已经被删除或过期
+    private void removeStale(Set<String> snapshotKeys) {
+        List<String> stale = new ArrayList<>();
+        store.scanLive(entry -> {
+            if (!snapshotKeys.contains(entry.getKey())) {
+                stale.add(entry.getKey());
+            }
+        });
+        for (String key : stale) {
+            store.applyReplicated(new WALEntry("rm", key, null));
+        }
+    }
+}
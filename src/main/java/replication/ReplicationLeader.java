@@ -0,0 +1,215 @@
+package replication;
+
+import com.alibaba.fastjson.JSON;
+import dto.ReplicationAckDTO;
+import dto.ReplicationBatchDTO;
+import dto.ReplicationRequestDTO;
+import dto.WALEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import service.NormalStore;
+import utils.ChunkedOutputStream;
+import utils.CompressUtil;
+import utils.LoggerUtil;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+//主节点：监听从节点的连接，把已提交的 WAL 操作分批压缩后通过 TCP 推送给从节点
+//最近的操作保存在内存环形缓冲区中，从节点落后超出缓冲区范围时先发送全量快照
+public class ReplicationLeader {
+    public static final int DEFAULT_BACKLOG_SIZE = 100000;   //内存中保留的最近操作数量
+    private static final int MAX_BATCH_ENTRIES = 512;   //每批最多发送的操作数量
+    private static final long HEARTBEAT_MS = 1000;   //没有新操作时发送空批次的间隔，用于从节点计算延迟
+    private final Logger LOGGER = LoggerFactory.getLogger(ReplicationLeader.class);
+    private final String logFormat = "[ReplicationLeader][{}]: {}";
+
+    private final int port;
+    private final NormalStore store;
+    private final CommitBacklog backlog;   //最近提交的操作
+    private final Map<String, Long> followerAckedSeq = new ConcurrentHashMap<>();   //每个从节点确认过的序列号
+    private final Consumer<WALEntry> commitListener;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    public ReplicationLeader(int port, NormalStore store) {
+        this(port, store, DEFAULT_BACKLOG_SIZE);
+    }
+
+    public ReplicationLeader(int port, NormalStore store, int backlogSize) {
+        this.port = port;
+        this.store = store;
+        this.backlog = new CommitBacklog(backlogSize, store::getLastSeq);
+        this.commitListener = backlog::add;
+    }
+
+    public void start() throws IOException {
+        store.addWalListener(commitListener);
+        serverSocket = new ServerSocket(port);
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "easy-db-repl-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LoggerUtil.info(LOGGER, logFormat, "start", "复制端口 " + port + " 已启动");
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        store.removeWalListener(commitListener);
+        backlog.close();
+        serverSocket.close();
+    }
+
+    //每个从节点当前落后的操作数量
+    public Map<String, Long> getFollowerLags() {
+        long leaderSeq = store.getLastSeq();
+        Map<String, Long> lags = new HashMap<>();
+        for (Map.Entry<String, Long> entry : followerAckedSeq.entrySet()) {
+            lags.put(entry.getKey(), Math.max(0, leaderSeq - entry.getValue()));
+        }
+        return lags;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                LoggerUtil.info(LOGGER, logFormat, "acceptLoop", "从节点已连接 " + socket.getRemoteSocketAddress());
+                Thread session = new Thread(() -> serve(socket), "easy-db-repl-" + socket.getRemoteSocketAddress());
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                if (running) {
+                    LoggerUtil.error(LOGGER, e, logFormat, "acceptLoop", e.getMessage());
+                }
+            }
+        }
+    }
+
+    //一个从节点的复制会话：先按需发送快照，然后持续推送新的操作
+    private void serve(Socket socket) {
+        String follower = socket.getRemoteSocketAddress().toString();
+        try (Socket s = socket;
+             ObjectOutputStream oos = new ObjectOutputStream(s.getOutputStream())) {
+            oos.flush();
+            ObjectInputStream ois = new ObjectInputStream(s.getInputStream());
+            ReplicationRequestDTO request = (ReplicationRequestDTO) ois.readObject();
+            LoggerUtil.info(LOGGER, logFormat, "serve", follower + " " + request);
+            long sentSeq = request.getFromSeq();
+            followerAckedSeq.put(follower, sentSeq);
+            startAckReader(follower, ois);
+
+            while (running) {
+                if (!backlog.covers(sentSeq)) {
+                    sentSeq = sendSnapshot(oos);
+                    continue;
+                }
+                List<WALEntry> entries = backlog.fetch(sentSeq, MAX_BATCH_ENTRIES, HEARTBEAT_MS);
+                if (entries == null) {
+                    continue;   //从节点落后超出缓冲区，下一轮重新发送快照
+                }
+                long last = entries.isEmpty() ? sentSeq : entries.get(entries.size() - 1).getSeq();
+                entries = markStreamed(entries);
+                send(oos, store, new ReplicationBatchDTO(false, false, last, store.getLastSeq(), entries.size(), encode(entries)), entries);
+                sentSeq = last;
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            LoggerUtil.info(LOGGER, logFormat, "serve", "从节点断开 " + follower + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followerAckedSeq.remove(follower);
+        }
+    }
+
+    //流式写入的操作在 WAL 中只有本地值日志的指针，从节点无法读取，发送前换成不带 value 的副本，value 由 send 分块发送
+    static List<WALEntry> markStreamed(List<WALEntry> entries) {
+        List<WALEntry> result = new ArrayList<>(entries.size());
+        for (WALEntry entry : entries) {
+            if (entry.getValuePointer() == null) {
+                result.add(entry);
+                continue;
+            }
+            WALEntry copy = new WALEntry(entry.getCommandType(), entry.getKey(), null, entry.getExpireAt());
+            copy.setSeq(entry.getSeq());
+            copy.setStreamedValue(true);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    //在读锁下把全部有效数据按批压缩写入临时文件，释放锁之后逐批读出发送，返回快照对应的序列号
+    private long sendSnapshot(ObjectOutputStream oos) throws IOException {
+        try (SnapshotSpill spill = SnapshotSpill.scan(store, MAX_BATCH_ENTRIES)) {
+            while (spill.next()) {
+                send(oos, store, new ReplicationBatchDTO(true, spill.isLast(), spill.getSnapshotSeq(), store.getLastSeq(), spill.getCount(), spill.getPayload()),
+                        spill.getStreamed());
+            }
+            LoggerUtil.info(LOGGER, logFormat, "sendSnapshot", "快照发送完成，序列号 " + spill.getSnapshotSeq());
+            return spill.getSnapshotSeq();
+        }
+    }
+
+    private void startAckReader(String follower, ObjectInputStream ois) {
+        Thread reader = new Thread(() -> {
+            try {
+                while (running) {
+                    ReplicationAckDTO ack = (ReplicationAckDTO) ois.readObject();
+                    followerAckedSeq.put(follower, ack.getAppliedSeq());
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                //连接断开，由发送线程负责清理
+            }
+        }, "easy-db-repl-ack-" + follower);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    //快照中只有 streamedValue 的操作需要在批次之后发送 value，其余的已经压缩进批次，不再保留
+    static List<WALEntry> streamedOnly(List<WALEntry> entries) {
+        List<WALEntry> result = new ArrayList<>();
+        for (WALEntry entry : entries) {
+            if (entry.getStreamedValue() != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    //发送一批操作，entries 中每个 streamedValue 操作的 value 按顺序跟在批次之后：分块的 value，然后是 key 是否仍然存在
+    //发送的是 key 的当前值，可能比这条操作更新，之后的操作会按顺序再次覆盖，最终结果一致；key 已经不存在时对端改为 rm
+    //value 从值日志按块读出后直接写入连接，不在内存中完整保存
+    static void send(ObjectOutputStream oos, NormalStore store, Object message, List<WALEntry> entries) throws IOException {
+        oos.writeObject(message);
+        for (WALEntry entry : entries) {
+            if (entry.getStreamedValue() == null) {
+                continue;
+            }
+            ChunkedOutputStream chunks = new ChunkedOutputStream(oos);
+            long sent = store.get(entry.getKey(), Channels.newChannel(chunks));
+            chunks.close();
+            oos.writeBoolean(sent >= 0);
+        }
+        oos.flush();
+        oos.reset();   //长连接上清理对象引用缓存，避免内存持续增长
+    }
+
+    static byte[] encode(List<WALEntry> entries) {
+        return CompressUtil.gzip(JSON.toJSONBytes(entries));
+    }
+
+    static List<WALEntry> decode(byte[] payload) {
+        return JSON.parseArray(new String(CompressUtil.gunzip(payload), StandardCharsets.UTF_8), WALEntry.class);
+    }
+}
@@ -0,0 +1,128 @@
+package replication;
+
+import dto.WALEntry;
+import service.NormalStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//全量快照的临时文件：在读锁下扫描时每攒满一批就压缩后追加到数据目录下的临时文件，释放锁之后再逐批读出发送
+//发送方内存中只保留一批，不随数据量增长；网络慢或订阅者额度不足时也不会长时间持有读锁
+//每批的格式为 [int 操作数][int 长度][压缩后的操作][int 长度][压缩后的 streamedValue 操作，没有时长度为 0]
+final class SnapshotSpill implements Closeable {
+    private final File file;
+    private final long snapshotSeq;   //快照对应的序列号
+    private final int batches;   //文件中的批数，至少一批（可能为空）
+    private final DataInputStream in;
+    private int read;   //已经读出的批数
+    private int count;
+    private byte[] payload;
+    private List<WALEntry> streamed;
+
+    private SnapshotSpill(File file, long snapshotSeq, int batches) throws IOException {
+        this.file = file;
+        this.snapshotSeq = snapshotSeq;
+        this.batches = batches;
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    //扫描全部有效数据写入临时文件，写入失败时删除临时文件
+    static SnapshotSpill scan(NormalStore store, int batchEntries) throws IOException {
+        File file = File.createTempFile(NormalStore.SNAPSHOT_SPILL, NormalStore.SPILL, new File(store.getDataDir()));
+        try {
+            long snapshotSeq;
+            int[] batches = {0};
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                List<WALEntry> buffer = new ArrayList<>();
+                try {
+                    snapshotSeq = store.scanLive(entry -> {
+                        buffer.add(entry);
+                        if (buffer.size() >= batchEntries) {
+                            writeBatch(out, buffer);
+                            batches[0]++;
+                            buffer.clear();
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                writeBatch(out, buffer);
+                batches[0]++;
+            }
+            return new SnapshotSpill(file, snapshotSeq, batches[0]);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    private static void writeBatch(DataOutputStream out, List<WALEntry> buffer) {
+        try {
+            byte[] payload = ReplicationLeader.encode(buffer);
+            out.writeInt(buffer.size());
+            out.writeInt(payload.length);
+            out.write(payload);
+            List<WALEntry> streamed = ReplicationLeader.streamedOnly(buffer);
+            byte[] encoded = streamed.isEmpty() ? new byte[0] : ReplicationLeader.encode(streamed);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);   //在 scanLive 的回调中抛出，由 scan 还原
+        }
+    }
+
+    //读出下一批，没有更多批次时返回 false
+    boolean next() throws IOException {
+        if (read == batches) {
+            return false;
+        }
+        count = in.readInt();
+        payload = new byte[in.readInt()];
+        in.readFully(payload);
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        streamed = encoded.length == 0 ? Collections.<WALEntry>emptyList() : ReplicationLeader.decode(encoded);
+        read++;
+        return true;
+    }
+
+    boolean isLast() {
+        return read == batches;
+    }
+
+    long getSnapshotSeq() {
+        return snapshotSeq;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    byte[] getPayload() {
+        return payload;
+    }
+
+    List<WALEntry> getStreamed() {
+        return streamed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
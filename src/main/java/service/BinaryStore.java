@@ -0,0 +1,55 @@
+package service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+//以 byte[]/ByteBuffer 为 key 和 value 的存储接口，二进制数据不需要 base64 编码，也没有字符集转换
+//内部 key 与 String 接口、值日志一样使用 UTF-8：合法 UTF-8 的 key 解码后与 String 接口的同名 key 是同一个 key；
+//不是合法 UTF-8 的 key（以及以字节 0 开头的 key）放在以 \u0000 开头的单独命名空间中，按 ISO-8859-1 一个字节对应一个字符无损映射，
+//String 接口的 key 不应以 \u0000 开头
+public interface BinaryStore {
+    char RAW_KEY_PREFIX = '\u0000';   //不是合法 UTF-8 的二进制 key 的命名空间前缀
+
+    void set(byte[] key, byte[] value);
+
+    //写入 value 中 position 到 limit 之间的字节，不改变 value 的位置
+    void set(byte[] key, ByteBuffer value);
+
+    //返回只读的 ByteBuffer，尽量直接是值日志内存映射的切片，不存在时返回 null
+    ByteBuffer get(byte[] key);
+
+    void rm(byte[] key);
+
+    //二进制 key 对应的内部 key
+    static String toKey(byte[] key) {
+        if (key.length == 0 || key[0] != 0) {
+            String text = decodeUtf8(ByteBuffer.wrap(key));
+            if (text != null) {
+                return text;
+            }
+        }
+        return RAW_KEY_PREFIX + new String(key, StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] toBytes(String key) {
+        if (!key.isEmpty() && key.charAt(0) == RAW_KEY_PREFIX) {
+            return key.substring(1).getBytes(StandardCharsets.ISO_8859_1);
+        }
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //严格按 UTF-8 解码 position 到 limit 之间的字节，不是合法 UTF-8 时返回 null；合法时重新编码得到的字节与原来完全相同
+    static String decodeUtf8(ByteBuffer bytes) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(bytes.duplicate())
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+}
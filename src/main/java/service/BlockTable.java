@@ -0,0 +1,477 @@
+package service;
+
+import utils.CompressUtil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//有序块格式：记录按 key 排序后切成若干块，块内的 key 只存与前一个 key 不同的后缀，
+//每隔 RESTART_INTERVAL 条存一次完整的 key 作为重启点，读取时从最近的重启点开始解码，不必从块头扫起
+//文件格式：[int MAGIC] 之后是若干个 [int 块长度][块内容]；文件头是 COMPRESSED_MAGIC 时每个块内容单独用 GZIP 压缩，块长度是压缩后的长度
+//块内容：若干条 [varint 共享前缀长度][varint 后缀长度][key 后缀][varint 记录长度][记录]，之后是 [int 重启点偏移]...[int 重启点数量]
+public class BlockTable {
+    public static final int MAGIC = 0xEA5EB10C;   //文件头标识，旧格式数据文件开头是记录长度，不会是负数
+    public static final int COMPRESSED_MAGIC = 0xEA5EB10D;   //块内容经过压缩的文件头标识
+    public static final int BLOCK_SIZE = 4096;   //块内容达到这个字节数后开始新块
+    public static final int RESTART_INTERVAL = 16;   //每隔多少条记录存一次完整的 key
+
+    //一个块写完之后回调，pos 是块内容在输出中的起始位置
+    public interface BlockListener {
+        void onBlock(int pos, int len) throws IOException;
+    }
+
+    public interface EntryConsumer {
+        void accept(int entry, byte[] key, byte[] record);
+    }
+
+    //按 key 从小到大依次写入记录，相同的 key 可以连续出现多次
+    public static class Writer {
+        private final DataOutputStream out;
+        private final BlockListener listener;
+        private final boolean compressed;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+        private final List<Integer> restarts = new ArrayList<>();
+        private byte[] lastKey = new byte[0];
+        private int entries = 0;   //当前块已写入的记录数
+        private int written = 0;   //已经写入输出的字节数
+        private int recordPos;   //最近一次写入的记录在输出中的位置
+
+        public Writer(OutputStream out, BlockListener listener) throws IOException {
+            this(out, listener, false);
+        }
+
+        //compressed 为 true 时每个块压缩后再写出，回调中的块长度是压缩后的长度
+        public Writer(OutputStream out, BlockListener listener, boolean compressed) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.listener = listener;
+            this.compressed = compressed;
+            this.out.writeInt(compressed ? COMPRESSED_MAGIC : MAGIC);
+            written = 4;
+        }
+
+        //写入一条记录，返回它在当前块中的序号；当前块已满时先把它写出
+        public int add(byte[] key, byte[] record) throws IOException {
+            if (block.size() >= BLOCK_SIZE) {
+                finishBlock();
+            }
+            int shared = 0;
+            if (entries % RESTART_INTERVAL == 0) {
+                restarts.add(block.size());   //重启点存完整的 key
+            } else {
+                int max = Math.min(lastKey.length, key.length);
+                while (shared < max && lastKey[shared] == key[shared]) {
+                    shared++;
+                }
+            }
+            writeVarInt(shared);
+            writeVarInt(key.length - shared);
+            block.write(key, shared, key.length - shared);
+            writeVarInt(record.length);
+            recordPos = blockPos() + block.size();
+            block.write(record, 0, record.length);
+            lastKey = key;
+            return entries++;
+        }
+
+        //当前块内容在输出中的起始位置，即 add 返回的记录所在的块
+        public int blockPos() {
+            return written + 4;
+        }
+
+        //最近一次 add 的记录本身在输出中的位置，块不压缩时可以不经过块直接读取这条记录
+        public int recordPos() {
+            return recordPos;
+        }
+
+        //写出最后一个块，不会关闭输出
+        public void finish() throws IOException {
+            finishBlock();
+            out.flush();
+        }
+
+        private void finishBlock() throws IOException {
+            if (entries == 0) {
+                return;
+            }
+            DataOutputStream trailer = new DataOutputStream(block);
+            for (int restart : restarts) {
+                trailer.writeInt(restart);
+            }
+            trailer.writeInt(restarts.size());
+            int pos = blockPos();
+            byte[] stored = compressed ? CompressUtil.gzip(block.toByteArray()) : null;
+            int storedLen = compressed ? stored.length : block.size();
+            out.writeInt(storedLen);
+            if (compressed) {
+                out.write(stored);
+            } else {
+                block.writeTo(out);
+            }
+            written += 4 + storedLen;
+            listener.onBlock(pos, storedLen);
+            block.reset();
+            restarts.clear();
+            lastKey = new byte[0];
+            entries = 0;
+        }
+
+        private void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                block.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            block.write(value);
+        }
+    }
+
+    //按顺序逐条读出有序块文件中的记录，内存中只保留当前的块；末尾不完整的块被忽略
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long fileLen;
+        private final boolean compressed;
+        private long start = 4;   //下一个块的长度前缀在文件中的位置
+        private ByteBuffer block;   //当前块解压后的内容
+        private int end;   //当前块中记录部分的结束位置
+        private int blockPos;
+        private int blockLen;
+        private int recordPos;
+        private int entry;
+        private byte[] key;
+        private byte[] record;
+
+        public Reader(File file) throws IOException {
+            this.fileLen = file.length();
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            int magic = fileLen < 4 ? 0 : in.readInt();
+            if (!isBlockMagic(magic)) {
+                in.close();
+                throw new IllegalArgumentException(file + " 不是有序块格式的文件");
+            }
+            this.compressed = magic == COMPRESSED_MAGIC;
+        }
+
+        //读到下一条记录，没有更多记录时返回 false
+        public boolean next() throws IOException {
+            while (block == null || block.position() >= end) {
+                if (start + 4 > fileLen) {
+                    return false;
+                }
+                int len = in.readInt();
+                if (len <= 0 || start + 4 + len > fileLen) {
+                    return false;
+                }
+                byte[] stored = new byte[len];
+                in.readFully(stored);
+                byte[] content = inflate(stored, compressed);
+                block = ByteBuffer.wrap(content);
+                end = content.length - 4 - block.getInt(content.length - 4) * 4;
+                blockPos = (int) start + 4;
+                blockLen = len;
+                start += 4 + len;
+                key = new byte[0];
+                entry = -1;
+            }
+            key = nextKey(block, key);
+            record = new byte[readVarInt(block)];
+            recordPos = blockPos + block.position();
+            block.get(record);
+            entry++;
+            return true;
+        }
+
+        public boolean isCompressed() {
+            return compressed;
+        }
+
+        public byte[] key() {
+            return key;
+        }
+
+        public byte[] record() {
+            return record;
+        }
+
+        //记录在所在块中的序号
+        public int entry() {
+            return entry;
+        }
+
+        public int blockPos() {
+            return blockPos;
+        }
+
+        //块在文件中存储的长度，压缩的块是压缩后的长度
+        public int blockLen() {
+            return blockLen;
+        }
+
+        //记录本身在文件中的位置，只对不压缩的块有意义
+        public int recordPos() {
+            return recordPos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    //稀疏索引：只记每个块的第一个 key 和块的位置，按 key 定位到唯一可能包含它的块，不为每条记录建立索引
+    public static class BlockIndex {
+        private final boolean compressed;
+        private byte[][] firstKeys = new byte[16][];
+        private int[] positions = new int[16];
+        private int[] lengths = new int[16];
+        private int count;
+
+        public BlockIndex(boolean compressed) {
+            this.compressed = compressed;
+        }
+
+        private void add(byte[] firstKey, int pos, int len) {
+            if (count == firstKeys.length) {
+                firstKeys = Arrays.copyOf(firstKeys, count * 2);
+                positions = Arrays.copyOf(positions, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            firstKeys[count] = firstKey;
+            positions[count] = pos;
+            lengths[count] = len;
+            count++;
+        }
+
+        //第一个 key 不大于 key 的最后一个块；同一个 key 跨块出现时最新的记录在这个块里，比所有块都小时返回 -1
+        public int find(byte[] key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (SortedFileWriter.compareKeys(firstKeys[mid], key) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        public boolean isCompressed() {
+            return compressed;
+        }
+
+        public int blockPos(int block) {
+            return positions[block];
+        }
+
+        //块在文件中存储的长度，压缩的块是压缩后的长度
+        public int blockLen(int block) {
+            return lengths[block];
+        }
+    }
+
+    //顺序读出每个块的第一个 key；不压缩的块只读到第一个 key 为止，其余部分直接跳过
+    public static BlockIndex readIndex(File file) throws IOException {
+        long fileLen = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int magic = fileLen < 4 ? 0 : in.readInt();
+            if (!isBlockMagic(magic)) {
+                throw new IllegalArgumentException(file + " 不是有序块格式的文件");
+            }
+            BlockIndex index = new BlockIndex(magic == COMPRESSED_MAGIC);
+            long start = 4;
+            while (start + 4 <= fileLen) {
+                int blockLen = in.readInt();
+                if (blockLen <= 0 || start + 4 + blockLen > fileLen) {
+                    break;
+                }
+                byte[] firstKey;
+                if (index.compressed) {
+                    byte[] stored = new byte[blockLen];
+                    in.readFully(stored);
+                    firstKey = nextKey(ByteBuffer.wrap(inflate(stored, true)), new byte[0]);
+                } else {
+                    byte[] head = new byte[Math.min(blockLen, 10)];
+                    in.readFully(head);
+                    ByteBuffer buf = ByteBuffer.wrap(head);
+                    readVarInt(buf);   //第一条记录没有共享前缀
+                    firstKey = new byte[readVarInt(buf)];
+                    int inHead = Math.min(firstKey.length, buf.remaining());
+                    buf.get(firstKey, 0, inHead);
+                    in.readFully(firstKey, inHead, firstKey.length - inHead);
+                    for (int skip = blockLen - head.length - (firstKey.length - inHead); skip > 0; ) {
+                        int skipped = in.skipBytes(skip);
+                        if (skipped <= 0) {
+                            throw new EOFException(file + " 在偏移量 " + start + " 处不完整");
+                        }
+                        skip -= skipped;
+                    }
+                }
+                index.add(firstKey, (int) start + 4, blockLen);
+                start += 4 + blockLen;
+            }
+            return index;
+        }
+    }
+
+    //在块内容（block 的前 blockLen 个字节）中查找 key，同一个 key 有多条时取最后一条
+    //找到时 range 填入 {记录在块内容中的偏移, 记录长度} 并返回块内序号，否则返回 -1
+    public static int findEntry(byte[] block, int blockLen, byte[] key, int[] range) {
+        ByteBuffer buf = ByteBuffer.wrap(block, 0, blockLen);
+        int restartCount = buf.getInt(blockLen - 4);
+        int end = blockLen - 4 - restartCount * 4;
+        byte[] current = new byte[64];
+        int found = -1;
+        for (int entry = 0; buf.position() < end; entry++) {
+            int shared = readVarInt(buf);
+            int unshared = readVarInt(buf);
+            if (shared + unshared > current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, shared + unshared));
+            }
+            buf.get(current, shared, unshared);
+            int recordLen = readVarInt(buf);
+            int cmp = compareKey(current, shared + unshared, key);
+            if (cmp > 0) {
+                break;
+            }
+            if (cmp == 0) {
+                found = entry;
+                range[0] = buf.position();
+                range[1] = recordLen;
+            }
+            ((Buffer) buf).position(buf.position() + recordLen);
+        }
+        return found;
+    }
+
+    private static int compareKey(byte[] a, int aLen, byte[] b) {
+        int len = Math.min(aLen, b.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return aLen - b.length;
+    }
+
+    //判断文件是否是有序块格式
+    public static boolean isBlockFile(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return isBlockMagic(in.readInt());
+        }
+    }
+
+    public static boolean isBlockMagic(int magic) {
+        return magic == MAGIC || magic == COMPRESSED_MAGIC;
+    }
+
+    //把文件中存储的块内容还原成可以解码的块
+    public static byte[] inflate(byte[] stored, boolean compressed) {
+        return compressed ? CompressUtil.gunzip(stored) : stored;
+    }
+
+    //顺序读取有序块文件中的每一条记录，entry 为记录在所在块中的序号
+    public static void forEachFileEntry(File file, EntryConsumer consumer) throws IOException {
+        long fileLen = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int magic = fileLen < 4 ? 0 : in.readInt();
+            if (!isBlockMagic(magic)) {
+                throw new IllegalArgumentException(file + " 不是有序块格式的文件");
+            }
+            long start = 4;
+            while (start + 4 <= fileLen) {
+                int blockLen = in.readInt();
+                if (blockLen <= 0 || start + 4 + blockLen > fileLen) {
+                    throw new IllegalArgumentException(file + " 在偏移量 " + start + " 处不完整");
+                }
+                byte[] block = new byte[blockLen];
+                in.readFully(block);
+                forEachEntry(inflate(block, magic == COMPRESSED_MAGIC), consumer);
+                start += 4 + blockLen;
+            }
+        }
+    }
+
+    //按顺序解码块中的每一条记录
+    public static void forEachEntry(byte[] block, EntryConsumer consumer) {
+        ByteBuffer buf = ByteBuffer.wrap(block);
+        int restartCount = buf.getInt(block.length - 4);
+        int end = block.length - 4 - restartCount * 4;
+        byte[] key = new byte[0];
+        int entry = 0;
+        while (buf.position() < end) {
+            key = nextKey(buf, key);
+            byte[] record = new byte[readVarInt(buf)];
+            buf.get(record);
+            consumer.accept(entry++, key, record);
+        }
+    }
+
+    //读取块中序号为 entry 的记录：先跳到它所属的重启点，再向后解码不超过 RESTART_INTERVAL 条
+    public static void readEntry(byte[] block, int entry, EntryConsumer consumer) {
+        readEntry(block, block.length, entry, consumer);
+    }
+
+    //块内容是 block 的前 blockLen 个字节；跳过的记录在同一个缓冲区中还原 key，只为命中的记录复制 key 和记录
+    public static void readEntry(byte[] block, int blockLen, int entry, EntryConsumer consumer) {
+        ByteBuffer buf = ByteBuffer.wrap(block, 0, blockLen);
+        int restartCount = buf.getInt(blockLen - 4);
+        int restart = entry / RESTART_INTERVAL;
+        if (entry < 0 || restart >= restartCount) {
+            throw new IllegalArgumentException("块中没有第 " + entry + " 条记录");
+        }
+        ((Buffer) buf).position(buf.getInt(blockLen - 4 - (restartCount - restart) * 4));
+        byte[] key = new byte[64];
+        for (int i = restart * RESTART_INTERVAL; ; i++) {
+            int shared = readVarInt(buf);
+            int unshared = readVarInt(buf);
+            if (shared + unshared > key.length) {
+                key = Arrays.copyOf(key, Math.max(key.length * 2, shared + unshared));
+            }
+            buf.get(key, shared, unshared);
+            int recordLen = readVarInt(buf);
+            if (i == entry) {
+                byte[] record = new byte[recordLen];
+                buf.get(record);
+                consumer.accept(entry, Arrays.copyOf(key, shared + unshared), record);
+                return;
+            }
+            ((Buffer) buf).position(buf.position() + recordLen);
+        }
+    }
+
+    private static byte[] nextKey(ByteBuffer buf, byte[] lastKey) {
+        int shared = readVarInt(buf);
+        int unshared = readVarInt(buf);
+        byte[] key = Arrays.copyOf(lastKey, shared + unshared);
+        buf.get(key, shared, unshared);
+        return key;
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
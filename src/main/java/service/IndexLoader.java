@@ -0,0 +1,207 @@
+package service;
+
+import model.command.Command;
+import model.command.CommandPos;
+import model.command.RmCommand;
+import model.command.SetCommand;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+//快速启动时在后台加载索引的状态：数据文件按从新到旧的顺序逐个扫描合并进索引
+//还没有扫描到的 key 在读的时候按从新到旧的顺序探测剩余的文件：有序块文件只保留每个块的第一个 key，探测时每个文件只读一个块；
+//旧格式文件的 key 在 JSON 里，只能整个解析，解析结果缓存起来，后台加载直接使用
+//探测在锁外由 prefetch 完成，结果暂存在 probes 中，持锁的 probe 直接取用
+//resolved 记录已经由较新的数据（已合并的文件或加载期间落盘的写入）确定了结果的 key，包括被删除的 key，较旧的文件不能再覆盖它们
+class IndexLoader {
+    interface FileAccess {
+        //读取一个数据文件的全部记录，与 NormalStore.forEachRecord 相同
+        void read(int fileIndex, BiConsumer<CommandPos, Command> consumer) throws IOException;
+
+        //读取每个块的第一个 key；不是有序块格式的文件返回 null
+        BlockTable.BlockIndex readIndex(int fileIndex) throws IOException;
+
+        //只读取 key 可能所在的那一个块，找到时 location 填入记录位置并返回解析出的命令，文件中没有这个 key 时返回 null
+        Command find(int fileIndex, BlockTable.BlockIndex blocks, String key, int[] location) throws IOException;
+
+        CommandPos positionOf(int fileIndex, int[] location, Command command);
+    }
+
+    private static final BlockTable.BlockIndex NOT_SORTED = new BlockTable.BlockIndex(false);   //不是有序块格式、只能整个解析的文件
+    private static final int MAX_PROBES = 4096;   //最多暂存多少个预先探测的结果，超出时在锁内探测
+    private static final Probe ABSENT = new Probe(-1, null);
+
+    private final List<Integer> pending;   //还没有合并进索引的数据文件，从新到旧排列
+    private final Map<Integer, Long> fileSizes;
+    private final Map<Integer, Map<String, CommandPos>> tables = new ConcurrentHashMap<>();   //已经解析、等待合并的文件内容
+    private final Map<Integer, BlockTable.BlockIndex> blockIndexes = new ConcurrentHashMap<>();   //探测时读取的块索引
+    private final Map<String, Probe> probes = new ConcurrentHashMap<>();   //prefetch 在锁外探测的结果，probe 取走
+    private final Set<String> resolved = new HashSet<>();   //由 NormalStore 的锁保护
+    private final FileAccess files;
+    private final long totalBytes;
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile Throwable failure;
+
+    IndexLoader(List<Integer> newestFirst, Map<Integer, Long> fileSizes, FileAccess files) {
+        this.pending = new CopyOnWriteArrayList<>(newestFirst);
+        this.fileSizes = fileSizes;
+        this.files = files;
+        long total = 0;
+        for (long size : fileSizes.values()) {
+            total += size;
+        }
+        this.totalBytes = total;
+    }
+
+    List<Integer> pendingFiles() {
+        return pending;
+    }
+
+    //解析一个文件，同一个 key 后写入的记录覆盖先写入的
+    Map<String, CommandPos> table(int fileIndex) {
+        return tables.computeIfAbsent(fileIndex, f -> {
+            long now = System.currentTimeMillis();
+            Map<String, CommandPos> table = new HashMap<>();
+            try {
+                files.read(f, (cmdPos, command) -> table.put(command.getKey(), visible(cmdPos, command, now)));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return table;
+        });
+    }
+
+    private BlockTable.BlockIndex blockIndex(int fileIndex) {
+        return blockIndexes.computeIfAbsent(fileIndex, f -> {
+            try {
+                BlockTable.BlockIndex blocks = files.readIndex(f);
+                return blocks == null ? NOT_SORTED : blocks;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    //文件中 key 的最后一条记录，删除和过期的记为删除，文件中没有时返回 null；优先使用已经解析好的内容
+    private CommandPos lookup(int fileIndex, String key) throws IOException {
+        Map<String, CommandPos> table = tables.get(fileIndex);
+        if (table != null) {
+            return table.get(key);
+        }
+        BlockTable.BlockIndex blocks = blockIndex(fileIndex);
+        if (blocks == NOT_SORTED) {
+            return table(fileIndex).get(key);
+        }
+        int[] location = new int[3];
+        Command command = files.find(fileIndex, blocks, key, location);
+        return command == null ? null : visible(files.positionOf(fileIndex, location, command), command, System.currentTimeMillis());
+    }
+
+    //在尚未合并的文件中从新到旧查找 key，第一个包含它的文件决定结果
+    private Probe search(String key) {
+        try {
+            for (int fileIndex : pending) {
+                CommandPos cmdPos = lookup(fileIndex, key);
+                if (cmdPos != null) {
+                    return new Probe(fileIndex, cmdPos);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return ABSENT;
+    }
+
+    //在锁外预先探测 key，持锁的 probe 不再读盘
+    void prefetch(String key) {
+        if (probes.size() < MAX_PROBES) {
+            probes.put(key, search(key));
+        }
+    }
+
+    //返回 null 表示不存在或已删除，调用方需持有锁
+    //pending 只会减少，预先探测的结果在它所在的文件合并之前一直有效；没有预先探测的结果时在锁内探测
+    CommandPos probe(String key) {
+        Probe found = probes.remove(key);
+        if (found == null || (found.fileIndex >= 0 && !pending.contains(found.fileIndex))) {
+            found = search(key);
+        }
+        return found.cmdPos == null || found.cmdPos.isDeleted() ? null : found.cmdPos;
+    }
+
+    //删除标记和已过期的数据记为删除，它们同样遮住更旧的文件
+    private static CommandPos visible(CommandPos cmdPos, Command command, long now) {
+        boolean deleted = command instanceof RmCommand
+                || (command instanceof SetCommand && ((SetCommand) command).isExpired(now));
+        return deleted ? CommandPos.deletedAt(cmdPos.getSeq()) : cmdPos;
+    }
+
+    //调用方需持有锁
+    boolean isResolved(String key) {
+        return resolved.contains(key);
+    }
+
+    //key 的结果已经由较新的数据确定，返回之前是否未确定，调用方需持有写锁
+    boolean resolve(String key) {
+        return resolved.add(key);
+    }
+
+    //文件已经合并进索引，调用方需持有写锁
+    void finishFile(int fileIndex) {
+        pending.remove(Integer.valueOf(fileIndex));
+        tables.remove(fileIndex);
+        blockIndexes.remove(fileIndex);
+        probes.values().removeIf(found -> found.fileIndex == fileIndex);   //结果已经进入索引或被更新的数据覆盖
+        loadedBytes.addAndGet(fileSizes.getOrDefault(fileIndex, 0L));
+    }
+
+    void markReady() {
+        ready.countDown();
+    }
+
+    //加载失败时唤醒等待的线程，索引保持未加载完成的状态，读仍然通过探测进行
+    void markFailed(Throwable t) {
+        failure = t;
+        ready.countDown();
+    }
+
+    void awaitReady() throws InterruptedException {
+        ready.await();
+        if (failure != null) {
+            throw new IllegalStateException("索引加载失败", failure);
+        }
+    }
+
+    //已合并的字节数占全部数据文件的比例
+    double getProgress() {
+        return totalBytes == 0 ? 1.0 : Math.min(1.0, (double) loadedBytes.get() / totalBytes);
+    }
+
+    long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private static class Probe {
+        private final int fileIndex;   //包含 key 的最新文件，-1 表示所有未合并的文件都没有
+        private final CommandPos cmdPos;
+
+        private Probe(int fileIndex, CommandPos cmdPos) {
+            this.fileIndex = fileIndex;
+            this.cmdPos = cmdPos;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package service;
+
+import model.command.CommandPos;
+import model.command.ValuePointer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+
+//哈希索引：开放寻址、线性探测，每个字段一个基本类型数组，不为每个 key 创建节点和 CommandPos 对象
+//读路径按槽位直接取字段；get、put、remove 返回的 CommandPos 是复制出来的，修改它不影响索引
+//删除时把后面同一探测序列上的项往前移，不留删除标记；不是线程安全的，由调用方的锁保护
+final class KeyIndex {
+    private static final int MIN_CAPACITY = 16;
+    private static final double LOAD_FACTOR = 0.6;
+
+    private String[] keys;
+    private int[] fileIndexes;
+    private int[] positions;
+    private int[] lengths;
+    private int[] blockEntries;
+    private long[] expireAts;
+    private long[] seqs;
+    private ValuePointer[] pointers;   //大 value 才有值指针，大多数槽位为空
+    private int size;
+    private int resizeAt;
+
+    KeyIndex() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        fileIndexes = new int[capacity];
+        positions = new int[capacity];
+        lengths = new int[capacity];
+        blockEntries = new int[capacity];
+        expireAts = new long[capacity];
+        seqs = new long[capacity];
+        pointers = new ValuePointer[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    //key 所在的槽位，不存在时返回 -1
+    int slot(String key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) {
+                return -1;
+            }
+            if (k.equals(key)) {
+                return i;
+            }
+        }
+    }
+
+    boolean containsKey(String key) {
+        return slot(key) >= 0;
+    }
+
+    int fileIndex(int slot) {
+        return fileIndexes[slot];
+    }
+
+    int pos(int slot) {
+        return positions[slot];
+    }
+
+    int len(int slot) {
+        return lengths[slot];
+    }
+
+    int blockEntry(int slot) {
+        return blockEntries[slot];
+    }
+
+    long expireAt(int slot) {
+        return expireAts[slot];
+    }
+
+    long seq(int slot) {
+        return seqs[slot];
+    }
+
+    ValuePointer valuePointer(int slot) {
+        return pointers[slot];
+    }
+
+    boolean isExpired(int slot, long now) {
+        return expireAts[slot] > 0 && expireAts[slot] <= now;
+    }
+
+    CommandPos get(String key) {
+        int slot = slot(key);
+        return slot < 0 ? null : toCommandPos(slot);
+    }
+
+    private CommandPos toCommandPos(int slot) {
+        CommandPos cmdPos = new CommandPos(fileIndexes[slot], positions[slot], lengths[slot], expireAts[slot], seqs[slot]);
+        cmdPos.setBlockEntry(blockEntries[slot]);
+        cmdPos.setValuePointer(pointers[slot]);
+        return cmdPos;
+    }
+
+    //返回被替换的旧版本，没有时返回 null
+    CommandPos put(String key, CommandPos cmdPos) {
+        int slot = slot(key);
+        CommandPos old = slot < 0 ? null : toCommandPos(slot);
+        put(key, cmdPos.getFileIndex(), cmdPos.getPos(), cmdPos.getLen(), cmdPos.getBlockEntry(),
+                cmdPos.getExpireAt(), cmdPos.getSeq(), cmdPos.getValuePointer());
+        return old;
+    }
+
+    void put(String key, int fileIndex, int pos, int len, int blockEntry, long expireAt, long seq, ValuePointer pointer) {
+        if (size >= resizeAt) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == null) {
+            keys[i] = key;
+            size++;
+        }
+        fileIndexes[i] = fileIndex;
+        positions[i] = pos;
+        lengths[i] = len;
+        blockEntries[i] = blockEntry;
+        expireAts[i] = expireAt;
+        seqs[i] = seq;
+        pointers[i] = pointer;
+    }
+
+    //返回被删除的版本，没有时返回 null
+    CommandPos remove(String key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            return null;
+        }
+        CommandPos old = toCommandPos(slot);
+        removeSlot(slot);
+        return old;
+    }
+
+    boolean delete(String key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    //仍然指向 from 时把位置改为 to，过期时间、序列号和值指针不变，返回是否修改
+    boolean moveIfAt(String key, CommandPos from, CommandPos to) {
+        int slot = slot(key);
+        if (slot < 0 || fileIndexes[slot] != from.getFileIndex() || positions[slot] != from.getPos()
+                || blockEntries[slot] != from.getBlockEntry()) {
+            return false;
+        }
+        fileIndexes[slot] = to.getFileIndex();
+        positions[slot] = to.getPos();
+        lengths[slot] = to.getLen();
+        blockEntries[slot] = to.getBlockEntry();
+        return true;
+    }
+
+    private void removeSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            //home 不在 (hole, i] 之间时，这一项可以移到空位上，移动之后 i 成为新的空位
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                copySlot(i, hole);
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        pointers[hole] = null;
+        size--;
+    }
+
+    private void copySlot(int from, int to) {
+        keys[to] = keys[from];
+        fileIndexes[to] = fileIndexes[from];
+        positions[to] = positions[from];
+        lengths[to] = lengths[from];
+        blockEntries[to] = blockEntries[from];
+        expireAts[to] = expireAts[from];
+        seqs[to] = seqs[from];
+        pointers[to] = pointers[from];
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldFiles = fileIndexes;
+        int[] oldPositions = positions;
+        int[] oldLengths = lengths;
+        int[] oldEntries = blockEntries;
+        long[] oldExpireAts = expireAts;
+        long[] oldSeqs = seqs;
+        ValuePointer[] oldPointers = pointers;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldFiles[i], oldPositions[i], oldLengths[i], oldEntries[i],
+                        oldExpireAts[i], oldSeqs[i], oldPointers[i]);
+            }
+        }
+    }
+
+    //按槽位顺序遍历，每一项复制成 CommandPos，遍历期间不能修改索引
+    void forEach(BiConsumer<String, CommandPos> consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                consumer.accept(keys[i], toCommandPos(i));
+            }
+        }
+    }
+
+    //文件编号满足条件的项数
+    long count(IntPredicate fileFilter) {
+        long count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && fileFilter.test(fileIndexes[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    List<String> keys() {
+        List<String> result = new ArrayList<>(size);
+        for (String key : keys) {
+            if (key != null) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((key, cmdPos) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(key).append('=').append(cmdPos);
+        });
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,258 @@
+package service;
+
+import com.alibaba.fastjson.JSONObject;
+import dto.VersionEdit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+//MANIFEST：以追加方式记录数据文件集合的每一次变化，启动时回放得到有效的数据文件及其新旧顺序，不再按文件名探测目录
+//CURRENT 文件记录正在使用的 MANIFEST 文件名，先写临时文件再原子改名切换
+//记录格式：[int len][int crc][json]，末尾未写完整或校验失败的记录被忽略
+public class Manifest {
+    public static final String CURRENT = "CURRENT";
+    public static final String MANIFEST = "MANIFEST-";
+    private static final long MANIFEST_ROLL_SIZE = 4 * 1024 * 1024;   //超过这个大小时把当前状态写成新的 MANIFEST
+    private final Logger LOGGER = LoggerFactory.getLogger(Manifest.class);
+    private final String logFormat = "[Manifest][{}]: {}";
+
+    private final String dataDir;
+    private final List<Integer> liveFiles = new ArrayList<>();   //有效的数据文件，从旧到新排列
+    private volatile Set<Integer> coldFiles = Collections.emptySet();   //存放在冷存储目录的有效数据文件，变化时整体替换，读的时候不加锁
+    private volatile Map<Integer, Long> ingestSeqs = Collections.emptyMap();   //批量导入的有效数据文件到整批序列号，同样整体替换
+    private int nextFileIndex = 0;
+    private long lastSeq = 0;
+    private int walCheckpoint = -1;   //-1 表示还没有检查点，回放全部 WAL分段
+    private int manifestNumber = 0;
+    private boolean recovered;   //目录中是否已经有 MANIFEST
+    private RandomAccessFile file;
+
+    //读取 CURRENT 指向的 MANIFEST 并回放其中的版本编辑；没有 CURRENT 时为空，由调用方通过 create 初始化
+    public Manifest(String dataDir) throws IOException {
+        this.dataDir = dataDir;
+        File current = new File(dataDir, CURRENT);
+        if (!current.exists()) {
+            return;
+        }
+        String name = new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+        manifestNumber = Integer.parseInt(name.substring(MANIFEST.length()));
+        File manifestFile = new File(dataDir, name);
+        int edits = 0;
+        long end;
+        try (RandomAccessFile in = new RandomAccessFile(manifestFile, "r")) {
+            end = 0;
+            while (end + 8 <= in.length()) {
+                in.seek(end);
+                int len = in.readInt();
+                int checksum = in.readInt();
+                if (len <= 0 || end + 8 + len > in.length()) {
+                    break;
+                }
+                byte[] bytes = new byte[len];
+                in.readFully(bytes);
+                if (checksum != checksum(bytes)) {
+                    break;
+                }
+                apply(JSONObject.parseObject(new String(bytes, StandardCharsets.UTF_8), VersionEdit.class));
+                edits++;
+                end += 8 + len;
+            }
+        }
+        file = new RandomAccessFile(manifestFile, NormalStore.RW_MODE);
+        file.setLength(end);   //截掉末尾未写完整的记录，之后的编辑接在有效记录后面
+        recovered = true;
+        LoggerUtil.info(LOGGER, logFormat, "Manifest", name + " 回放版本编辑 " + edits + " 条，有效数据文件 " + liveFiles);
+    }
+
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    //用已有的数据文件初始化一个新的 MANIFEST，用于还没有 MANIFEST 的旧数据目录
+    public synchronized void create(List<Integer> files, int nextFileIndex) throws IOException {
+        liveFiles.clear();
+        liveFiles.addAll(files);
+        this.nextFileIndex = Math.max(this.nextFileIndex, nextFileIndex);
+        writeSnapshot();
+        recovered = true;
+    }
+
+    //记录一次版本编辑并刷盘，返回之后编辑才算生效
+    public synchronized void log(VersionEdit edit) throws IOException {
+        apply(edit);
+        append(edit);
+        if (file.length() >= MANIFEST_ROLL_SIZE) {
+            writeSnapshot();
+        }
+    }
+
+    //分配一个新的数据文件编号，编号在下一次包含 nextFileIndex 的编辑中持久化
+    public synchronized int allocateFileIndex() {
+        return nextFileIndex++;
+    }
+
+    public synchronized List<Integer> getLiveFiles() {
+        return new ArrayList<>(liveFiles);
+    }
+
+    public synchronized int getLiveFileCount() {
+        return liveFiles.size();
+    }
+
+    //数据文件是否存放在冷存储目录
+    public boolean isCold(int fileIndex) {
+        Set<Integer> cold = coldFiles;
+        return !cold.isEmpty() && cold.contains(fileIndex);   //不分层时不必把编号装箱
+    }
+
+    public Set<Integer> getColdFiles() {
+        return coldFiles;
+    }
+
+    //批量导入的文件中记录的序列号下限，其他文件返回 0
+    public long getIngestSeq(int fileIndex) {
+        Map<Integer, Long> seqs = ingestSeqs;
+        if (seqs.isEmpty()) {
+            return 0L;
+        }
+        Long seq = seqs.get(fileIndex);
+        return seq == null ? 0L : seq;
+    }
+
+    public synchronized int getNextFileIndex() {
+        return nextFileIndex;
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    public synchronized int getWalCheckpoint() {
+        return walCheckpoint;
+    }
+
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private void apply(VersionEdit edit) {
+        if (edit.getRemovedFiles() != null || edit.getAddedFiles() != null) {
+            int insertAt = liveFiles.size();
+            if (edit.getRemovedFiles() != null && !edit.getRemovedFiles().isEmpty()) {
+                int first = liveFiles.indexOf(edit.getRemovedFiles().get(0));
+                if (first >= 0) {
+                    insertAt = first;
+                }
+                for (Integer removed : edit.getRemovedFiles()) {
+                    int i = liveFiles.indexOf(removed);
+                    if (i >= 0) {
+                        liveFiles.remove(i);
+                        if (i < insertAt) {
+                            insertAt--;
+                        }
+                    }
+                }
+            }
+            if (edit.getAddedFiles() != null) {
+                liveFiles.addAll(Math.min(insertAt, liveFiles.size()), edit.getAddedFiles());
+            }
+            if (edit.getColdFiles() != null || (edit.getRemovedFiles() != null && !coldFiles.isEmpty())) {
+                Set<Integer> cold = new HashSet<>(coldFiles);
+                if (edit.getRemovedFiles() != null) {
+                    cold.removeAll(edit.getRemovedFiles());
+                }
+                if (edit.getColdFiles() != null) {
+                    cold.addAll(edit.getColdFiles());
+                }
+                coldFiles = Collections.unmodifiableSet(cold);
+            }
+            if (edit.getIngestSeqs() != null || (edit.getRemovedFiles() != null && !ingestSeqs.isEmpty())) {
+                //导入的文件被压缩之后，序列号已经写进新文件的记录中，不再需要单独记录
+                Map<Integer, Long> seqs = new HashMap<>(ingestSeqs);
+                if (edit.getRemovedFiles() != null) {
+                    seqs.keySet().removeAll(edit.getRemovedFiles());
+                }
+                if (edit.getIngestSeqs() != null) {
+                    seqs.putAll(edit.getIngestSeqs());
+                }
+                ingestSeqs = Collections.unmodifiableMap(seqs);
+            }
+        }
+        if (edit.getNextFileIndex() != null) {
+            nextFileIndex = Math.max(nextFileIndex, edit.getNextFileIndex());
+        }
+        if (edit.getLastSeq() != null) {
+            lastSeq = Math.max(lastSeq, edit.getLastSeq());
+        }
+        if (edit.getWalCheckpoint() != null) {
+            walCheckpoint = Math.max(walCheckpoint, edit.getWalCheckpoint());
+        }
+    }
+
+    private void append(VersionEdit edit) throws IOException {
+        byte[] bytes = JSONObject.toJSONBytes(edit);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.putInt(checksum(bytes));
+        buffer.put(bytes);
+        file.seek(file.length());
+        file.write(buffer.array());
+        file.getFD().sync();
+    }
+
+    //把当前状态作为一条完整的编辑写入新的 MANIFEST，刷盘后切换 CURRENT，再删除旧文件
+    private void writeSnapshot() throws IOException {
+        VersionEdit snapshot = new VersionEdit();
+        snapshot.setAddedFiles(new ArrayList<>(liveFiles));
+        snapshot.setColdFiles(new ArrayList<>(coldFiles));
+        snapshot.setIngestSeqs(new HashMap<>(ingestSeqs));
+        snapshot.setNextFileIndex(nextFileIndex);
+        snapshot.setLastSeq(lastSeq);
+        snapshot.setWalCheckpoint(walCheckpoint);
+        int number = manifestNumber + 1;
+        File newFile = new File(dataDir, MANIFEST + number);
+        RandomAccessFile old = file;
+        file = new RandomAccessFile(newFile, NormalStore.RW_MODE);
+        file.setLength(0);
+        append(snapshot);
+
+        File tmp = new File(dataDir, CURRENT + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmp, NormalStore.RW_MODE)) {
+            out.setLength(0);
+            out.write((MANIFEST + number + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(dataDir, CURRENT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (old != null) {
+            old.close();
+            new File(dataDir, MANIFEST + manifestNumber).delete();
+        }
+        manifestNumber = number;
+        LoggerUtil.debug(LOGGER, logFormat, "writeSnapshot", "切换到 " + newFile.getName() + "，有效数据文件 " + liveFiles);
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
@@ -1,320 +1,3246 @@
 package service;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
+import dto.VersionEdit;
 import dto.WALEntry;
+import event.CompactionEvent;
+import event.FileRotationEvent;
+import event.MemTableFlushEvent;
+import event.StoreOperationEvent;
+import event.WalSyncEvent;
+import model.command.AbstractCommand;
 import model.command.Command;
 import model.command.CommandPos;
 import model.command.RmCommand;
 import model.command.SetCommand;
+import model.command.ValuePointer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import service.Store;
 import utils.CommandUtil;
+import utils.ChunkedWritableChannel;
 import utils.LoggerUtil;
-import utils.RandomAccessFileUtil;
 
 import java.io.*;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.zip.GZIPOutputStream;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
 
-public class NormalStore implements Store {
+public class NormalStore implements Store, BinaryStore {
 
     public static final String TABLE = ".table";   //文件扩展名
     public static final String RW_MODE = "rw";
     public static final String NAME = "data";
+    public static final String COMPACT_TMP = "compact.tmp";   //旧版本压缩过程中的临时文件，启动时清理
+    public static final String COMPACT = "compact";   //压缩过程中临时文件的文件名前缀
+    public static final String COMPACT_RUN = ".run";   //压缩前排好序的单次写入数据文件
+    public static final String COMPACT_MOVES = ".moves";   //压缩过程中记录的索引位置变化
+    public static final String SNAPSHOT_SPILL = "snapshot";   //全量快照发送前暂存批次的临时文件名前缀
+    public static final String SPILL = ".spill";   //全量快照临时文件扩展名，启动时清理
+    public static final String WAL = "wal";   //WAL分段文件名前缀
+    public static final String LOG = ".log";   //WAL分段文件扩展名
+    public static final String CHECKPOINT = "checkpoint";   //检查点记录的命令类型
+    public static final String WAL_RECYCLE = "recycle";   //检查点之后等待复用的 WAL分段文件名前缀
+    private static final int WAL_MAGIC = 0xEA5EDB01;   //新格式 WAL分段的文件头标识，旧格式分段开头是记录长度，不会是负数
+    private static final int WAL_HEADER_SIZE = 8;   //文件头：[int magic][int 分段编号]
+    private static final int WAL_SEGMENT_SIZE = 1024 * 1024;   //WAL分段预分配的大小
+    private static final int WAL_RECYCLE_LIMIT = 4;   //最多保留多少个待复用的分段
+    public static final String HINT = ".hint";   //单次写入模式下封存数据文件的提示文件扩展名
+    private static final int DATA_LOG_MAGIC = 0xEA5EDA7A;   //单次写入模式数据文件的文件头标识，记录带 crc
+    private static final int HINT_MAGIC = 0xEA5E4170;   //提示文件的文件头标识
     private final Logger LOGGER = LoggerFactory.getLogger(NormalStore.class);
     private final String logFormat = "[NormalStore][{}]: {}";
 
-    private static final int MEMORY_TABLE_THRESHOLD = 4;   //内存表大小阈值：存储命令的最大数量
-    private static final int FILE_SIZE_THRESHOLD = 5; //单个文件大小阈值
-    private static final int FILE_ENTRY_THRESHOLD = 5;   //单个文件中键值对的最大数量
+    private static final int MEM_ENTRY_OVERHEAD = 96;   //内存表中每条命令除 key 和 value 之外的估算开销：树节点、命令对象和引用
+    private static final long EXPIRE_TICK_MS = 100;   //时间轮每一格的时间跨度
+    private static final int EXPIRE_WHEEL_SIZE = 64;   //时间轮每一层的格子数
+    public static final int DEFAULT_VALUE_THRESHOLD = 4096;   //value 达到这个字节数时写入值日志
+    private static final long VALUE_LOG_FILE_SIZE = 8 * 1024 * 1024;   //单个值日志文件的大小阈值
+    private static final double VALUE_LOG_GC_RATIO = 0.5;   //值日志文件中失效数据的比例达到这个值时回收
+    private static final double COLD_COMPACTION_RATIO = 0.5;   //冷存储中失效记录的比例达到这个值时合并冷存储
+    public static final long DEFAULT_BACKGROUND_BYTES_PER_SECOND = 64L * 1024 * 1024;   //后台写入的默认限速
+    private static final int KEY_LOCK_STRIPES = 256;   //读-改-写操作按 key 分段加锁的段数
+    private static final int MAX_COMMIT_BATCH = 256;   //一次组提交最多合并的写入数
+    private static final int MAX_TRACKED_COLD_READS = 100000;   //两次压缩之间最多统计多少个冷数据 key 的读取次数
+    private static final int FLUSH_BUFFER_SIZE = 64 * 1024;   //内存表落盘时记录先编码到缓冲区，攒满这么多字节写一次
 
     private TreeMap<String, Command> memTable;   //存储命令的内存表
-    private HashMap<String, CommandPos> index;   //哈希索引，存的是数据长度和偏移量
+    private KeyIndex index;   //哈希索引，存的是数据所在文件、长度和偏移量，按字段存成基本类型数组
     private final String dataDir;   //数据目录
     private final ReadWriteLock indexLock;   //读写锁，支持多线程，并发安全写入
     private RandomAccessFile writerReader;   //暂存数据的日志句柄
     private int currentFileIndex = 0;   //当前文件的索引
-    private RandomAccessFile walFile;
+    private RandomAccessFile walFile;   //当前写入的 WAL分段
+    private int currentWalIndex = 0;   //当前 WAL分段的编号
+    private long walWritePos;   //当前分段的写入位置，分段是预分配的，不能再用文件长度判断末尾
+    private final Deque<File> recycledWal = new ArrayDeque<>();   //可以复用的旧分段，已经预分配过空间
+    private final Object walLock = new Object();
+    private long walUnsynced;   //上次刷盘之后追加的 WAL 字节数，由 walLock 保护
+    //从追加 WAL 到进入内存表之间持有，保证检查点不会越过已经写入 WAL、还没进入内存表的操作；
+    //写检查点的操作（落盘、快照、导入、关闭）也要先获取它，顺序总是先 commitLock 后 indexLock
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final ArrayDeque<PendingWrite> commitQueue = new ArrayDeque<>();   //等待组提交的写入，队首的写入者负责提交
+    private final PendingWrite[] commitBatch = new PendingWrite[MAX_COMMIT_BATCH];   //当前队首写入者取出的一批，同一时间只有一个队首
+    private final TimingWheel timingWheel;   //过期 key 的时间轮
+    private final ScheduledExecutorService expireScheduler;   //驱动时间轮的后台线程
+    private final AtomicBoolean compacting = new AtomicBoolean(false);   //同一时间只允许一个压缩任务
+    private final Object compactionLock = new Object();   //保证关闭之后不再启动新的压缩线程
+    private Thread compactionThread;   //最近一次启动的压缩线程，关闭时等待它结束，由 compactionLock 保护
+    private volatile long lastSeq = 0;   //最后一个已提交操作的序列号
+    private final List<Consumer<WALEntry>> walListeners = new CopyOnWriteArrayList<>();   //已提交操作的监听者，例如主从复制
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();   //活跃快照的序列号及引用计数，由写锁保护
+    private final Map<String, LinkedList<CommandPos>> history = new HashMap<>();   //仍被快照引用的旧版本，新版本在前，由写锁保护
+    private final ValueLog valueLog;   //大 value 的值日志
+    private final Manifest manifest;   //记录有效数据文件集合的 MANIFEST
+    private volatile int valueThreshold;
+    private volatile RateLimiter rateLimiter;   //后台压缩和回收共用的限速器
+    private final WriteBufferManager writeBufferManager;   //按字节统计内存表占用，可以由多个实例共用
+    private final long writeBufferSize;   //单个内存表的字节上限
+    private final long targetFileSize;   //数据文件切换的字节阈值
+    private volatile long memTableBytes = 0;   //内存表估算占用的字节数，由写锁保护，写缓冲管理器不加锁读取
+    private final WriteBufferManager.Consumer writeBufferConsumer = new WriteBufferManager.Consumer() {
+        @Override
+        public long getBufferedBytes() {
+            return memTableBytes;
+        }
+
+        @Override
+        public void requestFlush() {
+            scheduleFlush();
+        }
+    };
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);   //已经提交了一次后台落盘，还没有执行
+    private final SingleFlight<String, String> readFlight = new SingleFlight<>();   //合并同一个 key 上并发的 get
+    private final Function<String, String> lookup = this::lookup;   //交给 readFlight 的查找，只创建一次
+    private final String coldDir;   //冷存储目录中本数据目录使用的子目录，null 表示不分层
+    private final long hotWrites;   //最近这么多次写入产生的数据在压缩时留在数据目录
+    private final int promoteReads;   //冷数据被读到这么多次后在下一次压缩时迁回数据目录
+    private final int maxCompactionDebtFiles;   //等待压缩的已封存数据文件超过这个数量时认为写入过载
+    private volatile Map<String, Integer> tierReads = new ConcurrentHashMap<>();   //两次压缩之间冷数据和已迁回数据的 key 被读到的次数
+    private volatile Set<String> promotedKeys = Collections.emptySet();   //因为读取频繁迁回数据目录的 key，压缩时整体替换
+    private final Map<Integer, Integer> coldRecordCounts = new ConcurrentHashMap<>();   //冷存储文件中的记录数，只在压缩线程中读写
+    private final boolean bitcask;   //单次写入模式：写入直接追加到数据文件并刷盘，索引指向数据文件中的记录，不使用 WAL 和内存表
+    private final Map<String, Hint> activeHints = new LinkedHashMap<>();   //单次写入模式下当前数据文件中每个 key 的最后一条记录，由写锁保护
+    private final ChannelTable readChannels = new ChannelTable();   //数据文件的只读句柄，按位置读取，多个线程共用
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(8 * 1024));   //每个读线程复用的读缓冲区
+    private static final int MAX_READ_BUFFER = 256 * 1024;   //超过这个大小的读缓冲区用完就丢弃，不长期占用内存
+    private ByteBuffer walBuffer = ByteBuffer.allocate(4096);   //WAL记录的编码缓冲区，由 walLock 保护
+    private final CRC32 walCrc = new CRC32();   //由 walLock 保护
+    private ByteBuffer dataBuffer = ByteBuffer.allocate(4096);   //数据记录的编码缓冲区，追加记录和内存表落盘共用，由写锁保护
+    private final CRC32 dataCrc = new CRC32();   //由写锁保护
+    private int[] flushPositions = new int[0];   //落盘时每条命令写入的位置，-1 表示删除标记，由写锁保护
+    private int[] flushLengths = new int[0];   //落盘时每条命令写入的长度，-1 表示没有写入
+    private ValuePointer[] flushPointers = new ValuePointer[0];   //落盘时每条命令的值指针
+
+    //提示文件中的一项：数据文件中一条记录的位置和类型
+    private static class Hint {
+        final CommandPos cmdPos;
+        final boolean rm;
+
+        Hint(CommandPos cmdPos, boolean rm) {
+            this.cmdPos = cmdPos;
+            this.rm = rm;
+        }
+    }
+
+    //数据文件编号到只读句柄的映射：按编号有序的两个数组，变化时整体替换，读的时候不加锁，编号不装箱
+    //句柄只在第一次读一个文件和删除文件时变化，比读少得多
+    private static class ChannelTable {
+        private volatile Entries entries = new Entries(new int[0], new FileChannel[0]);
+
+        private static class Entries {
+            final int[] fileIndexes;
+            final FileChannel[] channels;
+
+            Entries(int[] fileIndexes, FileChannel[] channels) {
+                this.fileIndexes = fileIndexes;
+                this.channels = channels;
+            }
+        }
+
+        FileChannel get(int fileIndex) {
+            Entries current = entries;
+            int i = Arrays.binarySearch(current.fileIndexes, fileIndex);
+            return i >= 0 ? current.channels[i] : null;
+        }
+
+        synchronized FileChannel putIfAbsent(int fileIndex, FileChannel channel) {
+            Entries current = entries;
+            int i = Arrays.binarySearch(current.fileIndexes, fileIndex);
+            if (i >= 0) {
+                return current.channels[i];
+            }
+            i = -i - 1;
+            int n = current.fileIndexes.length;
+            int[] indexes = new int[n + 1];
+            FileChannel[] channels = new FileChannel[n + 1];
+            System.arraycopy(current.fileIndexes, 0, indexes, 0, i);
+            System.arraycopy(current.channels, 0, channels, 0, i);
+            indexes[i] = fileIndex;
+            channels[i] = channel;
+            System.arraycopy(current.fileIndexes, i, indexes, i + 1, n - i);
+            System.arraycopy(current.channels, i, channels, i + 1, n - i);
+            entries = new Entries(indexes, channels);
+            return null;
+        }
+
+        FileChannel remove(int fileIndex) {
+            return remove(fileIndex, null);
+        }
+
+        //channel 不为空时只在映射的正是它时删除，返回删除的句柄
+        synchronized FileChannel remove(int fileIndex, FileChannel channel) {
+            Entries current = entries;
+            int i = Arrays.binarySearch(current.fileIndexes, fileIndex);
+            if (i < 0 || (channel != null && current.channels[i] != channel)) {
+                return null;
+            }
+            int n = current.fileIndexes.length;
+            int[] indexes = new int[n - 1];
+            FileChannel[] channels = new FileChannel[n - 1];
+            System.arraycopy(current.fileIndexes, 0, indexes, 0, i);
+            System.arraycopy(current.channels, 0, channels, 0, i);
+            System.arraycopy(current.fileIndexes, i + 1, indexes, i, n - 1 - i);
+            System.arraycopy(current.channels, i + 1, channels, i, n - 1 - i);
+            entries = new Entries(indexes, channels);
+            return current.channels[i];
+        }
+
+        int[] fileIndexes() {
+            return entries.fileIndexes.clone();
+        }
+    }
+    private final boolean fastOpen;
+    private volatile IndexLoader indexLoader;   //快速启动时后台加载索引的状态，加载完成后为 null
+    private Thread indexLoaderThread;
+    private volatile boolean closing;
+    private final Lock[] keyLocks = new Lock[KEY_LOCK_STRIPES];   //INCRBY、CAS、SETNX 按 key 分段的锁，同一个 key 上的读-改-写依次执行
 
     public NormalStore(String dataDir) throws FileNotFoundException {
+        this(dataDir, StoreConfig.load());
+    }
+
+    public NormalStore(String dataDir, StoreConfig config) throws FileNotFoundException {
+        this(dataDir, config, new WriteBufferManager(config.getWriteBufferBudget()));
+    }
+
+    public NormalStore(String dataDir, StoreConfig config, WriteBufferManager writeBufferManager) throws FileNotFoundException {
         this.dataDir = dataDir;
+        this.writeBufferSize = config.getWriteBufferSize();
+        this.targetFileSize = config.getTargetFileSize();
+        this.valueThreshold = config.getValueThreshold();
+        this.fastOpen = config.isFastOpen();
+        this.bitcask = config.isBitcask();
+        this.coldDir = config.getColdDataDir() == null || config.getColdDataDir().isEmpty()
+                ? null : config.getColdDataDir() + File.separator + new File(dataDir).getName();
+        this.hotWrites = config.getHotWrites();
+        this.promoteReads = config.getPromoteReads();
+        this.maxCompactionDebtFiles = config.getMaxCompactionDebtFiles();
+        this.rateLimiter = new RateLimiter(config.getBackgroundBytesPerSecond());
+        this.writeBufferManager = writeBufferManager;
         this.indexLock = new ReentrantReadWriteLock();
+        for (int i = 0; i < KEY_LOCK_STRIPES; i++) {
+            keyLocks[i] = new ReentrantLock();
+        }
         this.memTable = new TreeMap<>();
-        this.index = new HashMap<>();
-        this.writerReader = new RandomAccessFile(this.genFilePath(), RW_MODE);
-        this.walFile = new RandomAccessFile(this.dataDir + File.separator + "wal.log", RW_MODE);
+        this.index = new KeyIndex();
+        this.timingWheel = new TimingWheel(EXPIRE_TICK_MS, EXPIRE_WHEEL_SIZE, System.currentTimeMillis());
 
         File file = new File(dataDir);
         if (!file.exists()) {
             LoggerUtil.info(LOGGER, logFormat, "NormalStore", "数据目录不存在，正在创建...");
             file.mkdirs();
         }
-        //重新启动时，先恢复索引，再回放日志文件
+        if (coldDir != null) {
+            new File(coldDir).mkdirs();
+        }
+        this.valueLog = new ValueLog(dataDir, VALUE_LOG_FILE_SIZE);
+        try {
+            this.manifest = new Manifest(dataDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (coldDir == null && !manifest.getColdFiles().isEmpty()) {
+            throw new IllegalStateException("数据文件 " + manifest.getColdFiles() + " 在冷存储目录中，需要配置 coldDataDir");
+        }
+        this.lastSeq = manifest.getLastSeq();
+        //重新启动时，先恢复索引，再从最后一个检查点开始回放日志文件
         this.reloadIndex();
+        this.writerReader = new RandomAccessFile(this.genFilePath(), RW_MODE);
         this.replayLog();
+
+        this.expireScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "easy-db-expire");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.expireScheduler.scheduleAtFixedRate(this::expireKeys, EXPIRE_TICK_MS, EXPIRE_TICK_MS, TimeUnit.MILLISECONDS);
+        writeBufferManager.register(writeBufferConsumer);   //后台线程创建之后才能被选为落盘对象
+        this.expireScheduler.scheduleWithFixedDelay(() -> reloadConfig(config), StoreConfig.RELOAD_CHECK_MS, StoreConfig.RELOAD_CHECK_MS, TimeUnit.MILLISECONDS);
+        if (indexLoader != null) {
+            IndexLoader loader = indexLoader;
+            indexLoaderThread = new Thread(() -> loadIndexInBackground(loader), "easy-db-index-loader");
+            indexLoaderThread.setDaemon(true);
+            indexLoaderThread.start();
+        }
+    }
+
+    //等待组提交的一次写入
+    private static final class PendingWrite {
+        private final String type;
+        private final String key;
+        private final String value;
+        private final long expireAt;
+        private final ValuePointer pointer;
+        private long seq;
+        private boolean done;   //由 commitQueue 的锁保护
+        private Throwable error;
+
+        PendingWrite(String type, String key, String value, long expireAt, ValuePointer pointer) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+            this.pointer = pointer;
+        }
+
+        long result() {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw new RuntimeException(error);
+            }
+            return seq;
+        }
     }
 
-    //将操作写入 WAL日志文件中
-    private void logToWAL(String commandType, String key, String value) {
+    //组提交：写入先进入提交队列，队首的写入者把队列中的写入一起追加到 WAL，只刷一次盘，再在写锁内按序列号顺序放入内存表
+    //刷盘时不持有 indexLock，读不会被写入的刷盘阻塞；放入内存表在刷盘之后，读不到还没有持久化的写入；返回分配的序列号
+    private long commit(String type, String key, String value, long expireAt, ValuePointer pointer) {
+        PendingWrite write = new PendingWrite(type, key, value, expireAt, pointer);
+        int count = 0;
+        synchronized (commitQueue) {
+            commitQueue.add(write);
+            boolean interrupted = false;
+            while (!write.done && commitQueue.peekFirst() != write) {
+                try {
+                    commitQueue.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;   //写入已经在队列中，等它提交完成之后再恢复中断状态
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (write.done) {
+                return write.result();   //已经由之前的队首写入者一起提交
+            }
+            for (PendingWrite pending : commitQueue) {
+                if (count == MAX_COMMIT_BATCH) {
+                    break;
+                }
+                commitBatch[count++] = pending;
+            }
+        }
+        Throwable error = null;
+        commitLock.lock();
         try {
-            // WALEntry包含三个属性：命令、key、value
-            WALEntry entry = new WALEntry(commandType, key, value);
-            byte[] entryBytes = JSONObject.toJSONBytes(entry);
-            walFile.writeInt(entryBytes.length);
-            walFile.write(entryBytes);
-            walFile.getFD().sync();   //每次写入 WAL文件的数据及时刷新到磁盘
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            commitBatch(commitBatch, count);
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            commitLock.unlock();
+        }
+        synchronized (commitQueue) {
+            for (int i = 0; i < count; i++) {
+                PendingWrite pending = commitQueue.pollFirst();
+                pending.error = error;
+                pending.done = true;
+                commitBatch[i] = null;
+            }
+            commitQueue.notifyAll();   //唤醒这一批的写入者和下一个队首
         }
+        return write.result();
     }
 
-    //逐一回放日志文件
-    public void replayLog() {
+    //分配序列号并写入 WAL、刷盘，然后放入内存表，调用方需持有 commitLock，不能持有 indexLock
+    //单次写入模式没有 WAL，由 applySet、applyRm 直接写入数据文件
+    private void commitBatch(PendingWrite[] batch, int count) throws IOException {
+        long seq = lastSeq;
+        for (int i = 0; i < count; i++) {
+            batch[i].seq = ++seq;
+        }
+        if (!bitcask) {
+            synchronized (walLock) {
+                for (int i = 0; i < count; i++) {
+                    PendingWrite write = batch[i];
+                    appendWAL(write.type, write.key, write.value, write.expireAt, write.seq, write.pointer);   // 1.在操作之前先写入日志文件
+                }
+                syncWAL();
+            }
+        }
+        indexLock.writeLock().lock();
         try {
-            walFile.seek(0);   //将文件指针移动到文件开头
-            while (walFile.getFilePointer() < walFile.length()) {
-                int entryLen = walFile.readInt();
-                byte[] entryBytes = new byte[entryLen];
-                walFile.read(entryBytes);
-                WALEntry entry = JSONObject.parseObject(new String(entryBytes), WALEntry.class);
-                //根据操作类型执行对应的操作
-                if ("set".equals(entry.getCommandType())) {
-                    set(entry.getKey(), entry.getValue());
-                } else if ("rm".equals(entry.getCommandType())) {
-                    rm(entry.getKey());
+            for (int i = 0; i < count; i++) {
+                PendingWrite write = batch[i];
+                lastSeq = write.seq;
+                if ("set".equals(write.type)) {
+                    applySet(write.key, write.value, write.expireAt, write.seq, write.pointer);   // 2.先写内存表，内存表达到一定阀值再写进磁盘
+                } else {
+                    applyRm(write.key, write.seq);
                 }
+                notifyWalListeners(write.type, write.key, write.value, write.expireAt, write.seq, write.pointer);
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            flushIfNeeded();   // 3.判断是否需要将内存表中的值写回table
+        } finally {
+            indexLock.writeLock().unlock();
         }
     }
 
-    //回放索引
-    public void reloadIndex() {
-        try {
-            for (int i = 0; i <= currentFileIndex; i++) {
-                String filePath = this.dataDir + File.separator + NAME + i + TABLE;
-                RandomAccessFile file = new RandomAccessFile(filePath, RW_MODE);
-                FileChannel channel = file.getChannel();
-                ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private void appendWAL(WALEntry entry) throws IOException {
+        appendWAL(entry.getCommandType(), entry.getKey(), entry.getValue(), entry.getExpireAt(), entry.getSeq(), entry.getValuePointer());
+    }
 
-                while (true) {
-                    int bytesRead = channel.read(buffer);
-                    if (bytesRead == -1) {
-                        break;
-                    }
-                    buffer.flip();
-                    while (buffer.remaining() > 4) {
-                        int cmdLen = buffer.getInt();
-                        if (buffer.remaining() >= cmdLen) {
-                            byte[] bytes = new byte[cmdLen];
-                            buffer.get(bytes);
-                            String jsonString = new String(bytes, StandardCharsets.UTF_8);
-                            JSONObject value = JSON.parseObject(jsonString);
-                            Command command = CommandUtil.jsonToCommand(value);
-                            if (command != null) {
-                                long startPos = buffer.position() - cmdLen - 4;
-                                CommandPos cmdPos = new CommandPos((int) startPos, cmdLen);
-                                index.put(command.getKey(), cmdPos);
-                            }
-                        }
-                    }
-                    buffer.compact();
-                }
-                file.close();
+    //记录格式为 [int len][int crc][记录]，记录的编码见 RecordCodec，crc 同时覆盖分段编号，复用分段中残留的旧记录校验不通过，回放时据此找到末尾
+    //只写入不刷盘，由调用方在追加完一批之后调用 syncWAL
+    private void appendWAL(String commandType, String key, String value, long expireAt, long seq, ValuePointer pointer) throws IOException {
+        synchronized (walLock) {
+            int maxLen = 8 + ("set".equals(commandType) ? RecordCodec.maxSetLength(key, value)
+                    : "rm".equals(commandType) ? RecordCodec.maxRmLength(key) : RecordCodec.CHECKPOINT_LENGTH);
+            if (walBuffer.capacity() < maxLen) {
+                walBuffer = ByteBuffer.allocate(Math.max(maxLen, walBuffer.capacity() * 2));
+            }
+            ByteBuffer buffer = walBuffer;
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).position(8);
+            if ("set".equals(commandType)) {
+                RecordCodec.putSet(buffer, key, value, expireAt, seq, pointer);
+            } else if ("rm".equals(commandType)) {
+                RecordCodec.putRm(buffer, key, seq);
+            } else {
+                RecordCodec.putCheckpoint(buffer, seq);
+            }
+            int entryLen = buffer.position() - 8;
+            if (walWritePos > WAL_HEADER_SIZE && walWritePos + 8 + entryLen > WAL_SEGMENT_SIZE) {
+                syncWAL();   //之前追加到这个分段的记录先刷盘
+                walFile.close();   //当前分段已写满，切换到下一个分段，不写检查点
+                openWALSegment(currentWalIndex + 1);
+            }
+            buffer.putInt(0, entryLen);
+            buffer.putInt(4, walChecksum(walCrc, currentWalIndex, buffer.array(), 8, entryLen));
+            ((Buffer) buffer).flip();
+            FileChannel channel = walFile.getChannel();
+            while (buffer.hasRemaining()) {
+                walWritePos += channel.write(buffer, walWritePos);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            walUnsynced += 8 + entryLen;
         }
-        LoggerUtil.debug(LOGGER, logFormat, "重新加载索引: " + index.toString());
     }
 
-    //存储键值对数据。将键值对数据封装成 SetCommand对象，并存入内存表(memTable)。
-    @Override
-    public void set(String key, String value) {
-        logToWAL("set", key, value);   // 1.在操作之前先写入日志文件
-        try {
-            SetCommand command = new SetCommand(key, value);
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
+    //把当前分段中已经追加的记录刷盘，调用方需持有 walLock
+    private void syncWAL() throws IOException {
+        if (walUnsynced == 0) {
+            return;
+        }
+        WalSyncEvent event = new WalSyncEvent();
+        event.begin();
+        walFile.getChannel().force(false);   //分段大小不变，只需要同步数据，不必同步文件元数据
+        event.end(currentWalIndex, walUnsynced);
+        walUnsynced = 0;
+    }
 
-            // TODO:// 2.先写内存表，内存表达到一定阀值再写进磁盘
-            indexLock.writeLock().lock();  //加锁
-            memTable.put(key, command);  //将键值对存入内存
+    private static int walChecksum(CRC32 crc, int walIndex, byte[] bytes, int off, int len) {
+        crc.reset();
+        crc.update(walIndex >>> 24);   //分段编号按大端序的 4 个字节参与校验
+        crc.update(walIndex >>> 16);
+        crc.update(walIndex >>> 8);
+        crc.update(walIndex);
+        crc.update(bytes, off, len);
+        return (int) crc.getValue();
+    }
 
-            // TODO:// 3.判断是否需要将内存表中的值写回table
-            //如果内存表的大小超过阈值，则将内存表的数据写入磁盘
-            if (memTable.size() >= MEMORY_TABLE_THRESHOLD) {
-                writeToDisk(this.setFilePath());
-                writeToDisk(this.genFilePath());
+    //打开编号为 walIndex 的新分段：优先复用检查点之后留下的旧分段，没有时新建并一次性用 0 填满，调用方需持有 walLock
+    private void openWALSegment(int walIndex) throws IOException {
+        File segment = new File(this.genWalPath(walIndex));
+        File recycled = recycledWal.poll();
+        if (recycled == null || !recycled.renameTo(segment)) {
+            try (RandomAccessFile file = new RandomAccessFile(segment, RW_MODE)) {
+                byte[] zeros = new byte[64 * 1024];
+                for (long written = file.length(); written < WAL_SEGMENT_SIZE; written += zeros.length) {
+                    file.write(zeros, 0, (int) Math.min(zeros.length, WAL_SEGMENT_SIZE - written));
+                }
+                file.getFD().sync();   //文件大小只在这里变化一次
             }
-            rotateIfNeeded();   //自动 rotate
-            RandomAccessFileUtil.writeInt(this.genFilePath(), commandBytes.length);
-            int pos = RandomAccessFileUtil.write(this.genFilePath(), commandBytes);
-            CommandPos cmdPos = new CommandPos(pos, commandBytes.length);
-            index.put(key, cmdPos);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
-        } finally {
-            indexLock.writeLock().unlock();
         }
+        currentWalIndex = walIndex;
+        walFile = new RandomAccessFile(segment, RW_MODE);
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_SIZE);
+        header.putInt(WAL_MAGIC);
+        header.putInt(walIndex);
+        header.flip();
+        walFile.getChannel().write(header, 0);
+        walFile.getChannel().force(false);
+        walWritePos = WAL_HEADER_SIZE;
     }
 
-    //根据键获取对应的值。根据键查找索引(index)获取命令在文件中的位置和长度信息，然后从文件中读取命令数据，并解析为相应的命令对象。
-    @Override
-    public String get(String key) {
-        try {
-            indexLock.readLock().lock();
-            //获取信息
-            CommandPos cmdPos = index.get(key);
-            if (cmdPos == null) {
-                return null;
+    //内存表落盘之后切换到新的 WAL分段并写入检查点，检查点之前的分段已经全部持久化，放入复用队列或删除
+    private void checkpointWAL() throws IOException {
+        synchronized (walLock) {
+            walFile.close();
+            openWALSegment(currentWalIndex + 1);
+            WALEntry checkpoint = new WALEntry(CHECKPOINT, null, null);
+            checkpoint.setSeq(lastSeq);   //检查点记录当时的序列号，之前的分段删除后序列号仍可恢复
+            appendWAL(checkpoint);
+            syncWAL();
+            VersionEdit edit = new VersionEdit();
+            edit.setLastSeq(lastSeq);
+            edit.setWalCheckpoint(currentWalIndex);
+            manifest.log(edit);   //下次启动从这个分段开始回放
+            for (int walIndex : listWalIndexes()) {
+                if (walIndex < currentWalIndex) {
+                    recycleWAL(new File(this.genWalPath(walIndex)));
+                }
             }
-            byte[] commandBytes = RandomAccessFileUtil.readByIndex(this.genFilePath(), cmdPos.getPos(), cmdPos.getLen());
+        }
+        LoggerUtil.debug(LOGGER, logFormat, "checkpointWAL", "检查点写入 " + this.genWalPath(currentWalIndex));
+    }
 
-            JSONObject value = JSONObject.parseObject(new String(commandBytes));
-            Command cmd = CommandUtil.jsonToCommand(value);
-            //如果是S etCommand对象，则返回其对应的值；如果是 RmCommand对象，则返回 null。
-            if (cmd instanceof SetCommand) {
-                return ((SetCommand) cmd).getValue();
-            }
-            if (cmd instanceof RmCommand) {
-                return null;
+    //已预分配的分段改名后等待复用，旧格式或超出数量的分段直接删除，调用方需持有 walLock
+    private void recycleWAL(File segment) {
+        if (recycledWal.size() < WAL_RECYCLE_LIMIT && segment.length() >= WAL_SEGMENT_SIZE) {
+            File recycled = new File(this.dataDir + File.separator + WAL_RECYCLE + segment.getName());
+            if (segment.renameTo(recycled)) {
+                recycledWal.add(recycled);
+                return;
             }
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
-        } finally {
-            indexLock.readLock().unlock();   //释放读锁
         }
-        return null;
+        segment.delete();
     }
 
-    //删除键值对数据。将删除命令封装成 RmCommand对象，并存入内存表。
-    @Override
-    public void rm(String key) {
-        logToWAL("rm", key, null);
+    //从最后一个检查点开始回放日志文件，回放时不再重复写 WAL
+    public void replayLog() {
         try {
-            RmCommand command = new RmCommand(key);
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
+            List<Integer> walIndexes = listWalIndexes();
+            List<WALEntry> pending = new ArrayList<>();
+            for (int walIndex : walIndexes) {
+                if (walIndex >= manifest.getWalCheckpoint()) {   //检查点之前的分段已经全部落盘
+                    readWAL(walIndex, pending);
+                }
+            }
+            File[] files = new File(dataDir).listFiles((dir, name) -> name.startsWith(WAL_RECYCLE) && name.endsWith(LOG));
+            if (bitcask) {
+                replayIntoData(pending, walIndexes, files);
+                return;
+            }
+            if (files != null) {
+                recycledWal.addAll(Arrays.asList(files));
+            }
+            //新的写入追加到新的分段中，旧分段在下一个检查点时回收
+            synchronized (walLock) {
+                int next = walIndexes.isEmpty() ? 0 : Math.max(0, walIndexes.get(walIndexes.size() - 1) + 1);
+                openWALSegment(Math.max(next, manifest.getWalCheckpoint() + 1));   //编号不能回退到 MANIFEST 记录的检查点之前
+            }
 
-            // TODO://先写内存表，内存表达到一定阀值再写进磁盘
-            indexLock.writeLock().lock();  //加锁
-            memTable.put(key, command);   //将键值对存入内存表
+            indexLock.writeLock().lock();
+            try {
+                //根据操作类型执行对应的操作
+                for (WALEntry entry : pending) {
+                    if ("set".equals(entry.getCommandType())) {
+                        applySet(entry);
+                    } else if ("rm".equals(entry.getCommandType())) {
+                        applyRm(entry.getKey(), entry.getSeq());
+                    }
+                }
+                //回放的数据立即落盘并写检查点，下次启动无需再回放
+                if (!memTable.isEmpty()) {
+                    writeToDisk();
+                    rotateIfNeeded();
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            LoggerUtil.debug(LOGGER, logFormat, "replayLog", "回放操作数: " + pending.size());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            // TODO://判断是否需要将内存表中的值写回table
-            //如果内存表的大小超过阈值，则将内存表中的数据写入磁盘
-            if (memTable.size() >= MEMORY_TABLE_THRESHOLD) {
-                writeToDisk(this.rmFilePath());
-                writeToDisk(this.genFilePath());
+    //单次写入模式不使用 WAL：之前以普通模式运行时留下的操作直接写入数据文件，然后删除全部 WAL分段
+    //MANIFEST 中的检查点推进到这些分段之后，以后切换回普通模式时不会重复回放
+    private void replayIntoData(List<WALEntry> pending, List<Integer> walIndexes, File[] recycled) throws IOException {
+        indexLock.writeLock().lock();
+        try {
+            for (WALEntry entry : pending) {
+                if ("set".equals(entry.getCommandType())) {
+                    applySet(entry);
+                } else if ("rm".equals(entry.getCommandType())) {
+                    applyRm(entry.getKey(), entry.getSeq());
+                }
             }
-            rotateIfNeeded();   //文件切换
-            int pos = RandomAccessFileUtil.write(this.genFilePath(), commandBytes);
-            CommandPos cmdPos = new CommandPos(pos, commandBytes.length);
-            index.put(key, cmdPos);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+            VersionEdit edit = new VersionEdit();
+            edit.setLastSeq(lastSeq);
+            if (!walIndexes.isEmpty()) {
+                edit.setWalCheckpoint(Math.max(0, walIndexes.get(walIndexes.size() - 1) + 1));
+            }
+            manifest.log(edit);
         } finally {
-            indexLock.writeLock().unlock();   //释放写锁
+            indexLock.writeLock().unlock();
+        }
+        for (int walIndex : walIndexes) {
+            new File(this.genWalPath(walIndex)).delete();
         }
+        for (File file : recycled == null ? new File[0] : recycled) {
+            file.delete();
+        }
+        LoggerUtil.debug(LOGGER, logFormat, "replayIntoData", "写入数据文件的操作数: " + pending.size());
     }
 
-    //关闭存储对象
-    @Override
-    public void close() throws IOException {
-        writerReader.close();
+    //读取一个 WAL分段，遇到检查点时丢弃之前收集的操作
+    private void readWAL(int walIndex, List<WALEntry> pending) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(this.genWalPath(walIndex), "r")) {
+            //新格式的分段带文件头，每条记录带 crc；旧格式的分段只有长度前缀
+            boolean checksummed = file.length() >= WAL_HEADER_SIZE && file.readInt() == WAL_MAGIC;
+            if (checksummed && file.readInt() != walIndex) {
+                return;   //文件头没有写完，分段中没有有效记录
+            }
+            file.seek(checksummed ? WAL_HEADER_SIZE : 0);
+            int headerLen = checksummed ? 8 : 4;
+            CRC32 crc = new CRC32();
+            while (file.getFilePointer() + headerLen <= file.length()) {
+                int entryLen = file.readInt();
+                int checksum = checksummed ? file.readInt() : 0;
+                if (entryLen <= 0 || file.getFilePointer() + entryLen > file.length()) {
+                    break;   //末尾是未写完整的记录或预分配的空白区域
+                }
+                byte[] entryBytes = new byte[entryLen];
+                file.readFully(entryBytes);
+                if (checksummed && checksum != walChecksum(crc, walIndex, entryBytes, 0, entryLen)) {
+                    break;   //未写完整的记录，或复用分段中残留的旧记录
+                }
+                WALEntry entry = RecordCodec.decodeWal(entryBytes);
+                lastSeq = Math.max(lastSeq, entry.getSeq());
+                if (CHECKPOINT.equals(entry.getCommandType())) {
+                    pending.clear();
+                } else {
+                    pending.add(entry);
+                }
+            }
+        }
     }
 
-    //将内存表中的数据写入磁盘，同时更新索引
-    private void writeToDisk(String path) {
+    //回放索引：按 MANIFEST 记录的新旧顺序扫描有效的数据文件，后写入的命令覆盖先写入的命令，索引中只保留有效的 set 命令
+    //还没有 MANIFEST 的旧数据目录按编号从小到大扫描一次，并据此创建 MANIFEST
+    //快速启动时这里不扫描，只记录要加载的文件，打开之后由后台线程从新到旧加载
+    public void reloadIndex() {
+        long now = System.currentTimeMillis();
+        List<Integer> fileIndexes = manifest.isRecovered() ? manifest.getLiveFiles() : listFileIndexes(dataDir);
+        List<Integer> scanNow = fileIndexes;
+        if (fastOpen && manifest.isRecovered()) {
+            List<Integer> newestFirst = new ArrayList<>(fileIndexes);
+            Collections.reverse(newestFirst);
+            Map<Integer, Long> fileSizes = new HashMap<>();
+            for (int fileIndex : fileIndexes) {
+                fileSizes.put(fileIndex, new File(this.genFilePath(fileIndex)).length());
+            }
+            indexLoader = new IndexLoader(newestFirst, fileSizes, new IndexLoader.FileAccess() {
+                @Override
+                public void read(int fileIndex, BiConsumer<CommandPos, Command> consumer) throws IOException {
+                    forEachIndexEntry(fileIndex, consumer);
+                }
+
+                @Override
+                public BlockTable.BlockIndex readIndex(int fileIndex) throws IOException {
+                    File file = new File(genFilePath(fileIndex));
+                    return BlockTable.isBlockFile(file) ? BlockTable.readIndex(file) : null;
+                }
+
+                @Override
+                public Command find(int fileIndex, BlockTable.BlockIndex blocks, String key, int[] location) throws IOException {
+                    return findInBlock(fileIndex, blocks, key, location);
+                }
+
+                @Override
+                public CommandPos positionOf(int fileIndex, int[] location, Command command) {
+                    return blockPosition(fileIndex, location[0], location[1], location[2], command);
+                }
+            });
+            scanNow = Collections.emptyList();
+            if (bitcask) {
+                //崩溃时的当前文件没有提示文件，其中可能有比 MANIFEST 更新的序列号，启动前先找出来
+                for (int fileIndex : fileIndexes) {
+                    if (!new File(this.genHintPath(fileIndex)).exists()) {
+                        try {
+                            forEachRecord(fileIndex, (cmdPos, command) -> lastSeq = Math.max(lastSeq, cmdPos.getSeq()));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            }
+        }
+        for (int fileIndex : scanNow) {
+            try {
+                forEachIndexEntry(fileIndex, (cmdPos, command) -> {
+                    lastSeq = Math.max(lastSeq, cmdPos.getSeq());   //单次写入模式下崩溃前的写入只在数据文件中
+                    if (command instanceof RmCommand
+                            || (command instanceof SetCommand && ((SetCommand) command).isExpired(now))) {
+                        index.delete(command.getKey());   //删除标记和已过期的数据视同删除，不再建立索引
+                        return;
+                    }
+                    index.put(command.getKey(), cmdPos);
+                    if (cmdPos.getExpireAt() > 0) {
+                        timingWheel.add(command.getKey(), cmdPos.getExpireAt());
+                    }
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         try {
-            //将内存表大小写入磁盘文件
-            RandomAccessFileUtil.writeInt(this.genFilePath(), memTable.size());
-            for (Command command : memTable.values()) {
-                //将命令对象转换为字节数组
-                byte[] commandBytes = JSONObject.toJSONBytes(command);
-                //将命令字节数组写入磁盘文件，获取写入位置
-                int pos = RandomAccessFileUtil.write(path, commandBytes);
-                CommandPos commandPos = new CommandPos(pos, commandBytes.length);  //创建命令位置对象
-                index.put(command.getKey(), commandPos);   //将命令位置对象添加到索引中
-            }
-            memTable.clear();   //清空内存表中的数据，在将数据持久化到磁盘后，及时释放内存资源
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+            if (!manifest.isRecovered()) {
+                int next = fileIndexes.isEmpty() ? 0 : fileIndexes.get(fileIndexes.size() - 1) + 1;
+                manifest.create(fileIndexes, next);
+            }
+            deleteObsoleteFiles(fileIndexes);
+            //上次的写入文件是空的或者末尾完整时接着写入，不必每次启动都新建一个文件；末尾没写完整时视为封存文件，新的写入追加到新文件中
+            currentFileIndex = reusableActiveFile();
+            if (currentFileIndex < 0) {
+                currentFileIndex = manifest.allocateFileIndex();
+                logNewFile(currentFileIndex);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        LoggerUtil.debug(LOGGER, logFormat, "重新加载索引: " + index.toString());
     }
 
-    //达到文件阈值之后，创建新文件，防止单个文件过大
-    private void rotateIfNeeded() throws IOException {
-        File currentFile = new File(this.genFilePath());
-        //判断文件是否达到阈值
-        if (currentFile.length() >= FILE_SIZE_THRESHOLD) {
-            System.out.println("开始压缩");
-            if (writerReader != null) {   //对象不为空则关闭句柄，确保之前的文件得到关闭
-                writerReader.close();
+    //MANIFEST 中最后一个文件是上次的写入文件，它是空的、或者最后一条记录正好结束在文件末尾，并且格式与当前的写入模式相同时返回它的编号，否则返回 -1
+    //单次写入模式下它的提示文件在下一次切换文件时重新生成，这里先删除，已有记录放回 activeHints
+    private int reusableActiveFile() throws IOException {
+        List<Integer> liveFiles = manifest.getLiveFiles();
+        if (liveFiles.isEmpty()) {
+            return -1;
+        }
+        int fileIndex = liveFiles.get(liveFiles.size() - 1);
+        File file = new File(this.genFilePath(fileIndex));
+        if (manifest.isCold(fileIndex) || !file.exists() || BlockTable.isBlockFile(file)) {
+            return -1;
+        }
+        if (file.length() > 0) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (file.length() < 4 || (in.readInt() == DATA_LOG_MAGIC) != bitcask) {
+                    return -1;
+                }
             }
-            rmDuplicate();   //文件切换的同时进行去重操作
-            currentFileIndex++;   //增加当前文件索引，生成下一个文件路径
-            String newFilePath = this.genFilePath();
-            File newFile = new File(newFilePath);
-            if (!newFile.exists()){
-                newFile.createNewFile();
+        }
+        long[] end = {0};
+        Map<String, Hint> hints = new LinkedHashMap<>();
+        forEachRecord(fileIndex, (cmdPos, command) -> {
+            end[0] = Math.max(end[0], (long) cmdPos.getPos() + cmdPos.getLen());
+            if (bitcask) {
+                hints.put(command.getKey(), new Hint(cmdPos, command instanceof RmCommand));
             }
-            writerReader = new RandomAccessFile(this.genFilePath(), RW_MODE);  //创建一个新的句柄，写入下一个文件
+        });
+        if (end[0] != file.length()) {
+            return -1;
+        }
+        if (bitcask) {
+            activeHints.putAll(hints);
+            new File(this.genHintPath(fileIndex)).delete();
+        }
+        return fileIndex;
+    }
+
+    //删除 MANIFEST 中不存在的数据文件：崩溃时没有提交的压缩结果、提交后没来得及删除的旧文件
+    private void deleteObsoleteFiles(List<Integer> liveFiles) {
+        Set<Integer> live = new HashSet<>(liveFiles);
+        for (int fileIndex : listFileIndexes(dataDir)) {
+            if (!live.contains(fileIndex) && new File(this.genFilePath(fileIndex, false)).delete()) {
+                LoggerUtil.info(LOGGER, logFormat, "deleteObsoleteFiles", "删除无效的数据文件 " + this.genFilePath(fileIndex, false));
+            }
+        }
+        File[] hints = new File(dataDir).listFiles((dir, name) -> name.startsWith(NAME)
+                && (name.endsWith(HINT) || name.endsWith(HINT + ".tmp")));
+        for (File hint : hints == null ? new File[0] : hints) {
+            String name = hint.getName();
+            String number = name.substring(NAME.length(), name.indexOf(HINT));
+            if (name.endsWith(".tmp") || !number.matches("\\d+") || !live.contains(Integer.parseInt(number))) {
+                hint.delete();
+            }
+        }
+        if (coldDir != null) {
+            for (int fileIndex : listFileIndexes(coldDir)) {
+                if (!live.contains(fileIndex) && new File(this.genFilePath(fileIndex, true)).delete()) {
+                    LoggerUtil.info(LOGGER, logFormat, "deleteObsoleteFiles", "删除无效的数据文件 " + this.genFilePath(fileIndex, true));
+                }
+            }
+        }
+        new File(this.dataDir + File.separator + COMPACT_TMP).delete();
+        File[] compactTemps = new File(dataDir).listFiles((dir, name) -> name.startsWith(COMPACT)
+                && (name.endsWith(COMPACT_RUN) || name.endsWith(COMPACT_MOVES)));
+        for (File temp : compactTemps == null ? new File[0] : compactTemps) {
+            temp.delete();
+        }
+        File[] spills = new File(dataDir).listFiles((dir, name) -> name.startsWith(SNAPSHOT_SPILL) && name.endsWith(SPILL));
+        for (File spill : spills == null ? new File[0] : spills) {
+            spill.delete();
         }
     }
 
-    // 7.19新
-    private void rmDuplicate() {
-        new Thread(new Runnable() {   //新建一个线程
-            @Override
-            public void run() {
+    //后台按从新到旧的顺序把数据文件合并进索引：文件在锁外解析，持写锁合并，已经由较新数据确定结果的 key 不再被旧文件覆盖
+    private void loadIndexInBackground(IndexLoader loader) {
+        long start = System.currentTimeMillis();
+        try {
+            for (int fileIndex : loader.pendingFiles()) {
+                if (closing) {
+                    return;
+                }
+                Map<String, CommandPos> table = loader.table(fileIndex);
+                indexLock.writeLock().lock();
                 try {
-                    String currentFilePath = dataDir + File.separator + NAME + currentFileIndex + TABLE;
-                    //调用 duplicateCommands()方法对内存表中的命令进行去重操作，返回去重后的命令集合 uniqueCommands
-                    Map<String, Command> uniqueCommands = duplicateCommands(memTable);
-                    try (RandomAccessFile file = new RandomAccessFile(currentFilePath, RW_MODE)) {
-                        //将去重后的命令转换为字节数组
-                        for (Command command : uniqueCommands.values()) {
-                            byte[] commandBytes = JSONObject.toJSONBytes(command);
-                            RandomAccessFileUtil.writeInt(currentFilePath, commandBytes.length);  //将字节数组的长度写入文件
-                            RandomAccessFileUtil.write(currentFilePath, commandBytes);  //将字节数组写入文件
+                    for (Map.Entry<String, CommandPos> entry : table.entrySet()) {
+                        String key = entry.getKey();
+                        CommandPos cmdPos = entry.getValue();
+                        if (!loader.resolve(key) || cmdPos.isDeleted()) {
+                            continue;
+                        }
+                        index.put(key, cmdPos);
+                        if (cmdPos.getExpireAt() > 0) {
+                            timingWheel.add(key, cmdPos.getExpireAt());
                         }
                     }
-                    new File(currentFilePath).delete();   //删除当前文件
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    loader.finishFile(fileIndex);
+                } finally {
+                    indexLock.writeLock().unlock();
                 }
+                LoggerUtil.info(LOGGER, logFormat, "loadIndex", String.format("已加载 %s，进度 %.1f%%",
+                        this.genFilePath(fileIndex), loader.getProgress() * 100));
+            }
+            indexLock.writeLock().lock();
+            try {
+                indexLoader = null;   //之后的读只查索引，压缩和值日志回收恢复
+            } finally {
+                indexLock.writeLock().unlock();
             }
-        }).start();
+            loader.markReady();
+            LoggerUtil.info(LOGGER, logFormat, "loadIndex", "索引加载完成，用时 " + (System.currentTimeMillis() - start)
+                    + " ms，共 " + loader.getTotalBytes() + " 字节");
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "loadIndex", t.getMessage());
+            loader.markFailed(t);
+        }
     }
 
-    //命令的去重操作
-    private Map<String, Command> duplicateCommands(Map<String, Command> commands) {
-        Map<String, Command> uniqueCommands = new HashMap<>();   //用于存储去重后的命令
-        //遍历命令，并只保留最新的命令
-        for (Command command : commands.values()) {
-            uniqueCommands.put(command.getKey(), command);  //将每个命令根据其键添加到哈希映射中，只保留最新的命令
+    //在索引中查找 key；快速启动时索引还没加载完，尚未确定结果的 key 到还没合并的文件中探测，调用方需持有锁
+    private CommandPos indexed(String key) {
+        CommandPos cmdPos = index.get(key);
+        IndexLoader loader = indexLoader;
+        if (cmdPos != null || loader == null || loader.isResolved(key)) {
+            return cmdPos;
         }
-        return uniqueCommands;   //返回去重后的命令
+        return loader.probe(key);
     }
 
-    //生成文件路径
-    public String genFilePath() {
-        return this.dataDir + File.separator + NAME + currentFileIndex + TABLE;
+    //快速启动时，在锁外预先解析可能包含 key 的文件，避免持锁读盘阻塞写入
+    private void prefetch(String key) {
+        IndexLoader loader = indexLoader;
+        if (loader == null) {
+            return;
+        }
+        boolean unresolved;
+        indexLock.readLock().lock();
+        try {
+            unresolved = !memTable.containsKey(key) && !index.containsKey(key) && !loader.isResolved(key);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        if (unresolved) {
+            loader.prefetch(key);
+        }
+    }
+
+    //快照、全量同步和导入需要完整的索引，快速启动时等待后台加载完成，调用方不能持有锁
+    public void awaitIndexReady() {
+        IndexLoader loader = indexLoader;
+        if (loader == null) {
+            return;
+        }
+        try {
+            loader.awaitReady();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
     }
 
-    public String setFilePath() {
-        return this.dataDir + File.separator + "set"  + TABLE;
+    //索引是否已经加载完成，普通启动时总是 true
+    public boolean isIndexReady() {
+        return indexLoader == null;
     }
 
-    public String rmFilePath() {
-        return this.dataDir + File.separator + "rm"  + TABLE;
+    //索引加载进度，0 到 1
+    public double getIndexLoadProgress() {
+        IndexLoader loader = indexLoader;
+        return loader == null ? 1.0 : loader.getProgress();
+    }
+
+    //新建的数据文件记入 MANIFEST，排在所有已有文件之后
+    private void logNewFile(int fileIndex) throws IOException {
+        VersionEdit edit = new VersionEdit();
+        edit.setAddedFiles(Collections.singletonList(fileIndex));
+        edit.setNextFileIndex(fileIndex + 1);
+        if (bitcask) {
+            edit.setLastSeq(lastSeq);   //单次写入模式没有检查点，切换文件时记录序列号，压缩丢掉删除标记之后序列号也不会回退
+        }
+        manifest.log(edit);
+    }
+
+    //存储键值对数据。将键值对数据封装成 SetCommand对象，并存入内存表(memTable)。
+    @Override
+    public void set(String key, String value) {
+        set(key, value, 0L);
+    }
+
+    //存储带过期时间的键值对数据，过期时间随命令一起落盘
+    @Override
+    public void set(String key, String value, long ttl) {
+        StoreOperationEvent event = new StoreOperationEvent();
+        event.begin();
+        long expireAt = ttl > 0 ? System.currentTimeMillis() + ttl : 0L;
+        int segment;
+        try {
+            commit("set", key, value, expireAt, null);   //写入 WAL 并刷盘之后放入内存表，见 commit
+            segment = currentWalIndex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+        event.end("set", key, value, segment);
+    }
+
+    //流式写入：value 先按块写入值日志并刷盘，WAL 和内存表中只记录指针，内存占用与 value 大小无关
+    @Override
+    public void set(String key, InputStream in) {
+        try {
+            setPointer(key, valueLog.appendStream(key, in));   //不持有锁，写入大 value 期间不阻塞其他操作
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
-}
 
+    //value 已经写入值日志并刷盘，WAL 和内存表中只记录指针
+    private void setPointer(String key, ValuePointer pointer) {
+        commit("set", key, null, 0L, pointer);
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value) {
+        set(key, ByteBuffer.wrap(value));
+    }
+
+    //二进制 value 原样写入值日志；与 String 接口使用同一个阈值，小于阈值且是合法 UTF-8 的 value 按字符串内联，只写一次 WAL
+    //内联的 value 是字符串，按 UTF-8 解码再编码后字节不变；不是合法 UTF-8 的 value 无法无损内联，仍然写入值日志
+    @Override
+    public void set(byte[] key, ByteBuffer value) {
+        String internalKey = BinaryStore.toKey(key);
+        if (value.remaining() < valueThreshold) {
+            String text = BinaryStore.decodeUtf8(value);
+            if (text != null) {
+                set(internalKey, text);
+                return;
+            }
+        }
+        try {
+            ValuePointer pointer = valueLog.append(internalKey, value);
+            valueLog.sync();   //WAL 引用它之前先刷盘
+            setPointer(internalKey, pointer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ByteBuffer get(byte[] key) {
+        return getValueBuffer(BinaryStore.toKey(key));
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        rm(BinaryStore.toKey(key));
+    }
+
+    //以只读 ByteBuffer 返回 value，值日志中的 value 直接返回内存映射的切片，内联的 value 按 UTF-8 编码
+    public ByteBuffer getValueBuffer(String key) {
+        prefetch(key);
+        indexLock.readLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            ValuePointer pointer;
+            Command memCommand = memTable.get(key);
+            if (memCommand != null) {
+                if (!(memCommand instanceof SetCommand) || ((SetCommand) memCommand).isExpired(now)) {
+                    return null;
+                }
+                pointer = ((SetCommand) memCommand).getValuePointer();
+                if (pointer == null) {
+                    return ByteBuffer.wrap(((SetCommand) memCommand).getValue().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+                }
+            } else {
+                CommandPos cmdPos = indexed(key);
+                if (cmdPos == null || cmdPos.isExpired(now)) {
+                    return null;
+                }
+                pointer = cmdPos.getValuePointer();
+                if (pointer == null) {
+                    String value = readValue(key, cmdPos, now);
+                    return value == null ? null : ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+                }
+            }
+            return valueLog.slice(pointer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    //流式读取：把 value 写入 out，返回写入的字节数，key 不存在时返回 -1
+    //值日志中的 value 用 FileChannel.transferTo 直接从文件发送；只在定位时持有读锁，发送期间不阻塞写入
+    @Override
+    public long get(String key, WritableByteChannel out) {
+        FileChannel channel = null;
+        ValuePointer pointer;
+        String inline;
+        prefetch(key);
+        indexLock.readLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            Command memCommand = memTable.get(key);
+            if (memCommand != null) {
+                if (!(memCommand instanceof SetCommand) || ((SetCommand) memCommand).isExpired(now)) {
+                    return -1;
+                }
+                pointer = ((SetCommand) memCommand).getValuePointer();
+                inline = ((SetCommand) memCommand).getValue();
+            } else {
+                CommandPos cmdPos = indexed(key);
+                if (cmdPos == null || cmdPos.isExpired(now)) {
+                    return -1;
+                }
+                pointer = cmdPos.getValuePointer();
+                inline = pointer == null ? readValue(key, cmdPos, now) : null;
+            }
+            if (pointer != null) {
+                channel = valueLog.openChannel(pointer);   //在锁内打开，之后文件被回收也不影响读取
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        try {
+            if (channel == null) {
+                ByteBuffer buffer = ByteBuffer.wrap(inline.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                return buffer.capacity();
+            }
+            try (FileChannel src = channel) {
+                if (out instanceof ChunkedWritableChannel) {
+                    return ((ChunkedWritableChannel) out).transferFrom(src, pointer.getPos(), pointer.getLen());
+                }
+                long sent = 0;
+                while (sent < pointer.getLen()) {
+                    sent += src.transferTo(pointer.getPos() + sent, pointer.getLen() - sent, out);
+                }
+                return sent;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void applySet(WALEntry entry) {
+        applySet(entry.getKey(), entry.getValue(), entry.getExpireAt(), entry.getSeq(), entry.getValuePointer());
+    }
+
+    //将 set 命令放入内存表，调用方需持有写锁
+    private void applySet(String key, String value, long expireAt, long seq, ValuePointer pointer) {
+        Command old = bitcask ? null : memTable.get(key);
+        if (old instanceof SetCommand) {
+            //覆盖内存表中的 set 时原地修改，不创建新的命令对象；读-改-写按序列号判断它是否被改过
+            SetCommand command = (SetCommand) old;
+            long size = -memSize(command);
+            command.setValue(value);
+            command.setExpireAt(expireAt);
+            command.setSeq(seq);
+            command.setValuePointer(pointer);
+            size += memSize(command);
+            memTableBytes += size;
+            writeBufferManager.reserve(size);
+        } else {
+            SetCommand command = new SetCommand(key, value, expireAt);
+            command.setSeq(seq);
+            command.setValuePointer(pointer);
+            if (bitcask) {
+                CommandPos cmdPos = logToData(command);
+                retainVersion(key, index.put(key, cmdPos), null);
+            } else {
+                putMemTable(command);  //将键值对存入内存
+            }
+        }
+        //登记到时间轮，已经过期的数据直接淘汰
+        if (expireAt > 0 && !timingWheel.add(key, expireAt)) {
+            evict(key, expireAt);
+        }
+    }
+
+    //根据键获取对应的值。先查内存表，再根据索引(index)获取命令在文件中的位置和长度信息，从文件中读取命令数据，并解析为相应的命令对象。
+    //热点 key 上并发的读合并成一次查找；以 lastSeq 作为版本号，有写入提交之后到达的读会重新查找
+    @Override
+    public String get(String key) {
+        return readFlight.execute(key, lastSeq, lookup);
+    }
+
+    private String lookup(String key) {
+        StoreOperationEvent event = new StoreOperationEvent();
+        event.begin();
+        prefetch(key);
+        String value;
+        int segment = -1;
+        try {
+            indexLock.readLock().lock();
+            long now = System.currentTimeMillis();
+            //内存表中是最新的数据
+            Command memCommand = memTable.get(key);
+            if (memCommand != null) {
+                value = valueOf(memCommand, now);
+            } else {
+                //获取信息，惰性过期：时间轮还没来得及淘汰的过期数据，读的时候直接当作不存在
+                int slot = index.slot(key);
+                if (slot >= 0) {
+                    segment = index.fileIndex(slot);   //直接按槽位读取字段，不复制 CommandPos
+                    value = index.isExpired(slot, now) ? null : readValue(key, index.fileIndex(slot), index.pos(slot),
+                            index.len(slot), index.blockEntry(slot), index.valuePointer(slot));
+                } else {
+                    CommandPos cmdPos = indexed(key);
+                    if (cmdPos != null) {
+                        segment = cmdPos.getFileIndex();
+                    }
+                    value = readValue(key, cmdPos, now);
+                }
+            }
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        } finally {
+            indexLock.readLock().unlock();   //释放读锁
+        }
+        event.end("get", key, value, segment);
+        return value;
+    }
+
+    //如果是 SetCommand对象，则返回其对应的值；如果是 RmCommand对象或已过期，则返回 null。
+    private String valueOf(Command cmd, long now) throws IOException {
+        if (cmd instanceof SetCommand) {
+            SetCommand setCommand = (SetCommand) cmd;
+            if (setCommand.isExpired(now)) {
+                return null;
+            }
+            //大 value 不在数据文件里，按指针到值日志中读取
+            return setCommand.getValuePointer() == null ? setCommand.getValue() : valueLog.read(setCommand.getValuePointer());
+        }
+        return null;
+    }
+
+    //原子地给整数 value 加上 delta 并返回新值，key 不存在时按 0 计算，保留原有的过期时间
+    @Override
+    public long incrBy(String key, long delta) {
+        String written = readModifyWrite(key, current -> {
+            long base;
+            try {
+                base = current == null ? 0L : Long.parseLong(current);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("value 不是整数，不能执行 INCRBY: " + key);
+            }
+            return String.valueOf(Math.addExact(base, delta));
+        }, true);
+        return Long.parseLong(written);
+    }
+
+    //当前 value 等于 expected 时写入 value，expected 为 null 表示 key 不存在；返回是否写入
+    @Override
+    public boolean compareAndSet(String key, String expected, String value) {
+        return readModifyWrite(key, current -> Objects.equals(current, expected) ? value : null, false) != null;
+    }
+
+    //key 不存在时写入，返回是否写入
+    @Override
+    public boolean setIfAbsent(String key, String value) {
+        return compareAndSet(key, null, value);
+    }
+
+    //在 key 的分段锁内读-改-写：update 根据当前 value 返回新 value，返回 null 表示不写入；返回写入的 value
+    //读取只持有读锁，写入前在写锁下确认 key 的最新记录没有变化，整个操作只写一条 set 记录到 WAL
+    //同一个 key 上的读-改-写由分段锁串行执行；不经过分段锁的写入（set、rm、导入、复制、过期淘汰、落盘）改变了最新记录时重新读取
+    private String readModifyWrite(String key, UnaryOperator<String> update, boolean keepTtl) {
+        Lock keyLock = keyLocks[Math.floorMod(key.hashCode(), KEY_LOCK_STRIPES)];
+        keyLock.lock();
+        try {
+            while (true) {
+                Object observed;
+                long observedSeq;
+                String current;
+                long expireAt = 0L;
+                prefetch(key);
+                indexLock.readLock().lock();
+                try {
+                    long now = System.currentTimeMillis();
+                    Command memCommand = memTable.get(key);
+                    CommandPos cmdPos = indexed(key);
+                    observed = memCommand != null ? memCommand : cmdPos;
+                    observedSeq = memCommand != null ? ((AbstractCommand) memCommand).getSeq() : 0L;
+                    if (memCommand != null) {
+                        current = valueOf(memCommand, now);
+                        if (current != null) {
+                            expireAt = ((SetCommand) memCommand).getExpireAt();
+                        }
+                    } else {
+                        current = readValue(key, cmdPos, now);
+                        if (current != null) {
+                            expireAt = cmdPos.getExpireAt();
+                        }
+                    }
+                } finally {
+                    indexLock.readLock().unlock();
+                }
+                String value = update.apply(current);
+                if (value == null) {
+                    return null;
+                }
+                //持有 commitLock 时其他写入不能提交，确认之后直接提交这一条，不进入提交队列
+                commitLock.lock();
+                try {
+                    boolean unchanged;
+                    indexLock.readLock().lock();
+                    try {
+                        Command memCommand = memTable.get(key);
+                        unchanged = sameRecord(memCommand != null ? memCommand : indexed(key), observed, observedSeq);
+                    } finally {
+                        indexLock.readLock().unlock();
+                    }
+                    if (!unchanged) {
+                        continue;   //读取之后有其他写入，重新读取
+                    }
+                    commitBatch(new PendingWrite[]{new PendingWrite("set", key, value, keepTtl ? expireAt : 0L, null)}, 1);
+                    return value;
+                } finally {
+                    commitLock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    //内存表中的命令比较对象和序列号，set 覆盖 set 时原地修改同一个对象；磁盘上的记录比较位置，索引每次返回的都是复制出来的对象
+    private static boolean sameRecord(Object current, Object observed, long observedSeq) {
+        if (current instanceof AbstractCommand) {
+            return current == observed && ((AbstractCommand) current).getSeq() == observedSeq;
+        }
+        if (current == observed) {
+            return true;
+        }
+        return current instanceof CommandPos && observed instanceof CommandPos
+                && ((CommandPos) current).samePlace((CommandPos) observed);
+    }
+
+    //删除键值对数据。将删除命令封装成 RmCommand对象，并存入内存表。
+    @Override
+    public void rm(String key) {
+        StoreOperationEvent event = new StoreOperationEvent();
+        event.begin();
+        int segment;
+        try {
+            commit("rm", key, null, 0L, null);
+            segment = currentWalIndex;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+        event.end("rm", key, null, segment);
+    }
+
+    //将 rm 命令放入内存表，调用方需持有写锁
+    private void applyRm(String key, long seq) {
+        RmCommand command = new RmCommand(key);
+        command.setSeq(seq);
+        if (bitcask) {
+            logToData(command);   //删除标记总是写入，保证重启后能恢复出最大的序列号
+            retainVersion(key, index.remove(key), CommandPos.deletedAt(seq));
+            return;
+        }
+        putMemTable(command);   //将删除标记存入内存表
+    }
+
+    //单次写入模式：命令追加到当前数据文件并刷盘，返回记录的位置，调用方需持有写锁
+    private CommandPos logToData(Command command) {
+        try {
+            WalSyncEvent event = new WalSyncEvent();
+            event.begin();
+            CommandPos cmdPos = appendRecord(command);
+            writerReader.getChannel().force(false);
+            event.end(currentFileIndex, cmdPos.getLen() + 8);
+            if (indexLoader != null) {
+                indexLoader.resolve(command.getKey());   //新写入的版本比所有还没合并的文件都新
+            }
+            return cmdPos;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //按当前数据文件的格式追加一条记录，返回它的位置，不刷盘，调用方需持有写锁
+    //普通模式下是 [int len][记录]；单次写入模式下文件头之后是 [int len][int crc][记录]，crc 用来在启动时找到崩溃时没写完的末尾
+    private CommandPos appendRecord(Command record) throws IOException {
+        long start = writerReader.length();
+        int header = bitcask ? (start == 0 ? 4 : 0) + 8 : 4;
+        ensureDataBuffer(header + RecordCodec.maxLength(record, true));
+        ByteBuffer buffer = dataBuffer;
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).position(header);
+        RecordCodec.put(buffer, record, true);
+        int len = buffer.position() - header;
+        if (bitcask) {
+            if (start == 0) {
+                buffer.putInt(0, DATA_LOG_MAGIC);
+            }
+            buffer.putInt(header - 8, len);
+            buffer.putInt(header - 4, dataChecksum(dataCrc, buffer.array(), header, len));
+        } else {
+            buffer.putInt(0, len);
+        }
+        ((Buffer) buffer).flip();
+        FileChannel channel = writerReader.getChannel();
+        long writePos = start;
+        while (buffer.hasRemaining()) {
+            writePos += channel.write(buffer, writePos);
+        }
+        int pos = (int) start + header;
+        CommandPos cmdPos = recordPosition(currentFileIndex, pos, len, record);
+        if (bitcask) {
+            activeHints.put(record.getKey(), new Hint(cmdPos, record instanceof RmCommand));
+        }
+        return cmdPos;
+    }
+
+    private static int dataChecksum(CRC32 crc, byte[] bytes, int off, int len) {
+        crc.reset();
+        crc.update(bytes, off, len);
+        return (int) crc.getValue();
+    }
+
+    //数据记录的编码缓冲区至少要有 capacity 个字节，调用方需持有写锁
+    private void ensureDataBuffer(int capacity) {
+        if (dataBuffer.capacity() < capacity) {
+            dataBuffer = ByteBuffer.allocate(Math.max(capacity, dataBuffer.capacity() * 2));
+        }
+    }
+
+    //从节点接收分块发送的 value：写入本地值日志并刷盘，返回的指针放入 WALEntry 后交给 applyReplicated
+    public ValuePointer appendReplicatedValue(String key, InputStream in) {
+        try {
+            return valueLog.appendStream(key, in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //应用从主节点复制过来的操作，保留原有的过期时间和序列号；序列号不大于本地序列号的操作已经应用过，直接跳过
+    //序列号为 0 的操作（全量快照中的数据）总是应用，且不推进本地序列号
+    //与本地写入一样先刷盘再进入内存表，刷盘时不持有 indexLock
+    public void applyReplicated(WALEntry entry) {
+        commitLock.lock();
+        try {
+            if (entry.getSeq() > 0 && entry.getSeq() <= lastSeq) {
+                return;
+            }
+            if (!bitcask) {
+                synchronized (walLock) {
+                    appendWAL(entry);   //单次写入模式没有 WAL，下面的 applySet、applyRm 把带序列号的记录直接追加到数据文件
+                    syncWAL();
+                }
+            }
+            indexLock.writeLock().lock();
+            try {
+                lastSeq = Math.max(lastSeq, entry.getSeq());
+                if ("set".equals(entry.getCommandType())) {
+                    applySet(entry);
+                } else if ("rm".equals(entry.getCommandType())) {
+                    applyRm(entry.getKey(), entry.getSeq());
+                }
+                notifyWalListeners(entry);
+                flushIfNeeded();
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    //全量快照应用完成后，把本地序列号推进到快照对应的序列号，并落盘写检查点使其持久化
+    //单次写入模式下快照数据已经在数据文件中，没有检查点，序列号直接记入 MANIFEST
+    public void advanceSeq(long seq) {
+        commitLock.lock();
+        indexLock.writeLock().lock();
+        try {
+            if (seq > lastSeq) {
+                lastSeq = seq;
+            }
+            if (bitcask) {
+                VersionEdit edit = new VersionEdit();
+                edit.setLastSeq(lastSeq);
+                manifest.log(edit);
+            } else {
+                writeToDisk();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            indexLock.writeLock().unlock();
+            commitLock.unlock();
+        }
+    }
+
+    //在读锁下遍历所有有效数据，以 set 操作的形式交给 consumer，返回遍历时对应的序列号
+    public long scanLive(Consumer<WALEntry> consumer) {
+        awaitIndexReady();
+        indexLock.readLock().lock();
+        Map<Integer, RandomAccessFile> files = new HashMap<>();
+        try {
+            long now = System.currentTimeMillis();
+            for (Command command : memTable.values()) {
+                if (command instanceof SetCommand && !((SetCommand) command).isExpired(now)) {
+                    consumer.accept(replicaEntry((SetCommand) command, now));
+                }
+            }
+            for (String key : index.keys()) {
+                CommandPos cmdPos = index.get(key);
+                if (memTable.containsKey(key) || cmdPos.isExpired(now)) {
+                    continue;
+                }
+                RandomAccessFile file = files.get(cmdPos.getFileIndex());
+                if (file == null) {
+                    file = new RandomAccessFile(this.genFilePath(cmdPos.getFileIndex()), "r");
+                    files.put(cmdPos.getFileIndex(), file);
+                }
+                byte[] bytes = new byte[cmdPos.getLen()];
+                file.seek(cmdPos.getPos());
+                file.readFully(bytes);
+                bytes = BlockTable.inflate(bytes, manifest.isCold(cmdPos.getFileIndex()));
+                Command command = decodeCommand(key, cmdPos.getFileIndex(), cmdPos.getBlockEntry(), bytes, bytes.length);
+                if (command instanceof SetCommand) {
+                    consumer.accept(replicaEntry((SetCommand) command, now));
+                }
+            }
+            return lastSeq;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (RandomAccessFile file : files.values()) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            indexLock.readLock().unlock();
+        }
+    }
+
+    //把一条有效数据转换成复制用的 set 操作，值日志中的 value 不在锁内读取，由发送方在这一批之后分块发送
+    private WALEntry replicaEntry(SetCommand command, long now) throws IOException {
+        if (command.getValuePointer() == null) {
+            return new WALEntry("set", command.getKey(), valueOf(command, now), command.getExpireAt());
+        }
+        WALEntry entry = new WALEntry("set", command.getKey(), null, command.getExpireAt());
+        entry.setStreamedValue(true);
+        return entry;
+    }
+
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    //批量导入 SortedFileWriter 生成的文件：以硬链接放入数据目录（不在同一个文件系统时复制），不写 WAL、不经过内存表，也不改写记录
+    //导入的数据比之前的所有写入都新，整批共用一个序列号；文件中的记录不带序列号，整批的序列号随文件记入 MANIFEST，
+    //读出这些文件中的记录时作为序列号的下限补上，重启之后按序列号区分冷热、判断新旧时仍然成立，压缩时写进新文件的记录
+    //先把内存表落盘，再用一次 MANIFEST 编辑把导入的文件和新的写入文件一起加入，原子生效
+    //导入不产生 WAL 操作，从节点不会收到，需要重新同步快照
+    @Override
+    public void ingest(List<String> files) {
+        awaitIndexReady();
+        List<Integer> fileIndexes = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<CommandPos> positions = new ArrayList<>();
+        try {
+            for (String path : files) {
+                File source = new File(path);
+                if (!BlockTable.isBlockFile(source)) {
+                    throw new IllegalArgumentException(path + " 不是 SortedFileWriter 生成的文件");
+                }
+                int fileIndex = manifest.allocateFileIndex();
+                fileIndexes.add(fileIndex);
+                linkOrCopy(source, new File(this.genFilePath(fileIndex)));
+            }
+            //在锁外顺序读取一遍，建立索引项
+            for (int fileIndex : fileIndexes) {
+                forEachRecord(fileIndex, (cmdPos, command) -> {
+                    if (!(command instanceof SetCommand)) {
+                        throw new IllegalArgumentException("导入的文件中只能有 set 记录: " + command.getKey());
+                    }
+                    keys.add(command.getKey());
+                    positions.add(cmdPos);
+                });
+            }
+        } catch (Throwable t) {
+            deleteDataFiles(fileIndexes);
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        }
+
+        boolean installed = false;
+        commitLock.lock();
+        indexLock.writeLock().lock();
+        try {
+            if (!memTable.isEmpty()) {
+                writeToDisk();
+            }
+            long seq = lastSeq + 1;   //整批导入共用一个序列号
+            int activeIndex = manifest.allocateFileIndex();   //之后的写入必须排在导入的文件之后
+            new File(this.genFilePath(activeIndex)).createNewFile();
+            List<Integer> added = new ArrayList<>(fileIndexes);
+            added.add(activeIndex);
+            Map<Integer, Long> ingestSeqs = new HashMap<>();
+            for (int fileIndex : fileIndexes) {
+                ingestSeqs.put(fileIndex, seq);
+            }
+            VersionEdit edit = new VersionEdit();
+            edit.setAddedFiles(added);
+            edit.setIngestSeqs(ingestSeqs);
+            edit.setNextFileIndex(activeIndex + 1);
+            edit.setLastSeq(seq);
+            manifest.log(edit);
+            installed = true;
+            lastSeq = seq;
+            writeHint();
+            writerReader.close();
+            currentFileIndex = activeIndex;
+            writerReader = new RandomAccessFile(this.genFilePath(), RW_MODE);
+
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                CommandPos cmdPos = positions.get(i);
+                cmdPos.setSeq(seq);
+                if (cmdPos.isExpired(now)) {
+                    retainVersion(key, index.remove(key), CommandPos.deletedAt(seq));
+                    continue;
+                }
+                retainVersion(key, index.put(key, cmdPos), null);
+                if (cmdPos.getExpireAt() > 0) {
+                    timingWheel.add(key, cmdPos.getExpireAt());
+                }
+            }
+        } catch (Throwable t) {
+            if (!installed) {
+                deleteDataFiles(fileIndexes);
+            }
+            throw t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+        } finally {
+            indexLock.writeLock().unlock();
+            commitLock.unlock();
+        }
+        LoggerUtil.info(LOGGER, logFormat, "ingest", "导入 " + files + " -> " + fileIndexes + "，共 " + keys.size() + " 个 key");
+    }
+
+    private static void linkOrCopy(File source, File target) throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    private void deleteDataFiles(List<Integer> fileIndexes) {
+        for (int fileIndex : fileIndexes) {
+            new File(this.genFilePath(fileIndex)).delete();
+        }
+    }
+
+    //创建快照：先把内存表落盘，使快照之前的所有版本都在索引中，然后固定当前序列号
+    //快照存续期间被覆盖或删除的版本会保留在 history 中，压缩时也不会被丢弃
+    @Override
+    public Snapshot snapshot() {
+        awaitIndexReady();
+        commitLock.lock();
+        indexLock.writeLock().lock();
+        try {
+            if (!memTable.isEmpty()) {
+                writeToDisk();
+                rotateIfNeeded();
+            }
+            long seq = lastSeq;
+            snapshots.merge(seq, 1, Integer::sum);
+            return new NormalSnapshot(seq);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            indexLock.writeLock().unlock();
+            commitLock.unlock();
+        }
+    }
+
+    private void releaseSnapshot(long seq) {
+        indexLock.writeLock().lock();
+        try {
+            Integer count = snapshots.get(seq);
+            if (count == null) {
+                return;
+            }
+            if (count <= 1) {
+                snapshots.remove(seq);
+            } else {
+                snapshots.put(seq, count - 1);
+            }
+            pruneHistory();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    //索引中的版本被覆盖或删除时，如果还有活跃快照，把旧版本保留下来，调用方需持有写锁
+    private void retainVersion(String key, CommandPos old, CommandPos deletedAt) {
+        if (snapshots.isEmpty() || (old == null && !history.containsKey(key))) {
+            return;   //没有快照，或者快照里本来就看不到这个 key
+        }
+        LinkedList<CommandPos> versions = history.computeIfAbsent(key, k -> new LinkedList<>());
+        if (old != null) {
+            versions.addFirst(old);
+        }
+        if (deletedAt != null) {
+            versions.addFirst(deletedAt);
+        }
+    }
+
+    //只保留仍然是某个活跃快照可见版本的历史版本，调用方需持有写锁
+    private void pruneHistory() {
+        if (snapshots.isEmpty()) {
+            history.clear();
+            return;
+        }
+        Iterator<Map.Entry<String, LinkedList<CommandPos>>> it = history.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, LinkedList<CommandPos>> entry = it.next();
+            CommandPos head = index.get(entry.getKey());
+            Set<CommandPos> visible = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (long seq : snapshots.keySet()) {
+                if (head != null && head.getSeq() <= seq) {
+                    continue;
+                }
+                for (CommandPos version : entry.getValue()) {
+                    if (version.getSeq() <= seq) {
+                        visible.add(version);
+                        break;
+                    }
+                }
+            }
+            entry.getValue().removeIf(version -> !visible.contains(version));
+            if (entry.getValue().isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    //找到序列号为 seq 的快照能看到的版本，调用方需持有读锁
+    private CommandPos visibleVersion(String key, long seq) {
+        CommandPos head = index.get(key);
+        if (head != null && head.getSeq() <= seq) {
+            return head;
+        }
+        List<CommandPos> versions = history.get(key);
+        if (versions != null) {
+            for (CommandPos version : versions) {
+                if (version.getSeq() <= seq) {
+                    return version.isDeleted() ? null : version;
+                }
+            }
+        }
+        return null;
+    }
+
+    //读取一个版本的值，调用方需持有读锁
+    private String readValue(String key, CommandPos cmdPos, long now) throws IOException {
+        if (cmdPos == null || cmdPos.isExpired(now)) {
+            return null;
+        }
+        return readValue(key, cmdPos.getFileIndex(), cmdPos.getPos(), cmdPos.getLen(), cmdPos.getBlockEntry(), cmdPos.getValuePointer());
+    }
+
+    //按位置读取一个没有过期的版本的值，只解码记录中的 value，不还原整条命令，调用方需持有读锁
+    private String readValue(String key, int fileIndex, int pos, int len, int blockEntry, ValuePointer pointer) throws IOException {
+        if (pointer != null) {
+            return valueLog.read(pointer);   //索引里已经有指针，不必再读数据文件
+        }
+        ByteBuffer stored = readStored(fileIndex, pos, len);
+        String value;
+        if (wholeBlock(fileIndex, blockEntry)) {
+            String[] found = new String[1];
+            BlockTable.readEntry(stored.array(), stored.limit(), blockEntry,
+                    (entry, k, record) -> found[0] = RecordCodec.value(record, 0, record.length, false));
+            value = found[0];
+        } else {
+            value = RecordCodec.value(stored.array(), 0, stored.limit(), blockEntry < 0);
+        }
+        if (coldDir != null && (manifest.isCold(fileIndex) || promotedKeys.contains(key))) {
+            recordTierRead(key);
+        }
+        return value;
+    }
+
+    //按位置读取数据文件中的一条记录或一个块，冷存储文件中的块读出后先解压
+    //读入当前线程复用的缓冲区，内容从下标 0 开始、长度为 limit，只在同一线程的下一次读取之前有效
+    private ByteBuffer readStored(int fileIndex, int pos, int len) throws IOException {
+        boolean cold = manifest.isCold(fileIndex);
+        ByteBuffer buffer = READ_BUFFER.get();
+        if (buffer.capacity() < len) {
+            buffer = ByteBuffer.allocate(Math.max(len, buffer.capacity() * 2));
+            if (buffer.capacity() <= MAX_READ_BUFFER) {
+                READ_BUFFER.set(buffer);
+            }
+        }
+        for (int attempt = 0; ; attempt++) {
+            FileChannel channel = readChannel(fileIndex, cold);
+            ((Buffer) buffer).clear();
+            ((Buffer) buffer).limit(len);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, pos + buffer.position()) < 0) {
+                        throw new EOFException(this.genFilePath(fileIndex, cold) + " 在偏移量 " + pos + " 处不完整");
+                    }
+                }
+                break;
+            } catch (ClosedChannelException e) {
+                //读线程被中断时会关闭共用的句柄，丢弃它，其他线程重新打开
+                readChannels.remove(fileIndex, channel);
+                if (e instanceof ClosedByInterruptException || attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+        ((Buffer) buffer).flip();
+        if (cold) {
+            return ByteBuffer.wrap(BlockTable.inflate(Arrays.copyOf(buffer.array(), len), true));
+        }
+        return buffer;
+    }
+
+    private FileChannel readChannel(int fileIndex, boolean cold) throws IOException {
+        FileChannel channel = readChannels.get(fileIndex);
+        if (channel == null) {
+            FileChannel opened = FileChannel.open(new File(this.genFilePath(fileIndex, cold)).toPath(), StandardOpenOption.READ);
+            channel = readChannels.putIfAbsent(fileIndex, opened);
+            if (channel == null) {
+                channel = opened;
+            } else {
+                opened.close();
+            }
+        }
+        return channel;
+    }
+
+    //数据文件删除之前关闭它的只读句柄，调用方需持有写锁，保证没有读线程正在使用
+    private void closeReadChannel(int fileIndex) {
+        FileChannel channel = readChannels.remove(fileIndex);
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "closeReadChannel", e.getMessage());
+            }
+        }
+    }
+
+    //统计冷数据和已迁回数据的读取次数，跟踪的 key 数量有上限，超过后不再加入新的 key
+    private void recordTierRead(String key) {
+        if (promoteReads <= 0) {
+            return;
+        }
+        Map<String, Integer> reads = tierReads;
+        if (reads.size() < MAX_TRACKED_COLD_READS || reads.containsKey(key)) {
+            reads.merge(key, 1, Integer::sum);
+        }
+    }
+
+    //有序块中的记录：冷存储文件的块是压缩的，只能按块读取，位置指向整个块，从记录所属的重启点开始解码；
+    //其余有序块文件中的位置直接指向记录本身，点查只读这一条记录，key 由调用方提供
+    private boolean wholeBlock(int fileIndex, int blockEntry) {
+        return blockEntry >= 0 && manifest.isCold(fileIndex);
+    }
+
+    //把按位置读出的 bytes 的前 len 个字节还原成命令
+    private Command decodeCommand(String key, int fileIndex, int blockEntry, byte[] bytes, int len) {
+        if (blockEntry < 0) {
+            return RecordCodec.decode(bytes, 0, len, null);
+        }
+        long seqFloor = manifest.getIngestSeq(fileIndex);
+        if (!wholeBlock(fileIndex, blockEntry)) {
+            return withSeqFloor(RecordCodec.decode(bytes, 0, len, key), seqFloor);
+        }
+        Command[] command = new Command[1];
+        BlockTable.readEntry(bytes, len, blockEntry, (entry, k, record) -> command[0] = blockCommand(key, record));
+        return withSeqFloor(command[0], seqFloor);
+    }
+
+    //有序块中的记录是不带 key 的命令，key 由块内的前缀编码单独保存
+    static byte[] blockRecord(Command command) {
+        return RecordCodec.encode(command, false);
+    }
+
+    private static Command blockCommand(String key, byte[] record) {
+        return RecordCodec.decode(record, 0, record.length, key);
+    }
+
+    //批量导入的文件中的记录不带序列号，读出时把序列号提高到 MANIFEST 中记录的整批序列号，seqFloor 为 0 时不变
+    private static Command withSeqFloor(Command command, long seqFloor) {
+        if (seqFloor > 0 && command != null && ((AbstractCommand) command).getSeq() < seqFloor) {
+            ((AbstractCommand) command).setSeq(seqFloor);
+        }
+        return command;
+    }
+
+    //固定了序列号的只读视图，只能看到序列号不大于 seq 的版本，读取时只短暂持有读锁，不会阻塞写入
+    public class NormalSnapshot implements Snapshot {
+        private final long seq;
+        private boolean closed;
+
+        private NormalSnapshot(long seq) {
+            this.seq = seq;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        @Override
+        public String get(String key) {
+            indexLock.readLock().lock();
+            try {
+                checkOpen();
+                return readValue(key, visibleVersion(key, seq), System.currentTimeMillis());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                indexLock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void scan(BiConsumer<String, String> consumer) {
+            Set<String> keys;
+            indexLock.readLock().lock();
+            try {
+                checkOpen();
+                keys = new HashSet<>(index.keys());
+                keys.addAll(history.keySet());
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            for (String key : keys) {
+                String value = get(key);
+                if (value != null) {
+                    consumer.accept(key, value);
+                }
+            }
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("快照已关闭");
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                releaseSnapshot(seq);
+            }
+        }
+    }
+
+    //注册已提交操作的监听者，监听者在写锁内被调用，不能执行耗时操作
+    public void addWalListener(Consumer<WALEntry> listener) {
+        walListeners.add(listener);
+    }
+
+    public void removeWalListener(Consumer<WALEntry> listener) {
+        walListeners.remove(listener);
+    }
+
+    //没有监听者时不创建 WALEntry
+    private void notifyWalListeners(String commandType, String key, String value, long expireAt, long seq, ValuePointer pointer) {
+        if (walListeners.isEmpty()) {
+            return;
+        }
+        WALEntry entry = new WALEntry(commandType, key, value, expireAt);
+        entry.setSeq(seq);
+        entry.setValuePointer(pointer);
+        notifyWalListeners(entry);
+    }
+
+    private void notifyWalListeners(WALEntry entry) {
+        for (Consumer<WALEntry> listener : walListeners) {
+            try {
+                listener.accept(entry);
+            } catch (RuntimeException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "notifyWalListeners", e.getMessage());
+            }
+        }
+    }
+
+    //关闭存储对象，关闭前将内存表落盘，下次启动无需回放
+    @Override
+    public void close() throws IOException {
+        Thread compaction;
+        synchronized (compactionLock) {
+            closing = true;
+            compaction = compactionThread;
+        }
+        expireScheduler.shutdownNow();
+        if (indexLoaderThread != null) {
+            try {
+                indexLoaderThread.join();   //后台加载在当前文件合并完之后退出
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        //等待后台压缩和值日志回收结束，避免它们写入已经关闭的文件
+        if (compaction != null) {
+            try {
+                compaction.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        commitLock.lock();
+        indexLock.writeLock().lock();
+        try {
+            if (!memTable.isEmpty()) {
+                writeToDisk();
+            }
+            if (bitcask) {
+                writeHint();   //正常关闭后下次启动只需读提示文件
+                VersionEdit edit = new VersionEdit();
+                edit.setLastSeq(lastSeq);
+                manifest.log(edit);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+            commitLock.unlock();
+        }
+        writeBufferManager.unregister(writeBufferConsumer);
+        manifest.close();
+        for (int fileIndex : readChannels.fileIndexes()) {
+            closeReadChannel(fileIndex);
+        }
+        writerReader.close();
+        valueLog.close();
+        synchronized (walLock) {
+            if (walFile != null) {
+                walFile.close();
+            }
+        }
+    }
+
+    //推进时间轮，主动从内存表和索引中淘汰过期的 key，不写删除标记
+    private void expireKeys() {
+        try {
+            List<TimingWheel.TimerEntry> expired = timingWheel.advance(System.currentTimeMillis());
+            if (expired.isEmpty()) {
+                return;
+            }
+            indexLock.writeLock().lock();
+            try {
+                for (TimingWheel.TimerEntry entry : expired) {
+                    evict(entry.getKey(), entry.getExpireAt());
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        } catch (Throwable t) {
+            LoggerUtil.error(LOGGER, t, logFormat, "expireKeys", t.getMessage());
+        }
+    }
+
+    //只淘汰与这一次写入匹配的数据，避免误删之后重新 set 的新值，调用方需持有写锁
+    private void evict(String key, long expireAt) {
+        CommandPos cmdPos = index.get(key);
+        if (cmdPos != null && cmdPos.getExpireAt() == expireAt) {
+            retainVersion(key, index.remove(key), null);   //快照仍能看到这个已过期的版本，不会退回更旧的值
+            cmdPos = null;
+        }
+        Command command = memTable.get(key);
+        //磁盘上还有旧值时保留内存表中的过期数据，落盘后由它遮住旧值
+        if (command instanceof SetCommand && ((SetCommand) command).getExpireAt() == expireAt && cmdPos == null
+                && (indexLoader == null || indexLoader.isResolved(key))) {
+            removeMemTable(key);
+        }
+    }
+
+    //写入内存表并按字节计入写缓冲预算，调用方需持有写锁
+    private void putMemTable(Command command) {
+        long size = memSize(command);
+        Command old = memTable.put(command.getKey(), command);
+        if (old != null) {
+            size -= memSize(old);
+        }
+        memTableBytes += size;
+        writeBufferManager.reserve(size);
+    }
+
+    private void removeMemTable(String key) {
+        Command old = memTable.remove(key);
+        if (old != null) {
+            long size = memSize(old);
+            memTableBytes -= size;
+            writeBufferManager.free(size);
+        }
+    }
+
+    private void clearMemTable() {
+        memTable.clear();
+        writeBufferManager.free(memTableBytes);
+        memTableBytes = 0;
+    }
+
+    //估算一条命令在内存表中占用的字节数，字符串按每个字符 2 字节计算
+    private static long memSize(Command command) {
+        long size = MEM_ENTRY_OVERHEAD + 2L * command.getKey().length();
+        if (command instanceof SetCommand && ((SetCommand) command).getValue() != null) {
+            size += 2L * ((SetCommand) command).getValue().length();
+        }
+        return size;
+    }
+
+    //内存表达到字节上限，或者所有内存表合计超出预算时落盘，落盘后判断是否需要切换数据文件，调用方需持有写锁
+    private void flushIfNeeded() throws IOException {
+        if (bitcask) {
+            if (writerReader.length() >= targetFileSize) {
+                rotateIfNeeded();
+            }
+            return;
+        }
+        WriteBufferManager.Consumer victim = memTableBytes >= writeBufferSize ? writeBufferConsumer : writeBufferManager.flushVictim();
+        if (victim == writeBufferConsumer) {
+            writeToDisk();
+            rotateIfNeeded();   //自动 rotate
+        } else if (victim != null) {
+            victim.requestFlush();   //共用预算的其他实例占用最多，由它自己的后台线程落盘，这里不获取它的锁
+        }
+    }
+
+    //在后台线程中把内存表落盘，同一时间最多提交一次
+    private void scheduleFlush() {
+        if (closing || !flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            expireScheduler.execute(() -> {
+                flushScheduled.set(false);
+                commitLock.lock();
+                indexLock.writeLock().lock();
+                try {
+                    if (!closing && !memTable.isEmpty()) {
+                        writeToDisk();
+                        rotateIfNeeded();
+                    }
+                } catch (Throwable t) {
+                    LoggerUtil.error(LOGGER, t, logFormat, "scheduleFlush", t.getMessage());
+                } finally {
+                    indexLock.writeLock().unlock();
+                    commitLock.unlock();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            flushScheduled.set(false);   //已经关闭，关闭时会把内存表落盘
+        }
+    }
+
+    //将内存表中的数据追加到当前数据文件并刷盘，同时更新索引，完成后写入 WAL检查点，调用方需持有 commitLock 和写锁
+    private void writeToDisk() {
+        MemTableFlushEvent event = new MemTableFlushEvent();
+        event.begin();
+        try {
+            long now = System.currentTimeMillis();
+            long startPos = writerReader.length();
+            int size = memTable.size();
+            if (flushLengths.length < size) {
+                flushPositions = new int[size];
+                flushLengths = new int[size];
+                flushPointers = new ValuePointer[size];
+            }
+            //第一遍按顺序编码进缓冲区，写满时整块写出，每条命令的位置记在复用的数组里
+            FileChannel channel = writerReader.getChannel();
+            ensureDataBuffer(FLUSH_BUFFER_SIZE);
+            ByteBuffer buffer = dataBuffer;
+            ((Buffer) buffer).clear();
+            long writePos = startPos;
+            int i = 0;
+            int flushed = 0;
+            for (Command command : memTable.values()) {
+                boolean deleted = command instanceof RmCommand
+                        || (command instanceof SetCommand && ((SetCommand) command).isExpired(now));
+                if (deleted && !index.containsKey(command.getKey())
+                        && (indexLoader == null || indexLoader.isResolved(command.getKey()))) {
+                    flushLengths[i++] = -1;
+                    continue;   //磁盘上没有旧值，删除标记和过期数据无需落盘；快速启动时尚未加载的 key 可能在旧文件中，仍要落盘
+                }
+                String value = null;
+                ValuePointer pointer = null;
+                if (!deleted) {
+                    value = ((SetCommand) command).getValue();
+                    pointer = ((SetCommand) command).getValuePointer();
+                    if (value != null && CommandUtil.utf8Length(value) >= valueThreshold) {   //阈值是字节数，按 UTF-8 编码后的长度比较
+                        pointer = valueLog.append(command.getKey(), value);   //大 value 写入值日志，数据文件中只记录指针
+                        value = null;
+                    }
+                }
+                int maxLen = 4 + (deleted ? RecordCodec.maxRmLength(command.getKey()) : RecordCodec.maxSetLength(command.getKey(), value));
+                if (buffer.remaining() < maxLen) {
+                    writePos = writeFully(channel, buffer, writePos);
+                    ensureDataBuffer(maxLen);
+                    buffer = dataBuffer;
+                    ((Buffer) buffer).clear();
+                }
+                //带长度前缀写入磁盘文件
+                int start = buffer.position();
+                ((Buffer) buffer).position(start + 4);
+                long seq = ((AbstractCommand) command).getSeq();
+                if (deleted) {
+                    RecordCodec.putRm(buffer, command.getKey(), seq);
+                } else {
+                    RecordCodec.putSet(buffer, command.getKey(), value, ((SetCommand) command).getExpireAt(), seq, pointer);
+                }
+                int len = buffer.position() - start - 4;
+                buffer.putInt(start, len);
+                flushPositions[i] = deleted ? -1 : (int) (writePos + start + 4);
+                flushLengths[i] = len;
+                flushPointers[i] = pointer;
+                i++;
+                flushed++;
+            }
+            writeFully(channel, buffer, writePos);
+            valueLog.sync();   //值日志先于引用它的数据文件刷盘
+            writerReader.getFD().sync();   //数据文件刷盘之后才能写检查点
+            //第二遍按同样的顺序更新索引，内存表在写锁下没有变化
+            i = 0;
+            for (Command command : memTable.values()) {
+                int len = flushLengths[i];
+                int pos = flushPositions[i];
+                ValuePointer pointer = flushPointers[i];
+                flushPointers[i++] = null;
+                if (len < 0) {
+                    continue;
+                }
+                String key = command.getKey();
+                if (indexLoader != null) {
+                    indexLoader.resolve(key);   //落盘的版本比所有还没合并的文件都新
+                }
+                long seq = ((AbstractCommand) command).getSeq();
+                CommandPos old = snapshots.isEmpty() ? null : index.get(key);   //没有快照时不保留旧版本，不必复制
+                if (pos < 0) {
+                    index.delete(key);
+                    if (!snapshots.isEmpty()) {
+                        retainVersion(key, old, CommandPos.deletedAt(seq));
+                    }
+                } else {
+                    index.put(key, currentFileIndex, pos, len, -1, ((SetCommand) command).getExpireAt(), seq, pointer);
+                    retainVersion(key, old, null);
+                }
+            }
+            clearMemTable();   //清空内存表中的数据，在将数据持久化到磁盘后，及时释放内存资源
+            checkpointWAL();
+            event.end(currentFileIndex, flushed, writerReader.length() - startPos);
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    //把缓冲区中已经编码的内容写到 writePos，返回写完之后的位置，缓冲区清空
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long writePos) throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            writePos += channel.write(buffer, writePos);
+        }
+        ((Buffer) buffer).clear();
+        return writePos;
+    }
+
+    //达到文件阈值之后，创建新文件，防止单个文件过大
+    private void rotateIfNeeded() throws IOException {
+        File currentFile = new File(this.genFilePath());
+        //判断文件是否达到阈值
+        if (currentFile.length() >= targetFileSize) {
+            FileRotationEvent event = new FileRotationEvent();
+            event.begin();
+            int sealedFile = currentFileIndex;
+            writeHint();
+            if (writerReader != null) {   //对象不为空则关闭句柄，确保之前的文件得到关闭
+                writerReader.close();
+            }
+            currentFileIndex = manifest.allocateFileIndex();   //分配新的文件编号，生成下一个文件路径
+            String newFilePath = this.genFilePath();
+            File newFile = new File(newFilePath);
+            if (!newFile.exists()){
+                newFile.createNewFile();
+            }
+            writerReader = new RandomAccessFile(this.genFilePath(), RW_MODE);  //创建一个新的句柄，写入下一个文件
+            logNewFile(currentFileIndex);
+            event.end(sealedFile, currentFileIndex, currentFile.length());
+            rmDuplicate(currentFileIndex);   //文件切换的同时对已封存的文件进行压缩
+        }
+    }
+
+    //在后台线程中合并所有已封存的文件：只保留索引仍然指向的数据，丢弃被覆盖的旧值、删除标记和已过期的数据
+    private void rmDuplicate(int activeFileIndex) {
+        if (indexLoader != null) {
+            return;   //压缩按索引判断数据是否有效，索引加载完之前不能压缩
+        }
+        synchronized (compactionLock) {
+            if (closing || !compacting.compareAndSet(false, true)) {
+                return;   //上一次压缩还没结束，等下一次文件切换再压缩
+            }
+            compactionThread = new Thread(new Runnable() {   //新建一个线程
+                @Override
+                public void run() {
+                    try {
+                        compact(activeFileIndex);
+                        collectValueLog();
+                    } catch (Throwable t) {
+                        LoggerUtil.error(LOGGER, t, logFormat, "rmDuplicate", t.getMessage());
+                    } finally {
+                        rateLimiter.autoTune(NormalStore.this, 0);   //积压已经处理完，不再拉高共用的速率
+                        compacting.set(false);
+                    }
+                }
+            });
+            compactionThread.start();
+        }
+    }
+
+    //每次只合并数据目录中已封存的文件，冷存储不参与；冷存储中失效记录的比例达到 COLD_COMPACTION_RATIO 时再单独合并一次
+    private void compact(int activeFileIndex) throws IOException {
+        //MANIFEST 中排在 activeFileIndex 之前的文件都已封存
+        List<Integer> liveFiles = manifest.getLiveFiles();
+        int activePos = liveFiles.indexOf(activeFileIndex);
+        List<Integer> sealed = new ArrayList<>();
+        boolean hasCold = false;
+        for (int fileIndex : liveFiles.subList(0, activePos < 0 ? 0 : activePos)) {
+            if (manifest.isCold(fileIndex)) {
+                hasCold = true;
+            } else {
+                sealed.add(fileIndex);
+            }
+        }
+        if (!sealed.isEmpty()) {
+            compactFiles(sealed, false, hasCold);
+        }
+        List<Integer> coldFiles = new ArrayList<>();
+        for (int fileIndex : manifest.getLiveFiles()) {
+            if (manifest.isCold(fileIndex)) {
+                coldFiles.add(fileIndex);
+            }
+        }
+        if (!coldFiles.isEmpty() && coldGarbageRatio(coldFiles) >= COLD_COMPACTION_RATIO) {
+            compactFiles(coldFiles, true, false);
+        }
+    }
+
+    //冷存储中失效记录所占的比例：每个文件的记录总数只统计一次，仍然有效的记录按索引和快照引用的历史版本计算
+    private double coldGarbageRatio(List<Integer> coldFiles) throws IOException {
+        long total = 0;
+        for (int fileIndex : coldFiles) {
+            Integer count = coldRecordCounts.get(fileIndex);
+            if (count == null) {
+                count = 0;
+                try (BlockTable.Reader reader = new BlockTable.Reader(new File(this.genFilePath(fileIndex)))) {
+                    while (reader.next()) {
+                        count++;
+                    }
+                }
+                coldRecordCounts.put(fileIndex, count);
+            }
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long live = 0;
+        indexLock.readLock().lock();
+        try {
+            live += index.count(manifest::isCold);
+            for (List<CommandPos> versions : history.values()) {
+                for (CommandPos version : versions) {
+                    if (!version.isDeleted() && manifest.isCold(version.getFileIndex())) {
+                        live++;
+                    }
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return 1.0 - (double) live / total;
+    }
+
+    //合并一组文件：coldTier 为 true 时合并的是冷存储，结果整体留在冷存储；
+    //olderOutside 为 true 时还有更旧的文件（冷存储）不在合并范围内，删除标记遮住的可能是那里的数据，不能丢弃
+    private void compactFiles(List<Integer> sealed, boolean coldTier, boolean olderOutside) throws IOException {
+        CompactionEvent event = new CompactionEvent();
+        event.begin();
+        //合并结果写入新编号的文件，在 MANIFEST 中替换被合并文件的位置，提交之前崩溃时不会被加载
+        int targetIndex = manifest.allocateFileIndex();
+        RateLimiter limiter = rateLimiter;
+        long pendingBytes = 0;
+        for (int fileIndex : sealed) {
+            pendingBytes += new File(this.genFilePath(fileIndex)).length();
+        }
+        limiter.autoTune(this, pendingBytes);   //积压越多，压缩越快
+        Map<String, Integer> reads = coldTier ? Collections.<String, Integer>emptyMap() : tierReads;
+        if (!coldTier) {
+            tierReads = new ConcurrentHashMap<>();   //访问统计按压缩周期重新开始
+        }
+        Set<String> wasPromoted = promotedKeys;
+
+        //每个被合并的文件是一路按 key 有序的输入，多路归并后按 key 顺序写出，内存中只有每一路当前的块和同一个 key 的各个版本
+        //需要更新的索引位置先写入临时文件，安装时顺序读取
+        File movesFile = new File(this.dataDir + File.separator + COMPACT + targetIndex + COMPACT_MOVES);
+        List<CompactionRun> runs = new ArrayList<>();
+        CompactionOutput target = null;
+        CompactionOutput cold = null;
+        DataOutputStream moves = null;
+        int movedCount = 0;
+        int droppedCount = 0;
+        try {
+            PriorityQueue<CompactionRun> queue = new PriorityQueue<>();
+            for (int i = 0; i < sealed.size(); i++) {
+                CompactionRun run = openRun(sealed.get(i), i, targetIndex);
+                runs.add(run);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            if (!coldTier && coldDir != null && promoteReads > 0) {
+                CompactionRun run = promotedRun(reads, wasPromoted);
+                runs.add(run);
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            moves = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(movesFile)));
+            target = new CompactionOutput(targetIndex, coldTier, moves, limiter);
+            //分层时最近写入的 key 和被频繁读取的冷数据留在数据目录，其余的 key 迁移到冷存储目录
+            //迁回的 key 在之后的压缩周期中只要还被读过就继续留在数据目录，否则重新按写入时间分层
+            //同一个 key 的所有版本放在同一层，新的冷存储文件排在已有的冷存储文件之后、热文件之前，保证较新的版本在较新的文件中
+            long hotSince = lastSeq - hotWrites;
+            Set<String> promoted = new HashSet<>();
+            List<CompactionRecord> versions = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            while (!queue.isEmpty()) {
+                //同一个 key 的版本按文件从旧到新、文件内按写入顺序依次出队
+                versions.clear();
+                byte[] keyBytes = queue.peek().current.keyBytes;
+                while (!queue.isEmpty() && Arrays.equals(queue.peek().current.keyBytes, keyBytes)) {
+                    CompactionRun run = queue.poll();
+                    versions.add(run.current);
+                    if (run.advance()) {
+                        queue.add(run);
+                    }
+                }
+                String key = versions.get(0).key;
+                boolean keepHot = coldDir == null;
+                List<CompactionRecord> kept = new ArrayList<>(versions.size());
+                for (int i = 0; i < versions.size(); i++) {
+                    CompactionRecord record = versions.get(i);
+                    Command command = record.command;
+                    boolean deleted = command instanceof RmCommand
+                            || (command instanceof SetCommand && ((SetCommand) command).isExpired(now));
+                    //所有更旧的数据都在本次合并范围内时删除标记和过期数据都可以直接丢弃，否则只保留最新的一条
+                    if (deleted && !hasHistory(key) && (!olderOutside || i < versions.size() - 1)) {
+                        writeMove(moves, record, null);
+                        droppedCount++;
+                        continue;
+                    }
+                    if (!deleted && !isLive(key, record.from)) {
+                        continue;   //已被覆盖、也不再被任何快照引用的旧值
+                    }
+                    //快照保留的旧版本也会写入合并结果，删除标记和过期数据要跟着保留，否则重启后旧版本会复活
+                    kept.add(record);
+                    if (record.from.getSeq() > hotSince) {
+                        keepHot = true;
+                    }
+                }
+                if (kept.isEmpty()) {
+                    continue;
+                }
+                if (coldDir != null && !coldTier) {
+                    Integer readCount = reads.get(key);
+                    if (promoteReads > 0 && readCount != null && (readCount >= promoteReads || wasPromoted.contains(key))) {
+                        promoted.add(key);
+                        keepHot = true;
+                    }
+                }
+                if (!coldTier && !keepHot && cold == null) {
+                    cold = new CompactionOutput(manifest.allocateFileIndex(), true, moves, limiter);
+                }
+                CompactionOutput output = coldTier || keepHot ? target : cold;
+                for (CompactionRecord record : kept) {
+                    output.add(record);
+                }
+                movedCount += kept.size();
+            }
+            if (coldDir != null && !coldTier) {
+                promotedKeys = promoted;
+            }
+            target.finish();
+            if (cold != null) {
+                cold.finish();
+            }
+            moves.close();
+        } catch (Throwable t) {
+            if (moves != null) {
+                moves.close();
+            }
+            if (target != null) {
+                target.abort();
+            }
+            if (cold != null) {
+                cold.abort();
+            }
+            movesFile.delete();
+            throw t;
+        } finally {
+            for (CompactionRun run : runs) {
+                run.close();
+            }
+        }
+
+        //提交 MANIFEST 编辑，然后更新索引和快照引用的历史版本，最后删除被合并的文件
+        VersionEdit edit = new VersionEdit();
+        edit.setRemovedFiles(sealed);
+        if (cold != null) {
+            edit.setAddedFiles(Arrays.asList(cold.fileIndex, targetIndex));
+            edit.setColdFiles(Collections.singletonList(cold.fileIndex));
+        } else {
+            edit.setAddedFiles(Collections.singletonList(targetIndex));
+            if (coldTier) {
+                edit.setColdFiles(Collections.singletonList(targetIndex));
+            }
+        }
+        edit.setNextFileIndex(Math.max(targetIndex, cold != null ? cold.fileIndex : -1) + 1);
+        indexLock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(movesFile)))) {
+            List<String> deletePaths = new ArrayList<>();
+            for (int fileIndex : sealed) {
+                deletePaths.add(this.genFilePath(fileIndex));   //提交之后被合并的文件不再出现在 MANIFEST 中，先记下路径
+            }
+            manifest.log(edit);
+            for (int i = 0; i < movedCount + droppedCount; i++) {
+                readMove(in);
+            }
+            for (String path : deletePaths) {
+                new File(path).delete();
+            }
+            for (int fileIndex : sealed) {
+                closeReadChannel(fileIndex);
+                new File(this.genHintPath(fileIndex)).delete();
+                coldRecordCounts.remove(fileIndex);
+            }
+            if (coldTier) {
+                coldRecordCounts.put(targetIndex, target.count);
+            } else if (cold != null) {
+                coldRecordCounts.put(cold.fileIndex, cold.count);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+            movesFile.delete();
+        }
+        long bytesOut = target.file.length() + (cold != null ? cold.file.length() : 0);
+        event.end(String.valueOf(sealed), targetIndex, pendingBytes, bytesOut, movedCount, droppedCount);
+        LoggerUtil.debug(LOGGER, logFormat, "compact", (coldTier ? "合并冷存储文件 " : "合并文件 ") + sealed + " -> " + targetIndex
+                + (cold != null ? "，冷存储 " + cold.fileIndex + "（" + cold.count + " 条）" : ""));
+    }
+
+    //压缩时读出的一条记录和它在被合并文件中的位置，写出后 to 为新位置
+    private static class CompactionRecord {
+        private final byte[] keyBytes;
+        private final String key;
+        private final CommandPos from;
+        private final Command command;
+        private CommandPos to;
+
+        CompactionRecord(byte[] keyBytes, String key, CommandPos from, Command command) {
+            this.keyBytes = keyBytes;
+            this.key = key;
+            this.from = from;
+            this.command = command;
+        }
+    }
+
+    //一路有序输入：按 key 的 UTF-8 字节序从小到大逐条读出，同一个 key 按写入顺序；key 相同时排在前面的文件先出队
+    private static class CompactionRun implements Comparable<CompactionRun>, Closeable {
+        private final int fileIndex;
+        private final int order;   //在被合并文件中的顺序，越小越旧
+        private final BlockTable.Reader reader;
+        private final File spilled;   //单次写入的数据文件排序后的临时文件，直接读取有序块文件时为空
+        private final Iterator<CompactionRecord> records;   //已经在内存中排好序的输入，按文件读取时为空
+        private final long seqFloor;   //批量导入的文件中记录的序列号下限，见 withSeqFloor
+        private CompactionRecord current;
+
+        CompactionRun(int fileIndex, int order, BlockTable.Reader reader, File spilled, long seqFloor) {
+            this.fileIndex = fileIndex;
+            this.order = order;
+            this.reader = reader;
+            this.spilled = spilled;
+            this.records = null;
+            this.seqFloor = seqFloor;
+        }
+
+        CompactionRun(int order, List<CompactionRecord> sorted) {
+            this.fileIndex = -1;
+            this.order = order;
+            this.reader = null;
+            this.spilled = null;
+            this.records = sorted.iterator();
+            this.seqFloor = 0L;
+        }
+
+        boolean advance() throws IOException {
+            if (records != null) {
+                current = records.hasNext() ? records.next() : null;
+                return current != null;
+            }
+            if (!reader.next()) {
+                current = null;
+                return false;
+            }
+            byte[] keyBytes = reader.key();
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            if (spilled == null) {
+                Command command = withSeqFloor(blockCommand(key, reader.record()), seqFloor);
+                current = new CompactionRecord(keyBytes, key, blockPosition(fileIndex, reader, command), command);
+                return true;
+            }
+            //临时文件中的记录前面是它在原文件中的 [int 位置][int 长度]
+            ByteBuffer record = ByteBuffer.wrap(reader.record());
+            int pos = record.getInt();
+            int len = record.getInt();
+            Command command = blockCommand(key, Arrays.copyOfRange(record.array(), 8, record.limit()));
+            current = new CompactionRecord(keyBytes, key, recordPosition(fileIndex, pos, len, command), command);
+            return true;
+        }
+
+        @Override
+        public int compareTo(CompactionRun other) {
+            int cmp = SortedFileWriter.compareKeys(current.keyBytes, other.current.keyBytes);
+            return cmp != 0 ? cmp : Integer.compare(order, other.order);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+            if (spilled != null) {
+                spilled.delete();
+            }
+        }
+    }
+
+    //这次要迁回数据目录的冷数据：索引仍指向冷存储、读取次数达到 promoteReads 的 key，按 key 排序后作为最旧的一路输入
+    //写进热数据文件之后，冷存储中的原记录成为失效数据，由冷存储的合并回收
+    private CompactionRun promotedRun(Map<String, Integer> reads, Set<String> wasPromoted) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<CommandPos> positions = new ArrayList<>();
+        indexLock.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entry : reads.entrySet()) {
+                if (entry.getValue() < promoteReads && !wasPromoted.contains(entry.getKey())) {
+                    continue;
+                }
+                CommandPos cmdPos = index.get(entry.getKey());
+                if (cmdPos != null && manifest.isCold(cmdPos.getFileIndex())) {
+                    keys.add(entry.getKey());
+                    positions.add(cmdPos);
+                }
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        List<CompactionRecord> records = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            CommandPos cmdPos = positions.get(i);
+            ByteBuffer stored = readStored(cmdPos.getFileIndex(), cmdPos.getPos(), cmdPos.getLen());
+            Command command = decodeCommand(key, cmdPos.getFileIndex(), cmdPos.getBlockEntry(), stored.array(), stored.limit());
+            records.add(new CompactionRecord(key.getBytes(StandardCharsets.UTF_8), key, cmdPos, command));
+        }
+        records.sort((a, b) -> SortedFileWriter.compareKeys(a.keyBytes, b.keyBytes));
+        return new CompactionRun(-1, records);
+    }
+
+    //有序块文件直接按块读取；单次写入的数据文件按写入顺序存放，先按 key 排序写成临时的有序块文件
+    //一次只排序一个文件，内存占用不超过单个数据文件的大小；排序是稳定的，同一个 key 的多个版本仍然按写入顺序排列
+    private CompactionRun openRun(int fileIndex, int order, int targetIndex) throws IOException {
+        File file = new File(this.genFilePath(fileIndex));
+        if (BlockTable.isBlockFile(file)) {
+            return new CompactionRun(fileIndex, order, new BlockTable.Reader(file), null, manifest.getIngestSeq(fileIndex));
+        }
+        List<CompactionRecord> records = new ArrayList<>();
+        forEachRecord(fileIndex, (cmdPos, command) ->
+                records.add(new CompactionRecord(command.getKey().getBytes(StandardCharsets.UTF_8), command.getKey(), cmdPos, command)));
+        records.sort((a, b) -> SortedFileWriter.compareKeys(a.keyBytes, b.keyBytes));
+        File spilled = new File(this.dataDir + File.separator + COMPACT + targetIndex + "-" + fileIndex + COMPACT_RUN);
+        try (FileOutputStream fos = new FileOutputStream(spilled)) {
+            BlockTable.Writer writer = new BlockTable.Writer(new BufferedOutputStream(fos), (pos, len) -> { });
+            for (CompactionRecord record : records) {
+                byte[] encoded = blockRecord(record.command);
+                ByteBuffer buffer = ByteBuffer.allocate(8 + encoded.length);
+                buffer.putInt(record.from.getPos()).putInt(record.from.getLen()).put(encoded);
+                writer.add(record.keyBytes, buffer.array());
+            }
+            writer.finish();
+        } catch (IOException e) {
+            spilled.delete();
+            throw e;
+        }
+        return new CompactionRun(fileIndex, order, new BlockTable.Reader(spilled), spilled, 0L);
+    }
+
+    //一个压缩结果文件：记录按顺序写成有序块，compressed 为 true 时块内容压缩后写出（冷存储）
+    //每条记录的新旧位置在所在的块写完之后写入 moves，压缩的块写完之后才知道块的长度
+    private class CompactionOutput {
+        private final int fileIndex;
+        private final File file;
+        private final boolean compressed;
+        private final FileOutputStream fos;
+        private final BlockTable.Writer writer;
+        private final RateLimiter limiter;
+        private final List<CompactionRecord> blockPending = new ArrayList<>();   //当前块中的记录
+        private int count;
+
+        CompactionOutput(int fileIndex, boolean compressed, DataOutputStream moves, RateLimiter limiter) throws IOException {
+            this.fileIndex = fileIndex;
+            this.file = new File(genFilePath(fileIndex, compressed));
+            this.compressed = compressed;
+            this.limiter = limiter;
+            this.fos = new FileOutputStream(file);
+            this.writer = new BlockTable.Writer(new BufferedOutputStream(fos), (pos, len) -> {
+                for (CompactionRecord record : blockPending) {
+                    if (compressed) {
+                        record.to.setLen(len);
+                    }
+                    writeMove(moves, record, record.to);
+                }
+                blockPending.clear();
+            }, compressed);
+        }
+
+        void add(CompactionRecord record) throws IOException {
+            byte[] encoded = blockRecord(record.command);
+            int entry = writer.add(record.keyBytes, encoded);
+            limiter.acquire(encoded.length);   //在锁外限速，不影响前台读写
+            CommandPos to = compressed
+                    ? new CommandPos(fileIndex, writer.blockPos(), 0, record.from.getExpireAt(), record.from.getSeq())
+                    : new CommandPos(fileIndex, writer.recordPos(), encoded.length, record.from.getExpireAt(), record.from.getSeq());
+            to.setBlockEntry(entry);
+            record.to = to;
+            blockPending.add(record);
+            count++;
+        }
+
+        void finish() throws IOException {
+            try {
+                writer.finish();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+        }
+
+        //压缩失败时删除没有提交的结果
+        void abort() {
+            try {
+                fos.close();
+            } catch (IOException e) {
+                LoggerUtil.error(LOGGER, e, logFormat, "abort", e.getMessage());
+            }
+            file.delete();
+        }
+    }
+
+    //位置变化记录：[int key 长度][key][int 旧文件][int 旧位置][int 旧块内序号][boolean 是否保留]，保留时接着是 [int 新文件][int 新位置][int 新长度][int 新块内序号]
+    private static void writeMove(DataOutputStream moves, CompactionRecord record, CommandPos to) throws IOException {
+        moves.writeInt(record.keyBytes.length);
+        moves.write(record.keyBytes);
+        moves.writeInt(record.from.getFileIndex());
+        moves.writeInt(record.from.getPos());
+        moves.writeInt(record.from.getBlockEntry());
+        moves.writeBoolean(to != null);
+        if (to != null) {
+            moves.writeInt(to.getFileIndex());
+            moves.writeInt(to.getPos());
+            moves.writeInt(to.getLen());
+            moves.writeInt(to.getBlockEntry());
+        }
+    }
+
+    //读出一条位置变化并更新索引和快照引用的历史版本，调用方需持有写锁
+    private void readMove(DataInputStream moves) throws IOException {
+        byte[] key = new byte[moves.readInt()];
+        moves.readFully(key);
+        CommandPos from = new CommandPos(moves.readInt(), moves.readInt(), 0, 0L);
+        from.setBlockEntry(moves.readInt());
+        CommandPos to = null;
+        if (moves.readBoolean()) {
+            to = new CommandPos(moves.readInt(), moves.readInt(), moves.readInt(), 0L);
+            to.setBlockEntry(moves.readInt());
+        }
+        relocate(new String(key, StandardCharsets.UTF_8), from, to);
+    }
+
+    //值日志垃圾回收：逐个检查已封存的值日志文件，失效数据足够多时把仍然有效的 value 复制到当前值日志，
+    //同时追加一条指向新位置的数据记录并更新索引，然后删除整个旧文件
+    //有快照时跳过，快照引用的历史版本可能指向这些文件
+    public void collectValueLog() throws IOException {
+        if (indexLoader != null) {
+            return;   //按索引判断值日志中的数据是否有效，索引加载完之前不能回收
+        }
+        for (int fileIndex : valueLog.sealedFileIndexes()) {
+            List<String> liveKeys = new ArrayList<>();
+            List<ValuePointer> livePointers = new ArrayList<>();
+            AtomicBoolean pinned = new AtomicBoolean(false);
+            long liveBytes = 0;
+            long totalBytes;
+            indexLock.readLock().lock();
+            try {
+                if (!snapshots.isEmpty()) {
+                    return;
+                }
+                totalBytes = valueLog.forEachRecord(fileIndex, (key, pointer) -> {
+                    CommandPos head = index.get(key);
+                    if (head != null && pointer.samePlace(head.getValuePointer())) {
+                        liveKeys.add(key);
+                        livePointers.add(pointer);
+                    }
+                    Command memCommand = memTable.get(key);
+                    if (memCommand instanceof SetCommand && pointer.samePlace(((SetCommand) memCommand).getValuePointer())) {
+                        pinned.set(true);   //流式写入的 value 还在内存表中，落盘之前不能回收
+                    }
+                });
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            if (pinned.get()) {
+                continue;
+            }
+            for (ValuePointer pointer : livePointers) {
+                liveBytes += pointer.getLen() + 8;
+            }
+            if (totalBytes > 0 && liveBytes > totalBytes * (1 - VALUE_LOG_GC_RATIO)) {
+                continue;   //有效数据还很多，搬动不划算
+            }
+            rateLimiter.acquire(liveBytes);   //写入在写锁内进行，先在锁外申请令牌
+            indexLock.writeLock().lock();
+            try {
+                if (!snapshots.isEmpty()) {
+                    return;
+                }
+                Map<String, CommandPos> moved = new HashMap<>();
+                for (int i = 0; i < liveKeys.size(); i++) {
+                    String key = liveKeys.get(i);
+                    CommandPos head = index.get(key);
+                    if (head == null || !livePointers.get(i).samePlace(head.getValuePointer())) {
+                        continue;   //读取期间被覆盖或删除了
+                    }
+                    SetCommand record = new SetCommand(key, null, head.getExpireAt());
+                    record.setSeq(head.getSeq());
+                    record.setValuePointer(valueLog.copy(key, livePointers.get(i)));   //按文件直接复制，大 value 不经过内存
+                    moved.put(key, appendRecord(record));
+                }
+                valueLog.sync();
+                writerReader.getFD().sync();
+                for (Map.Entry<String, CommandPos> entry : moved.entrySet()) {
+                    index.put(entry.getKey(), entry.getValue());
+                }
+                valueLog.delete(fileIndex);
+                rotateIfNeeded();
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            LoggerUtil.debug(LOGGER, logFormat, "collectValueLog", "回收值日志 " + fileIndex + "，搬动 " + liveKeys.size() + " 个 value");
+        }
+    }
+
+    //运行时修改后台写入的限速，小于等于 0 表示不限速
+    public void setBackgroundBytesPerSecond(long bytesPerSecond) {
+        rateLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    //配置文件修改后应用可以在运行时调整的配置项；多个分片共用同一个配置对象时只有第一个发现修改的分片会应用，它们共用限速器
+    private void reloadConfig(StoreConfig config) {
+        try {
+            StoreConfig updated = config.reloadIfChanged();
+            if (updated != null && updated.getBackgroundBytesPerSecond() != rateLimiter.getBytesPerSecond()) {
+                rateLimiter.setBytesPerSecond(updated.getBackgroundBytesPerSecond());
+                LoggerUtil.info(LOGGER, logFormat, "reloadConfig", "后台写入限速调整为 " + updated.getBackgroundBytesPerSecond());
+            }
+        } catch (RuntimeException e) {
+            LoggerUtil.error(LOGGER, e, logFormat, "reloadConfig", e.getMessage());
+        }
+    }
+
+    public long getBackgroundBytesPerSecond() {
+        return rateLimiter.getBytesPerSecond();
+    }
+
+    //多个存储实例共用同一个磁盘时，可以共用一个限速器
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public void setValueThreshold(int valueThreshold) {
+        this.valueThreshold = valueThreshold;
+    }
+
+    public int getValueThreshold() {
+        return valueThreshold;
+    }
+
+    public WriteBufferManager getWriteBufferManager() {
+        return writeBufferManager;
+    }
+
+    //实际执行的 get 查找次数
+    public long getReadLookups() {
+        return readFlight.getLookups();
+    }
+
+    //与其他并发 get 合并、没有单独查找的次数
+    public long getCoalescedReads() {
+        return readFlight.getCoalesced();
+    }
+
+    //等待压缩的已封存数据文件数：MANIFEST 中除当前写入文件以外的文件，压缩跟得上时只剩上一次的压缩结果
+    public int getCompactionDebtFiles() {
+        return Math.max(0, manifest.getLiveFileCount() - 1);
+    }
+
+    //内存表合计超出预算说明落盘跟不上写入，已封存文件堆积说明压缩跟不上写入
+    //落盘和压缩都由写入触发，拒绝写入之后不会再发生，所以过载时在这里补一次：超出预算时让占用最多的内存表在后台落盘，
+    //文件堆积时补一次压缩，避免一直处于过载状态；超出预算却选不出落盘对象时落盘也无济于事，不拒绝写入
+    @Override
+    public boolean isWriteOverloaded() {
+        long budget = writeBufferManager.getBudget();
+        if (budget > 0 && writeBufferManager.getUsage() > budget) {
+            WriteBufferManager.Consumer victim = writeBufferManager.flushVictim();
+            if (victim != null) {
+                victim.requestFlush();   //同一时间最多提交一次，重复检查不会堆积落盘任务
+                return true;
+            }
+        }
+        if (maxCompactionDebtFiles <= 0 || getCompactionDebtFiles() <= maxCompactionDebtFiles) {
+            return false;
+        }
+        if (!compacting.get()) {
+            int activeFileIndex;
+            indexLock.readLock().lock();
+            try {
+                activeFileIndex = currentFileIndex;
+            } finally {
+                indexLock.readLock().unlock();
+            }
+            rmDuplicate(activeFileIndex);
+        }
+        return true;
+    }
+
+    //内存表当前估算占用的字节数
+    public long getMemTableBytes() {
+        indexLock.readLock().lock();
+        try {
+            return memTableBytes;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    //把指向 from 的索引和历史版本改为指向 to，to 为 null 时删除，调用方需持有写锁
+    private void relocate(String key, CommandPos from, CommandPos to) {
+        if (to != null) {
+            index.moveIfAt(key, from, to);
+        } else if (from.samePlace(index.get(key))) {
+            retainVersion(key, index.remove(key), null);
+        }
+        LinkedList<CommandPos> versions = history.get(key);
+        if (versions == null) {
+            return;
+        }
+        ListIterator<CommandPos> it = versions.listIterator();
+        while (it.hasNext()) {
+            CommandPos version = it.next();
+            if (from.samePlace(version)) {
+                if (to == null) {
+                    it.set(CommandPos.deletedAt(version.getSeq()));   //过期数据被丢弃，快照里看到的仍然是空值，不能退回更旧的版本
+                } else {
+                    version.moveTo(to);
+                }
+            }
+        }
+    }
+
+    private boolean hasHistory(String key) {
+        indexLock.readLock().lock();
+        try {
+            return history.containsKey(key);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    //判断索引或快照引用的历史版本是否仍然指向给定位置
+    private boolean isLive(String key, CommandPos cmdPos) {
+        indexLock.readLock().lock();
+        try {
+            if (cmdPos.samePlace(index.get(key))) {
+                return true;
+            }
+            List<CommandPos> versions = history.get(key);
+            if (versions != null) {
+                for (CommandPos version : versions) {
+                    if (cmdPos.samePlace(version)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    //顺序读取数据文件中的每一条命令，末尾未写完整的记录会被忽略
+    private void forEachRecord(int fileIndex, BiConsumer<CommandPos, Command> consumer) throws IOException {
+        File file = new File(this.genFilePath(fileIndex));
+        long fileLen = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (fileLen >= 4) {
+                in.mark(4);
+                int magic = in.readInt();
+                if (BlockTable.isBlockMagic(magic)) {
+                    forEachBlockRecord(fileIndex, file, consumer);
+                    return;
+                }
+                if (magic == DATA_LOG_MAGIC) {
+                    forEachLogRecord(fileIndex, in, fileLen, consumer);
+                    return;
+                }
+                in.reset();
+            }
+            long start = 0;
+            while (start + 4 <= fileLen) {
+                int cmdLen = in.readInt();
+                if (cmdLen <= 0 || start + 4 + cmdLen > fileLen) {
+                    break;
+                }
+                byte[] bytes = new byte[cmdLen];
+                in.readFully(bytes);
+                Command command;
+                try {
+                    command = RecordCodec.decode(bytes, 0, cmdLen, null);
+                } catch (RuntimeException e) {
+                    //记录已损坏，之后的数据无法再按长度前缀对齐，停止读取该文件
+                    LoggerUtil.error(LOGGER, e, logFormat, "forEachRecord", file.getName() + " 在偏移量 " + start + " 处损坏");
+                    break;
+                }
+                if (command != null) {
+                    consumer.accept(recordPosition(fileIndex, (int) start + 4, cmdLen, command), command);
+                }
+                start += 4 + cmdLen;
+            }
+        }
+    }
+
+    //顺序读取单次写入模式的数据文件，遇到没写完整或校验失败的记录时停止，调用方已经读过文件头
+    private void forEachLogRecord(int fileIndex, DataInputStream in, long fileLen,
+                                  BiConsumer<CommandPos, Command> consumer) throws IOException {
+        CRC32 crc = new CRC32();
+        long start = 4;
+        while (start + 8 <= fileLen) {
+            int cmdLen = in.readInt();
+            int checksum = in.readInt();
+            if (cmdLen <= 0 || start + 8 + cmdLen > fileLen) {
+                break;
+            }
+            byte[] bytes = new byte[cmdLen];
+            in.readFully(bytes);
+            if (checksum != dataChecksum(crc, bytes, 0, cmdLen)) {
+                break;   //崩溃时没有写完整的末尾
+            }
+            Command command = RecordCodec.decode(bytes, 0, cmdLen, null);
+            if (command != null) {
+                consumer.accept(recordPosition(fileIndex, (int) start + 8, cmdLen, command), command);
+            }
+            start += 8 + cmdLen;
+        }
+    }
+
+    //按长度前缀单独存放的记录的位置
+    private static CommandPos recordPosition(int fileIndex, int pos, int len, Command command) {
+        long expireAt = command instanceof SetCommand ? ((SetCommand) command).getExpireAt() : 0L;
+        CommandPos cmdPos = new CommandPos(fileIndex, pos, len, expireAt, ((AbstractCommand) command).getSeq());
+        if (command instanceof SetCommand) {
+            cmdPos.setValuePointer(((SetCommand) command).getValuePointer());
+        }
+        return cmdPos;
+    }
+
+    //建立索引时读取一个数据文件：有提示文件时只读提示文件，得到的 set 命令不带 value；没有时顺序读取整个数据文件
+    private void forEachIndexEntry(int fileIndex, BiConsumer<CommandPos, Command> consumer) throws IOException {
+        File hint = new File(this.genHintPath(fileIndex));
+        if (!hint.exists()) {
+            forEachRecord(fileIndex, consumer);
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hint)))) {
+            if (in.readInt() != HINT_MAGIC) {
+                throw new IOException(hint + " 不是提示文件");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                boolean rm = in.readBoolean();
+                byte[] key = new byte[in.readInt()];
+                in.readFully(key);
+                long seq = in.readLong();
+                long expireAt = in.readLong();
+                int pos = in.readInt();
+                int len = in.readInt();
+                ValuePointer pointer = in.readBoolean() ? new ValuePointer(in.readInt(), in.readLong(), in.readInt()) : null;
+                String k = new String(key, StandardCharsets.UTF_8);
+                AbstractCommand command;
+                if (rm) {
+                    command = new RmCommand(k);
+                } else {
+                    SetCommand set = new SetCommand(k, null, expireAt);
+                    set.setValuePointer(pointer);
+                    command = set;
+                }
+                command.setSeq(seq);
+                consumer.accept(recordPosition(fileIndex, pos, len, command), command);
+            }
+        }
+    }
+
+    //单次写入模式下封存当前数据文件：写出提示文件，先写临时文件再改名，提示文件存在就是完整的
+    private void writeHint() throws IOException {
+        if (!bitcask || activeHints.isEmpty()) {
+            activeHints.clear();
+            return;
+        }
+        File hint = new File(this.genHintPath(currentFileIndex));
+        File tmp = new File(hint.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(HINT_MAGIC);
+            out.writeInt(activeHints.size());
+            for (Map.Entry<String, Hint> entry : activeHints.entrySet()) {
+                CommandPos cmdPos = entry.getValue().cmdPos;
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeBoolean(entry.getValue().rm);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeLong(cmdPos.getSeq());
+                out.writeLong(cmdPos.getExpireAt());
+                out.writeInt(cmdPos.getPos());
+                out.writeInt(cmdPos.getLen());
+                ValuePointer pointer = cmdPos.getValuePointer();
+                out.writeBoolean(pointer != null);
+                if (pointer != null) {
+                    out.writeInt(pointer.getFileIndex());
+                    out.writeLong(pointer.getPos());
+                    out.writeInt(pointer.getLen());
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), hint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        activeHints.clear();
+    }
+
+    //顺序读取有序块文件中的每一条命令
+    private void forEachBlockRecord(int fileIndex, File file, BiConsumer<CommandPos, Command> consumer) throws IOException {
+        long seqFloor = manifest.getIngestSeq(fileIndex);
+        try (BlockTable.Reader reader = new BlockTable.Reader(file)) {
+            while (reader.next()) {
+                Command command = withSeqFloor(blockCommand(new String(reader.key(), StandardCharsets.UTF_8), reader.record()), seqFloor);
+                consumer.accept(blockPosition(fileIndex, reader, command), command);
+            }
+        }
+    }
+
+    //有序块中的记录的位置：压缩的块只能整体读取，位置指向块；不压缩的块直接指向记录本身，见 wholeBlock
+    private static CommandPos blockPosition(int fileIndex, BlockTable.Reader reader, Command command) {
+        if (reader.isCompressed()) {
+            return blockPosition(fileIndex, reader.blockPos(), reader.blockLen(), reader.entry(), command);
+        }
+        return blockPosition(fileIndex, reader.recordPos(), reader.record().length, reader.entry(), command);
+    }
+
+    private static CommandPos blockPosition(int fileIndex, int pos, int len, int entry, Command command) {
+        long expireAt = command instanceof SetCommand ? ((SetCommand) command).getExpireAt() : 0L;
+        CommandPos cmdPos = new CommandPos(fileIndex, pos, len, expireAt, ((AbstractCommand) command).getSeq());
+        cmdPos.setBlockEntry(entry);
+        if (command instanceof SetCommand) {
+            cmdPos.setValuePointer(((SetCommand) command).getValuePointer());
+        }
+        return cmdPos;
+    }
+
+    //按块索引读取 key 可能所在的块并在块内查找，找到时 location 填入 {位置, 长度, 块内序号}，位置和长度与 blockPosition 相同
+    private Command findInBlock(int fileIndex, BlockTable.BlockIndex blocks, String key, int[] location) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int block = blocks.find(keyBytes);
+        if (block < 0) {
+            return null;
+        }
+        ByteBuffer content = readStored(fileIndex, blocks.blockPos(block), blocks.blockLen(block));   //压缩的块读出时已经解压
+        int[] range = new int[2];
+        int entry = BlockTable.findEntry(content.array(), content.limit(), keyBytes, range);
+        if (entry < 0) {
+            return null;
+        }
+        location[0] = blocks.isCompressed() ? blocks.blockPos(block) : blocks.blockPos(block) + range[0];
+        location[1] = blocks.isCompressed() ? blocks.blockLen(block) : range[1];
+        location[2] = entry;
+        return withSeqFloor(blockCommand(key, Arrays.copyOfRange(content.array(), range[0], range[0] + range[1])),
+                manifest.getIngestSeq(fileIndex));
+    }
+
+    //列出目录下所有数据文件的编号，按从小到大排序
+    private List<Integer> listFileIndexes(String dir) {
+        List<Integer> fileIndexes = new ArrayList<>();
+        File[] files = new File(dir).listFiles();
+        if (files == null) {
+            return fileIndexes;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(NAME) && name.endsWith(TABLE)) {
+                try {
+                    fileIndexes.add(Integer.parseInt(name.substring(NAME.length(), name.length() - TABLE.length())));
+                } catch (NumberFormatException ignored) {
+                    //不是数据文件
+                }
+            }
+        }
+        Collections.sort(fileIndexes);
+        return fileIndexes;
+    }
+
+    //列出数据目录下所有 WAL分段的编号，按从小到大排序，旧版本的 wal.log 视为编号 -1 的分段
+    private List<Integer> listWalIndexes() {
+        List<Integer> walIndexes = new ArrayList<>();
+        File[] files = new File(dataDir).listFiles();
+        if (files == null) {
+            return walIndexes;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(WAL) && name.endsWith(LOG)) {
+                String number = name.substring(WAL.length(), name.length() - LOG.length());
+                try {
+                    walIndexes.add(number.isEmpty() ? -1 : Integer.parseInt(number));
+                } catch (NumberFormatException ignored) {
+                    //不是 WAL分段
+                }
+            }
+        }
+        Collections.sort(walIndexes);
+        return walIndexes;
+    }
+
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    //生成文件路径
+    public String genFilePath() {
+        return genFilePath(currentFileIndex);
+    }
+
+    public String genFilePath(int fileIndex) {
+        return genFilePath(fileIndex, manifest.isCold(fileIndex));
+    }
+
+    private String genFilePath(int fileIndex, boolean cold) {
+        return (cold ? this.coldDir : this.dataDir) + File.separator + NAME + fileIndex + TABLE;
+    }
+
+    private String genHintPath(int fileIndex) {
+        return this.dataDir + File.separator + NAME + fileIndex + HINT;
+    }
+
+    public String genWalPath(int walIndex) {
+        if (walIndex < 0) {
+            return this.dataDir + File.separator + WAL + LOG;   //旧版本的单个 wal.log
+        }
+        return this.dataDir + File.separator + WAL + walIndex + LOG;
+    }
+}
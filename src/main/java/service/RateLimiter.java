@@ -0,0 +1,86 @@
+package service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//令牌桶限速器：后台压缩、值日志回收等写入共用一个字节/秒的预算，避免和前台读抢占磁盘带宽
+//预算可以在运行时修改；待处理的后台数据积压较多时自动临时提高速率，保证后台任务最终能追上
+//多个存储实例共用一个限速器时，按所有实例积压的总量调整，而不是由最后一个报告的实例决定
+public class RateLimiter {
+    private static final long AUTO_TUNE_SECONDS = 10;   //希望积压的后台数据在多少秒内处理完
+    private static final int MAX_BOOST = 8;   //自动调整时最多提高到预算的几倍
+
+    private volatile long baseBytesPerSecond;   //配置的预算，小于等于 0 表示不限速
+    private volatile long bytesPerSecond;   //当前生效的速率
+    private double available;   //桶中剩余的令牌，可以为负数表示透支
+    private long lastRefillNanos = System.nanoTime();
+    private final Map<Object, Long> pending = new ConcurrentHashMap<>();   //每个使用者报告的积压字节数
+
+    public RateLimiter(long bytesPerSecond) {
+        setBytesPerSecond(bytesPerSecond);
+    }
+
+    //修改预算，立即生效
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.baseBytesPerSecond = bytesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = Math.min(available, burst());
+    }
+
+    public long getBytesPerSecond() {
+        return baseBytesPerSecond;
+    }
+
+    //当前实际生效的速率，自动调整后可能高于预算
+    public long getEffectiveBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    //source 报告自己待处理的后台数据量，处理完后报告 0
+    //所有使用者的积压合计超过预算在 AUTO_TUNE_SECONDS 内能处理的量时提高速率，否则恢复预算
+    public synchronized void autoTune(Object source, long pendingBytes) {
+        if (pendingBytes > 0) {
+            pending.put(source, pendingBytes);
+        } else {
+            pending.remove(source);
+        }
+        long base = baseBytesPerSecond;
+        if (base <= 0) {
+            return;
+        }
+        long total = 0;
+        for (long bytes : pending.values()) {
+            total += bytes;
+        }
+        long wanted = total / AUTO_TUNE_SECONDS;
+        bytesPerSecond = Math.max(base, Math.min(wanted, base * MAX_BOOST));
+    }
+
+    //申请写入 bytes 个字节，令牌不足时阻塞到透支部分按当前速率补齐为止；调用方不应持有存储的锁
+    public void acquire(long bytes) {
+        long waitNanos;
+        synchronized (this) {
+            long rate = bytesPerSecond;
+            if (rate <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            available = Math.min(burst(), available + (now - lastRefillNanos) * rate / 1e9);
+            lastRefillNanos = now;
+            available -= bytes;
+            waitNanos = available >= 0 ? 0 : (long) (-available * 1e9 / rate);
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    //桶的容量：最多攒下 100 毫秒的令牌，避免空闲之后突发大量写入
+    private double burst() {
+        return bytesPerSecond / 10.0;
+    }
+}
@@ -0,0 +1,75 @@
+package service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+//只读包装：只允许 get，写操作直接拒绝，用于只读副本对外提供查询
+public class ReadOnlyStore implements Store {
+    private final Store store;
+
+    public ReadOnlyStore(Store store) {
+        this.store = store;
+    }
+
+    @Override
+    public void set(String key, String value) {
+        throw new UnsupportedOperationException("只读副本不支持 set");
+    }
+
+    @Override
+    public void set(String key, String value, long ttl) {
+        throw new UnsupportedOperationException("只读副本不支持 set");
+    }
+
+    @Override
+    public String get(String key) {
+        return store.get(key);
+    }
+
+    @Override
+    public void set(String key, InputStream in) {
+        throw new UnsupportedOperationException("只读副本不支持 set");
+    }
+
+    @Override
+    public long get(String key, WritableByteChannel out) {
+        return store.get(key, out);
+    }
+
+    @Override
+    public void rm(String key) {
+        throw new UnsupportedOperationException("只读副本不支持 rm");
+    }
+
+    @Override
+    public long incrBy(String key, long delta) {
+        throw new UnsupportedOperationException("只读副本不支持 incrBy");
+    }
+
+    @Override
+    public boolean compareAndSet(String key, String expected, String value) {
+        throw new UnsupportedOperationException("只读副本不支持 compareAndSet");
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, String value) {
+        throw new UnsupportedOperationException("只读副本不支持 setIfAbsent");
+    }
+
+    @Override
+    public void ingest(List<String> files) {
+        throw new UnsupportedOperationException("只读副本不支持 ingest");
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        return store.snapshot();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
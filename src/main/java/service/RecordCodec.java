@@ -0,0 +1,230 @@
+package service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import dto.WALEntry;
+import model.command.AbstractCommand;
+import model.command.Command;
+import model.command.RmCommand;
+import model.command.SetCommand;
+import model.command.ValuePointer;
+import utils.CommandUtil;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+//数据文件、有序块和 WAL 中一条记录的二进制编码，直接写入调用方复用的缓冲区，不经过 JSON 和中间对象
+//set: [byte 1][long seq][long expireAt][byte 是否有值指针]，有值指针时接着 [int 值日志文件][long 偏移量][int 长度]，然后是 [key][value]
+//rm: [byte 2][long seq][key]；检查点: [byte 3][long seq]，只出现在 WAL 中
+//字符串是 [int UTF-8 字节数][字节]，value 为空时字节数为 -1；有序块中的记录不带 key，key 由块内的前缀编码保存
+//旧版本写入的记录是 '{' 开头的 JSON，按第一个字节区分，仍然可以读取
+final class RecordCodec {
+    static final byte SET = 1;
+    static final byte RM = 2;
+    static final byte CHECKPOINT = 3;
+    static final int CHECKPOINT_LENGTH = 9;
+    private static final int SET_HEADER = 1 + 8 + 8 + 1;
+    private static final int POINTER_SIZE = 4 + 8 + 4;
+
+    private RecordCodec() {
+    }
+
+    private static boolean isJson(byte[] bytes, int off) {
+        return bytes[off] == '{';
+    }
+
+    //编码一条 set 记录最多需要的字节数，每个字符最多编码成 3 个字节（代理对是 2 个字符 4 个字节）
+    //key 为空表示不带 key 的有序块记录
+    static int maxSetLength(String key, String value) {
+        return SET_HEADER + POINTER_SIZE + (key == null ? 0 : maxStringLength(key)) + maxStringLength(value);
+    }
+
+    static int maxRmLength(String key) {
+        return 1 + 8 + (key == null ? 0 : maxStringLength(key));
+    }
+
+    static int maxLength(Command command, boolean withKey) {
+        String key = withKey ? command.getKey() : null;
+        if (command instanceof SetCommand) {
+            return maxSetLength(key, ((SetCommand) command).getValue());
+        }
+        return maxRmLength(key);
+    }
+
+    private static int maxStringLength(String s) {
+        return 4 + (s == null ? 0 : 3 * s.length());
+    }
+
+    //key 为空时不写 key，用于有序块中的记录
+    static void putSet(ByteBuffer out, String key, String value, long expireAt, long seq, ValuePointer pointer) {
+        out.put(SET);
+        out.putLong(seq);
+        out.putLong(expireAt);
+        out.put((byte) (pointer == null ? 0 : 1));
+        if (pointer != null) {
+            out.putInt(pointer.getFileIndex());
+            out.putLong(pointer.getPos());
+            out.putInt(pointer.getLen());
+        }
+        if (key != null) {
+            putString(out, key);
+        }
+        putString(out, value);
+    }
+
+    static void putRm(ByteBuffer out, String key, long seq) {
+        out.put(RM);
+        out.putLong(seq);
+        if (key != null) {
+            putString(out, key);
+        }
+    }
+
+    static void putCheckpoint(ByteBuffer out, long seq) {
+        out.put(CHECKPOINT);
+        out.putLong(seq);
+    }
+
+    static void put(ByteBuffer out, Command command, boolean withKey) {
+        String key = withKey ? command.getKey() : null;
+        long seq = ((AbstractCommand) command).getSeq();
+        if (command instanceof SetCommand) {
+            SetCommand set = (SetCommand) command;
+            putSet(out, key, set.getValue(), set.getExpireAt(), seq, set.getValuePointer());
+        } else {
+            putRm(out, key, seq);
+        }
+    }
+
+    //编码成独立的字节数组，用于有序块中的记录
+    static byte[] encode(Command command, boolean withKey) {
+        ByteBuffer out = ByteBuffer.allocate(maxLength(command, withKey));
+        put(out, command, withKey);
+        byte[] bytes = new byte[out.position()];
+        System.arraycopy(out.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    //按字符直接编码成 UTF-8 写入缓冲区的底层数组，写完之后回填字节数；单独的代理字符与 String.getBytes 一样写成 '?'
+    private static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        int lenPos = out.position();
+        byte[] a = out.array();
+        int start = out.arrayOffset() + lenPos + 4;
+        int p = start;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                a[p++] = (byte) c;
+            } else if (c < 0x800) {
+                a[p++] = (byte) (0xC0 | (c >> 6));
+                a[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    a[p++] = (byte) (0xF0 | (cp >> 18));
+                    a[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    a[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    a[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    a[p++] = '?';
+                }
+            } else {
+                a[p++] = (byte) (0xE0 | (c >> 12));
+                a[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                a[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out.putInt(lenPos, p - start);
+        ((Buffer) out).position(lenPos + 4 + p - start);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        ((Buffer) in).position(in.position() + len);
+        return s;
+    }
+
+    private static int getInt(byte[] b, int p) {
+        return (b[p] << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+    }
+
+    //把 bytes 中 [off, off + len) 的一条记录还原成命令；blockKey 不为空时是有序块中不带 key 的记录
+    static Command decode(byte[] bytes, int off, int len, String blockKey) {
+        if (isJson(bytes, off)) {
+            JSONObject json = JSON.parseObject(new String(bytes, off, len, StandardCharsets.UTF_8));
+            if (blockKey != null) {
+                json.put("key", blockKey);
+            }
+            return CommandUtil.jsonToCommand(json);
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes, off, len);
+        byte type = in.get();
+        long seq = in.getLong();
+        AbstractCommand command;
+        if (type == RM) {
+            command = new RmCommand(blockKey != null ? blockKey : getString(in));
+        } else if (type == SET) {
+            long expireAt = in.getLong();
+            ValuePointer pointer = in.get() != 0 ? new ValuePointer(in.getInt(), in.getLong(), in.getInt()) : null;
+            String key = blockKey != null ? blockKey : getString(in);
+            SetCommand set = new SetCommand(key, getString(in), expireAt);
+            set.setValuePointer(pointer);
+            command = set;
+        } else {
+            throw new IllegalArgumentException("未知的记录类型: " + type);
+        }
+        command.setSeq(seq);
+        return command;
+    }
+
+    //读路径上索引指向的都是 set 记录，只解码 value，不创建命令对象；withKey 为 false 时是有序块中不带 key 的记录
+    static String value(byte[] bytes, int off, int len, boolean withKey) {
+        if (isJson(bytes, off)) {
+            return JSON.parseObject(new String(bytes, off, len, StandardCharsets.UTF_8), SetCommand.class).getValue();
+        }
+        if (bytes[off] != SET) {
+            return null;
+        }
+        int p = off + SET_HEADER;
+        if (bytes[p - 1] != 0) {
+            p += POINTER_SIZE;
+        }
+        if (withKey) {
+            p += 4 + getInt(bytes, p);
+        }
+        int valueLen = getInt(bytes, p);
+        return valueLen < 0 ? null : new String(bytes, p + 4, valueLen, StandardCharsets.UTF_8);
+    }
+
+    //WAL 中的一条记录
+    static WALEntry decodeWal(byte[] bytes) {
+        if (isJson(bytes, 0)) {
+            return JSONObject.parseObject(new String(bytes, StandardCharsets.UTF_8), WALEntry.class);
+        }
+        if (bytes[0] == CHECKPOINT) {
+            WALEntry checkpoint = new WALEntry(NormalStore.CHECKPOINT, null, null);
+            checkpoint.setSeq(ByteBuffer.wrap(bytes, 1, 8).getLong());
+            return checkpoint;
+        }
+        Command command = decode(bytes, 0, bytes.length, null);
+        WALEntry entry;
+        if (command instanceof SetCommand) {
+            SetCommand set = (SetCommand) command;
+            entry = new WALEntry("set", set.getKey(), set.getValue(), set.getExpireAt());
+            entry.setValuePointer(set.getValuePointer());
+        } else {
+            entry = new WALEntry("rm", command.getKey(), null);
+        }
+        entry.setSeq(((AbstractCommand) command).getSeq());
+        return entry;
+    }
+}
@@ -0,0 +1,377 @@
+package service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+//按 key 的哈希值把数据分散到多个互相独立的 NormalStore 分片上，每个分片有自己的目录、WAL、内存表和锁
+public class ShardedStore implements Store, BinaryStore {
+    public static final String SHARD = "shard";   //分片子目录名前缀
+    public static final String SHARDS_FILE = "SHARDS";   //记录分片数量的文件，分片数量变化后路由会错乱
+    private static final String INGEST_TMP = "ingest.tmp";   //导入时拆分出来的分片文件
+    private final Logger LOGGER = LoggerFactory.getLogger(ShardedStore.class);
+    private final String logFormat = "[ShardedStore][{}]: {}";
+
+    private final List<NormalStore> shards;
+    private final ExecutorService executor;   //跨分片批量读取的线程池
+    private final RateLimiter rateLimiter;   //所有分片的后台写入共用一个预算
+    private final WriteBufferManager writeBufferManager;   //所有分片的内存表共用一个内存预算
+
+    //在 dataDir 下创建 shardCount 个子目录作为分片
+    public ShardedStore(String dataDir, int shardCount) throws IOException {
+        this(shardDirs(dataDir, shardCount), StoreConfig.load());
+    }
+
+    public ShardedStore(String dataDir, int shardCount, StoreConfig config) throws IOException {
+        this(shardDirs(dataDir, shardCount), config);
+    }
+
+    //每个分片使用一个指定的目录，可以分别放在不同的磁盘上
+    public ShardedStore(List<String> shardDirs) throws FileNotFoundException {
+        this(shardDirs, StoreConfig.load());
+    }
+
+    public ShardedStore(List<String> shardDirs, StoreConfig config) throws FileNotFoundException {
+        if (shardDirs.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分片");
+        }
+        this.rateLimiter = new RateLimiter(config.getBackgroundBytesPerSecond());
+        this.writeBufferManager = new WriteBufferManager(config.getWriteBufferBudget());
+        this.shards = new ArrayList<>(shardDirs.size());
+        for (String shardDir : shardDirs) {
+            deleteIngestTmp(shardDir);
+            NormalStore shard = new NormalStore(shardDir, config, writeBufferManager);
+            shard.setRateLimiter(rateLimiter);
+            shards.add(shard);
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(shardDirs.size(), r -> {
+            Thread thread = new Thread(r, "easy-db-shard-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        LoggerUtil.info(LOGGER, logFormat, "ShardedStore", "分片目录: " + shardDirs);
+    }
+
+    //上次导入中途崩溃时留下的拆分文件
+    private static void deleteIngestTmp(String shardDir) {
+        File[] leftovers = new File(shardDir).listFiles((dir, name) -> name.startsWith(INGEST_TMP));
+        if (leftovers != null) {
+            for (File file : leftovers) {
+                file.delete();
+            }
+        }
+    }
+
+    private static List<String> shardDirs(String dataDir, int shardCount) throws IOException {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("分片数量必须大于 0: " + shardCount);
+        }
+        File dir = new File(dataDir);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        //第一次启动时记录分片数量，之后必须保持一致
+        File shardsFile = new File(dir, SHARDS_FILE);
+        if (shardsFile.exists()) {
+            int existing = Integer.parseInt(new String(Files.readAllBytes(shardsFile.toPath()), StandardCharsets.UTF_8).trim());
+            if (existing != shardCount) {
+                throw new IllegalStateException("数据目录已按 " + existing + " 个分片写入，不能以 " + shardCount + " 个分片打开");
+            }
+        } else {
+            Files.write(shardsFile.toPath(), String.valueOf(shardCount).getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> dirs = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            dirs.add(dataDir + File.separator + SHARD + i);
+        }
+        return dirs;
+    }
+
+    //根据 key 的哈希值选择分片
+    private NormalStore shardFor(String key) {
+        return shards.get(shardIndex(key));
+    }
+
+    private int shardIndex(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);   //打散低位，避免相近的 key 集中在同一个分片
+        return Math.floorMod(hash, shards.size());
+    }
+
+    @Override
+    public void set(String key, String value) {
+        shardFor(key).set(key, value);
+    }
+
+    @Override
+    public void set(String key, String value, long ttl) {
+        shardFor(key).set(key, value, ttl);
+    }
+
+    @Override
+    public String get(String key) {
+        return shardFor(key).get(key);
+    }
+
+    @Override
+    public void set(String key, InputStream in) {
+        shardFor(key).set(key, in);
+    }
+
+    @Override
+    public long get(String key, WritableByteChannel out) {
+        return shardFor(key).get(key, out);
+    }
+
+    @Override
+    public void rm(String key) {
+        shardFor(key).rm(key);
+    }
+
+    @Override
+    public long incrBy(String key, long delta) {
+        return shardFor(key).incrBy(key, delta);
+    }
+
+    @Override
+    public boolean compareAndSet(String key, String expected, String value) {
+        return shardFor(key).compareAndSet(key, expected, value);
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, String value) {
+        return shardFor(key).setIfAbsent(key, value);
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value) {
+        shardFor(BinaryStore.toKey(key)).set(key, value);
+    }
+
+    @Override
+    public void set(byte[] key, ByteBuffer value) {
+        shardFor(BinaryStore.toKey(key)).set(key, value);
+    }
+
+    @Override
+    public ByteBuffer get(byte[] key) {
+        return shardFor(BinaryStore.toKey(key)).get(key);
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        shardFor(BinaryStore.toKey(key)).rm(key);
+    }
+
+    //批量读取：按分片分组后并行查询，返回结果中不包含不存在的 key
+    @Override
+    public Map<String, String> multiGet(Collection<String> keys) {
+        Map<NormalStore, List<String>> grouped = new HashMap<>();
+        for (String key : keys) {
+            grouped.computeIfAbsent(shardFor(key), s -> new ArrayList<>()).add(key);
+        }
+        List<Future<Map<String, String>>> futures = new ArrayList<>(grouped.size());
+        for (Map.Entry<NormalStore, List<String>> entry : grouped.entrySet()) {
+            futures.add(executor.submit(() -> {
+                Map<String, String> part = new HashMap<>();
+                for (String key : entry.getValue()) {
+                    String value = entry.getKey().get(key);
+                    if (value != null) {
+                        part.put(key, value);
+                    }
+                }
+                return part;
+            }));
+        }
+        Map<String, String> result = new HashMap<>();
+        try {
+            for (Future<Map<String, String>> future : futures) {
+                result.putAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return result;
+    }
+
+    //逐个分片创建快照，每个分片内部是一致的，但各分片的快照时刻不同，不保证跨分片的原子性
+    @Override
+    public Snapshot snapshot() {
+        List<Snapshot> parts = new ArrayList<>(shards.size());
+        for (NormalStore shard : shards) {
+            parts.add(shard.snapshot());
+        }
+        return new Snapshot() {
+            @Override
+            public String get(String key) {
+                return parts.get(shards.indexOf(shardFor(key))).get(key);
+            }
+
+            @Override
+            public void scan(BiConsumer<String, String> consumer) {
+                for (Snapshot part : parts) {
+                    part.scan(consumer);
+                }
+            }
+
+            @Override
+            public void close() {
+                for (Snapshot part : parts) {
+                    part.close();
+                }
+            }
+        };
+    }
+
+    //批量导入：先按分片路由把每个文件拆成各分片自己的有序文件，再由各分片分别导入
+    //每个分片内部是原子的，不保证跨分片的原子性
+    @Override
+    public void ingest(List<String> files) {
+        List<List<String>> shardFiles = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            shardFiles.add(new ArrayList<>());
+        }
+        try {
+            for (int f = 0; f < files.size(); f++) {
+                List<SortedFileWriter> writers = new ArrayList<>(shards.size());
+                try {
+                    for (int i = 0; i < shards.size(); i++) {
+                        String path = shards.get(i).getDataDir() + File.separator + INGEST_TMP + f;
+                        writers.add(new SortedFileWriter(path));
+                        shardFiles.get(i).add(path);
+                    }
+                    BlockTable.forEachFileEntry(new File(files.get(f)), (entry, key, record) -> {
+                        try {
+                            writers.get(shardIndex(new String(key, StandardCharsets.UTF_8))).addRecord(key, record);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                } finally {
+                    for (SortedFileWriter writer : writers) {
+                        writer.close();
+                    }
+                }
+            }
+            for (int i = 0; i < shards.size(); i++) {
+                shards.get(i).ingest(shardFiles.get(i));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            for (List<String> paths : shardFiles) {
+                for (String path : paths) {
+                    new File(path).delete();   //分片已经改写到自己的数据目录
+                }
+            }
+        }
+    }
+
+    //运行时修改所有分片后台写入的总限速，小于等于 0 表示不限速
+    public void setBackgroundBytesPerSecond(long bytesPerSecond) {
+        rateLimiter.setBytesPerSecond(bytesPerSecond);
+    }
+
+    public long getBackgroundBytesPerSecond() {
+        return rateLimiter.getBytesPerSecond();
+    }
+
+    //所有分片的索引是否都已加载完成
+    public boolean isIndexReady() {
+        for (NormalStore shard : shards) {
+            if (!shard.isIndexReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //各分片索引加载进度的平均值，0 到 1
+    public double getIndexLoadProgress() {
+        double total = 0;
+        for (NormalStore shard : shards) {
+            total += shard.getIndexLoadProgress();
+        }
+        return total / shards.size();
+    }
+
+    public void awaitIndexReady() {
+        for (NormalStore shard : shards) {
+            shard.awaitIndexReady();
+        }
+    }
+
+    //所有分片实际执行的 get 查找次数
+    public long getReadLookups() {
+        long total = 0;
+        for (NormalStore shard : shards) {
+            total += shard.getReadLookups();
+        }
+        return total;
+    }
+
+    //所有分片中与其他并发 get 合并的次数
+    public long getCoalescedReads() {
+        long total = 0;
+        for (NormalStore shard : shards) {
+            total += shard.getCoalescedReads();
+        }
+        return total;
+    }
+
+    //任何一个分片积压过多时都拒绝写入，分片共用内存预算，积压通常不是某一个分片独有的
+    @Override
+    public boolean isWriteOverloaded() {
+        for (NormalStore shard : shards) {
+            if (shard.isWriteOverloaded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public WriteBufferManager getWriteBufferManager() {
+        return writeBufferManager;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    //关闭所有分片，单个分片关闭失败不影响其余分片
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        IOException failure = null;
+        for (NormalStore shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+//合并同一个 key 上并发的读：第一个读执行查找，查找结束前到达的同 key 读直接等待并共用它的结果
+//每次查找带一个版本号（调用方传入最后提交的序列号），版本号变化说明中间有写入提交，之后到达的读不再加入旧的查找，
+//保证读到的结果不早于它开始之前已经完成的写
+//进行中的查找按 key 的哈希放在固定大小的槽位表中，槽位被另一个 key 占用时直接单独查找，不合并，也不分配对象；
+//放进槽位表的 Call 只用一次：别的读可能在它结束之后才拿到引用，复用会让这样的读加入另一个 key 的查找
+public class SingleFlight<K, V> {
+    private static final int SLOTS = 1024;   //槽位数，2 的幂
+    private final AtomicReferenceArray<Call<K, V>> slots = new AtomicReferenceArray<>(SLOTS);
+    private final LongAdder lookups = new LongAdder();   //实际执行的查找次数
+    private final LongAdder coalesced = new LongAdder();   //加入已有查找、没有单独执行的读次数
+
+    //一次查找的结果，等待的读在它上面 wait，查找结束后 notifyAll；所有字段都在它自己的锁内读写
+    private static class Call<K, V> {
+        private final K key;
+        private final long version;
+        private boolean done;
+        private boolean released;   //已经从槽位表中移除，不再接受新的读
+        private V value;
+        private Throwable error;
+
+        Call(K key, long version) {
+            this.key = key;
+            this.version = version;
+        }
+
+        //仍在为同一个 key 和版本查找时加入，返回是否加入成功
+        synchronized boolean tryJoin(K key, long version) {
+            return !released && this.version == version && this.key.equals(key);
+        }
+
+        synchronized boolean isFor(K key) {
+            return !released && this.key.equals(key);
+        }
+
+        synchronized void complete(V value, Throwable error) {
+            this.value = value;
+            this.error = error;
+            this.done = true;
+            notifyAll();
+        }
+
+        //从槽位表移除之后调用，之后拿到旧引用的读不再加入
+        synchronized void release() {
+            released = true;
+        }
+
+        synchronized V join() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;   //查找很快就会结束，等它结束之后再恢复中断状态
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw new RuntimeException(error);
+            }
+            return value;
+        }
+    }
+
+    //loader 以 key 为参数，调用方传入不捕获变量的方法引用，每次读不必创建新的 lambda
+    public V execute(K key, long version, Function<? super K, ? extends V> loader) {
+        int h = key.hashCode();
+        int i = (h ^ (h >>> 16)) & (SLOTS - 1);
+        Call<K, V> call = null;
+        while (true) {
+            Call<K, V> existing = slots.get(i);
+            if (existing != null && existing.tryJoin(key, version)) {
+                coalesced.increment();
+                return existing.join();
+            }
+            if (existing != null && !existing.isFor(key)) {
+                if (slots.get(i) == existing) {
+                    call = null;   //槽位被别的 key 占用，单独查找；之前分配但没有放进槽位的 Call 没有读见过，直接丢弃
+                    break;
+                }
+                continue;
+            }
+            if (call == null) {
+                call = new Call<>(key, version);
+            }
+            if (slots.compareAndSet(i, existing, call)) {   //旧版本的查找不再接受新的读
+                break;
+            }
+        }
+        lookups.increment();
+        try {
+            V value = loader.apply(key);
+            if (call != null) {
+                call.complete(value, null);
+            }
+            return value;
+        } catch (Throwable t) {
+            if (call != null) {
+                call.complete(null, t);   //出错时等待中的读一起收到同一个异常，不会一直阻塞
+            }
+            throw t;
+        } finally {
+            if (call != null) {
+                slots.compareAndSet(i, call, null);
+                call.release();
+            }
+        }
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+}
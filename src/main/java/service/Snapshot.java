@@ -0,0 +1,15 @@
+package service;
+
+import java.io.Closeable;
+import java.util.function.BiConsumer;
+
+//某一时刻的一致性只读视图，之后的写入对它不可见；用完必须 close，否则被覆盖的旧版本无法回收
+public interface Snapshot extends Closeable {
+    String get(String key);
+
+    //遍历快照中全部有效的键值对，顺序不固定
+    void scan(BiConsumer<String, String> consumer);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,84 @@
+package service;
+
+import model.command.SetCommand;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+//离线构建数据文件：按 key 从小到大写入，生成与压缩结果相同的有序块格式，之后通过 Store.ingest 直接放入数据目录
+//不经过 WAL 和内存表，写入速度只受顺序写磁盘的限制；value 全部内联，不使用值日志
+public class SortedFileWriter implements Closeable {
+    private final String path;
+    private final FileOutputStream fos;
+    private final BlockTable.Writer writer;
+    private byte[] lastKey;
+    private long count = 0;
+    private boolean closed;
+
+    public SortedFileWriter(String path) throws IOException {
+        this.path = path;
+        this.fos = new FileOutputStream(path);
+        this.writer = new BlockTable.Writer(new BufferedOutputStream(fos, 64 * 1024), (pos, len) -> { });
+    }
+
+    public void add(String key, String value) throws IOException {
+        add(key, value, 0L);
+    }
+
+    //expireAt 为过期时间戳（毫秒），0 表示永不过期
+    public void add(String key, String value, long expireAt) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("value 不能为空: " + key);
+        }
+        SetCommand command = new SetCommand(key, value, expireAt);
+        addRecord(key.getBytes(StandardCharsets.UTF_8), NormalStore.blockRecord(command));
+    }
+
+    //写入一条已经编码好的记录，key 必须按 UTF-8 字节序严格递增
+    void addRecord(byte[] key, byte[] record) throws IOException {
+        if (lastKey != null && compareKeys(lastKey, key) >= 0) {
+            throw new IllegalArgumentException("key 没有按从小到大的顺序写入: " + new String(key, StandardCharsets.UTF_8));
+        }
+        writer.add(key, record);
+        lastKey = key;
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    //写出最后一个块并刷盘，关闭之后文件才能导入
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.finish();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+    }
+
+    //按无符号字节比较 key
+    static int compareKeys(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
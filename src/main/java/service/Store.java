@@ -8,11 +8,58 @@
 package service;
 
 import java.io.Closeable;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public interface Store extends Closeable {
     void set(String key, String value);
 
+    //带过期时间的写入，ttl 单位为毫秒，小于等于 0 表示永不过期
+    void set(String key, String value, long ttl);
+
     String get(String key);
 
+    //流式写入：从 in 中分块读取 value，适合很大的 value
+    void set(String key, InputStream in);
+
+    //流式读取：把 value 写入 out，返回写入的字节数，key 不存在时返回 -1
+    long get(String key, WritableByteChannel out);
+
     void rm(String key);
+
+    //批量读取，返回结果中不包含不存在的 key
+    default Map<String, String> multiGet(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    //原子地给整数 value 加上 delta 并返回新值，key 不存在时按 0 计算
+    long incrBy(String key, long delta);
+
+    //当前 value 等于 expected 时原子地写入 value，expected 为 null 表示要求 key 不存在；返回是否写入
+    boolean compareAndSet(String key, String expected, String value);
+
+    //key 不存在时写入，返回是否写入
+    boolean setIfAbsent(String key, String value);
+
+    //创建一致性快照，快照读不受之后的写入影响
+    Snapshot snapshot();
+
+    //批量导入 SortedFileWriter 生成的有序文件，导入的数据覆盖之前写入的同名 key
+    void ingest(List<String> files);
+
+    //落盘或压缩积压过多、应当暂停接收写入时返回 true，服务器据此对写请求返回 BUSY
+    default boolean isWriteOverloaded() {
+        return false;
+    }
 }
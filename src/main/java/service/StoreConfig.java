@@ -0,0 +1,181 @@
+package service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+//存储引擎的配置，启动时从配置文件加载，没有配置的项使用默认值
+//配置文件默认是 classpath 下的 easydb.properties，可以用 -Deasydb.config=<路径> 指定其他文件
+//字节数可以带 K、M、G 后缀，例如 64M
+//配置文件是磁盘上的文件时，运行中修改 backgroundBytesPerSecond 会在几秒内生效，其他配置项只在启动时读取
+@Getter
+@Setter
+public class StoreConfig {
+    public static final String CONFIG_PROPERTY = "easydb.config";
+    public static final String DEFAULT_CONFIG_FILE = "easydb.properties";
+    public static final long RELOAD_CHECK_MS = 5000;   //检查配置文件是否被修改的间隔
+    private static final Logger LOGGER = LoggerFactory.getLogger(StoreConfig.class);
+    private static final String logFormat = "[StoreConfig][{}]: {}";
+
+    private long writeBufferSize = 4L * 1024 * 1024;   //单个内存表的字节上限，达到后落盘
+    private long writeBufferBudget = 64L * 1024 * 1024;   //所有内存表合计的字节预算，小于等于 0 表示不限制
+    private long targetFileSize = 16L * 1024 * 1024;   //数据文件达到这个字节数后切换到新文件
+    private int valueThreshold = NormalStore.DEFAULT_VALUE_THRESHOLD;   //value 达到这个字节数时写入值日志
+    private long backgroundBytesPerSecond = NormalStore.DEFAULT_BACKGROUND_BYTES_PER_SECOND;   //后台压缩和回收的限速
+    private boolean fastOpen = false;   //快速启动：不等索引加载完就开始服务，索引在后台加载
+    private boolean bitcask = false;   //单次写入模式：数据文件本身就是日志，每次写入只追加一次，不使用 WAL 和内存表
+    private String coldDataDir = "";   //冷存储目录，为空表示不分层；每个数据目录在其中使用同名的子目录
+    private long hotWrites = 1000000L;   //最近这么多次写入产生的数据在压缩时留在数据目录，更早的数据压缩后迁移到冷存储目录
+    private int promoteReads = 3;   //冷数据在两次压缩之间被读到这么多次后，下一次压缩时迁回数据目录，小于等于 0 表示不迁回
+    private int maxCompactionDebtFiles = 8;   //等待压缩的已封存数据文件超过这个数量时拒绝写入，小于等于 0 表示不限制
+    private int serverWorkers = 64;   //服务器处理请求的线程数
+    private int serverQueueSize = 256;   //等待处理线程的连接数上限，超过后直接返回 BUSY
+    private long serverQueueTimeoutMillis = 1000L;   //连接在队列中等待超过这个时间后不再执行，直接返回 BUSY
+    private int maxInFlightPerClient = 32;   //同一个客户端地址同时在处理或排队的请求数上限，小于等于 0 表示不限制
+    private int changeBacklogSize = 0;   //变更订阅在内存中保留的最近操作数量，小于等于 0 表示不提供变更订阅，默认关闭，开启后每次写入多一次入队
+    private int maxSubscribers = 16;   //同时存在的变更订阅数上限
+    private transient File source;   //加载时使用的配置文件，不是文件时为 null，运行中不再检查
+    private transient long sourceModified;   //上一次读取时配置文件的修改时间
+
+    //按 -Deasydb.config 指定的文件或 classpath 下的 easydb.properties 加载，都不存在时使用默认值
+    public static StoreConfig load() {
+        String path = System.getProperty(CONFIG_PROPERTY);
+        try {
+            if (path != null) {
+                return load(new File(path));
+            }
+            URL resource = StoreConfig.class.getClassLoader().getResource(DEFAULT_CONFIG_FILE);
+            if (resource != null && "file".equals(resource.getProtocol())) {
+                return load(new File(resource.toURI()));
+            }
+            try (InputStream in = StoreConfig.class.getClassLoader().getResourceAsStream(DEFAULT_CONFIG_FILE)) {
+                if (in != null) {
+                    return load(in);
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+        LoggerUtil.info(LOGGER, logFormat, "load", "没有找到配置文件，使用默认配置");
+        return new StoreConfig();
+    }
+
+    public static StoreConfig load(File file) throws IOException {
+        long modified = file.lastModified();
+        try (InputStream in = new FileInputStream(file)) {
+            StoreConfig config = load(in);
+            config.source = file;
+            config.sourceModified = modified;
+            return config;
+        }
+    }
+
+    //配置文件在上一次读取之后被修改时重新读取并返回新的配置，否则返回 null
+    public synchronized StoreConfig reloadIfChanged() {
+        if (source == null || source.lastModified() == sourceModified) {
+            return null;
+        }
+        try {
+            StoreConfig updated = load(source);
+            sourceModified = updated.sourceModified;
+            return updated;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static StoreConfig load(InputStream in) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        StoreConfig config = new StoreConfig();
+        config.writeBufferSize = bytes(props, "writeBufferSize", config.writeBufferSize);
+        config.writeBufferBudget = bytes(props, "writeBufferBudget", config.writeBufferBudget);
+        config.targetFileSize = bytes(props, "targetFileSize", config.targetFileSize);
+        config.valueThreshold = (int) bytes(props, "valueThreshold", config.valueThreshold);
+        config.backgroundBytesPerSecond = bytes(props, "backgroundBytesPerSecond", config.backgroundBytesPerSecond);
+        config.fastOpen = Boolean.parseBoolean(props.getProperty("fastOpen", String.valueOf(config.fastOpen)).trim());
+        config.bitcask = Boolean.parseBoolean(props.getProperty("bitcask", String.valueOf(config.bitcask)).trim());
+        config.coldDataDir = props.getProperty("coldDataDir", config.coldDataDir).trim();
+        config.hotWrites = Long.parseLong(props.getProperty("hotWrites", String.valueOf(config.hotWrites)).trim());
+        config.promoteReads = Integer.parseInt(props.getProperty("promoteReads", String.valueOf(config.promoteReads)).trim());
+        config.maxCompactionDebtFiles = Integer.parseInt(props.getProperty("maxCompactionDebtFiles", String.valueOf(config.maxCompactionDebtFiles)).trim());
+        config.serverWorkers = Integer.parseInt(props.getProperty("serverWorkers", String.valueOf(config.serverWorkers)).trim());
+        config.serverQueueSize = Integer.parseInt(props.getProperty("serverQueueSize", String.valueOf(config.serverQueueSize)).trim());
+        config.serverQueueTimeoutMillis = Long.parseLong(props.getProperty("serverQueueTimeoutMillis", String.valueOf(config.serverQueueTimeoutMillis)).trim());
+        config.maxInFlightPerClient = Integer.parseInt(props.getProperty("maxInFlightPerClient", String.valueOf(config.maxInFlightPerClient)).trim());
+        config.changeBacklogSize = Integer.parseInt(props.getProperty("changeBacklogSize", String.valueOf(config.changeBacklogSize)).trim());
+        config.maxSubscribers = Integer.parseInt(props.getProperty("maxSubscribers", String.valueOf(config.maxSubscribers)).trim());
+        LoggerUtil.info(LOGGER, logFormat, "load", config.toString());
+        return config;
+    }
+
+    private static long bytes(Properties props, String name, long defaultValue) {
+        String value = props.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return parseBytes(value.trim());
+    }
+
+    //解析带 K、M、G 后缀的字节数
+    public static long parseBytes(String value) {
+        String upper = value.toUpperCase();
+        long unit = 1;
+        if (upper.endsWith("B")) {
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        if (upper.endsWith("K")) {
+            unit = 1024L;
+        } else if (upper.endsWith("M")) {
+            unit = 1024L * 1024;
+        } else if (upper.endsWith("G")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        if (unit > 1) {
+            upper = upper.substring(0, upper.length() - 1);
+        }
+        try {
+            return Long.parseLong(upper.trim()) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无法解析的字节数: " + value, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StoreConfig{" +
+                "writeBufferSize=" + writeBufferSize +
+                ", writeBufferBudget=" + writeBufferBudget +
+                ", targetFileSize=" + targetFileSize +
+                ", valueThreshold=" + valueThreshold +
+                ", backgroundBytesPerSecond=" + backgroundBytesPerSecond +
+                ", fastOpen=" + fastOpen +
+                ", bitcask=" + bitcask +
+                ", coldDataDir='" + coldDataDir + '\'' +
+                ", hotWrites=" + hotWrites +
+                ", promoteReads=" + promoteReads +
+                ", maxCompactionDebtFiles=" + maxCompactionDebtFiles +
+                ", serverWorkers=" + serverWorkers +
+                ", serverQueueSize=" + serverQueueSize +
+                ", serverQueueTimeoutMillis=" + serverQueueTimeoutMillis +
+                ", maxInFlightPerClient=" + maxInFlightPerClient +
+                ", changeBacklogSize=" + changeBacklogSize +
+                ", maxSubscribers=" + maxSubscribers +
+                '}';
+    }
+}
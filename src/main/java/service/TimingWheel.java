@@ -0,0 +1,100 @@
+package service;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+//分层时间轮，用于跟踪 key 的过期时间并批量取出已经过期的 key
+//第一层每格 tickMs，共 wheelSize 格；超出本层范围的 key 交给上一层（每格为下层的一整圈），到期前逐层下沉
+public class TimingWheel {
+    private final long tickMs;   //每一格的时间跨度（毫秒）
+    private final int wheelSize;   //格子数量
+    private final long interval;   //本层时间轮一圈的时间跨度
+    private final List<List<TimerEntry>> buckets;
+    private long currentTime;   //下一个尚未推进的格子的起始时间，按 tickMs 对齐
+    private TimingWheel overflowWheel;   //上一层时间轮，按需创建
+
+    public TimingWheel(long tickMs, int wheelSize, long startMs) {
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.interval = tickMs * wheelSize;
+        this.currentTime = startMs - (startMs % tickMs);
+        this.buckets = newBuckets(wheelSize);
+    }
+
+    private static List<List<TimerEntry>> newBuckets(int size) {
+        List<List<TimerEntry>> buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new LinkedList<>());
+        }
+        return buckets;
+    }
+
+    //登记一个过期任务，如果已经过期则返回 false，由调用方立即处理
+    public synchronized boolean add(String key, long expireAt) {
+        return add(new TimerEntry(key, expireAt));
+    }
+
+    private boolean add(TimerEntry entry) {
+        if (entry.getExpireAt() < currentTime) {
+            return false;
+        }
+        if (entry.getExpireAt() < currentTime + interval) {
+            buckets.get(bucketIndex(entry.getExpireAt())).add(entry);
+            return true;
+        }
+        if (overflowWheel == null) {
+            overflowWheel = new TimingWheel(interval, wheelSize, currentTime);
+        }
+        return overflowWheel.add(entry);
+    }
+
+    //推进时间轮到 now，返回所有已经过期的任务
+    public synchronized List<TimerEntry> advance(long now) {
+        List<TimerEntry> expired = new ArrayList<>();
+        while (currentTime + tickMs <= now) {
+            List<TimerEntry> bucket = buckets.get(bucketIndex(currentTime));
+            expired.addAll(bucket);
+            bucket.clear();
+            currentTime += tickMs;
+            if (overflowWheel != null) {
+                overflowWheel.cascade(currentTime, this, expired);
+            }
+        }
+        return expired;
+    }
+
+    //上层时间轮中起始时间不晚于下层当前时间的格子，整体落入了下层的范围，将其中的任务重新插入最底层
+    private void cascade(long lowerTime, TimingWheel root, List<TimerEntry> expired) {
+        while (currentTime <= lowerTime) {
+            List<TimerEntry> bucket = buckets.get(bucketIndex(currentTime));
+            for (TimerEntry entry : bucket) {
+                if (!root.add(entry)) {
+                    expired.add(entry);
+                }
+            }
+            bucket.clear();
+            currentTime += tickMs;
+            if (overflowWheel != null) {
+                overflowWheel.cascade(currentTime, root, expired);
+            }
+        }
+    }
+
+    private int bucketIndex(long time) {
+        return (int) ((time / tickMs) % wheelSize);
+    }
+
+    @Getter
+    public static class TimerEntry {
+        private final String key;
+        private final long expireAt;
+
+        public TimerEntry(String key, long expireAt) {
+            this.key = key;
+            this.expireAt = expireAt;
+        }
+    }
+}
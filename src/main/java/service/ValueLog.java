@@ -0,0 +1,268 @@
+package service;
+
+import model.command.ValuePointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.LoggerUtil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+//值日志：超过阈值的大 value 只追加写入一次，数据文件里只保存指针，压缩数据文件时不再搬动 value
+//记录格式为 [int keyLen][int valueLen][key][value]，写满后切换到新文件，旧文件由垃圾回收整体删除
+public class ValueLog {
+    public static final String NAME = "value";   //值日志文件名前缀
+    public static final String EXT = ".vlog";   //值日志文件扩展名
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;   //流式写入时每次复制的字节数
+    private final Logger LOGGER = LoggerFactory.getLogger(ValueLog.class);
+    private final String logFormat = "[ValueLog][{}]: {}";
+
+    private final String dataDir;
+    private final long fileSizeThreshold;   //单个值日志文件的大小阈值
+    private RandomAccessFile activeFile;   //当前追加写入的文件
+    private int activeIndex;
+    private int nextIndex;   //下一个可用的文件编号，当前文件和流式写入的独立文件共用
+    private final Set<Integer> writing = new HashSet<>();   //正在流式写入的文件，不能参与垃圾回收
+    private final Map<Integer, MappedByteBuffer> mappedFiles = new ConcurrentHashMap<>();   //已封存文件的内存映射
+
+    public ValueLog(String dataDir, long fileSizeThreshold) throws FileNotFoundException {
+        this.dataDir = dataDir;
+        this.fileSizeThreshold = fileSizeThreshold;
+        List<Integer> fileIndexes = listFileIndexes();
+        //已有的文件全部视为封存文件，避免接在可能未写完整的末尾之后
+        this.activeIndex = fileIndexes.isEmpty() ? 0 : fileIndexes.get(fileIndexes.size() - 1) + 1;
+        this.nextIndex = activeIndex + 1;
+        this.activeFile = new RandomAccessFile(genFilePath(activeIndex), NormalStore.RW_MODE);
+    }
+
+    //追加一个 value，返回它的位置；调用方负责在数据文件引用它之前调用 sync
+    public ValuePointer append(String key, String value) throws IOException {
+        return append(key, ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    //追加 value 中 position 到 limit 之间的字节，不改变 value 的位置
+    public synchronized ValuePointer append(String key, ByteBuffer value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer valueBytes = value.duplicate();
+        int valueLen = valueBytes.remaining();
+        if (activeFile.length() >= fileSizeThreshold) {
+            activeFile.getFD().sync();
+            activeFile.close();
+            activeIndex = nextIndex++;
+            activeFile = new RandomAccessFile(genFilePath(activeIndex), NormalStore.RW_MODE);
+        }
+        long start = activeFile.length();
+        activeFile.seek(start);
+        activeFile.writeInt(keyBytes.length);
+        activeFile.writeInt(valueLen);
+        activeFile.write(keyBytes);
+        FileChannel channel = activeFile.getChannel();
+        long pos = start + 8 + keyBytes.length;
+        while (valueBytes.hasRemaining()) {
+            pos += channel.write(valueBytes, pos);
+        }
+        return new ValuePointer(activeIndex, start + 8 + keyBytes.length, valueLen);
+    }
+
+    //流式写入一个大小未知的 value：单独占用一个新文件，按块从 in 复制，内存占用与 value 大小无关
+    //写入期间不持有值日志的锁，其他 value 的写入不受影响；返回前已经刷盘
+    //不超过一次复制大小的 value 和普通 value 一样追加到当前文件，避免复制快照时每个 value 各占一个文件
+    public ValuePointer appendStream(String key, InputStream in) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int head = 0;
+        for (int n; head < buffer.length && (n = in.read(buffer, head, buffer.length - head)) >= 0; ) {
+            head += n;
+        }
+        if (head < buffer.length) {
+            ValuePointer pointer = append(key, ByteBuffer.wrap(buffer, 0, head));
+            sync();
+            return pointer;
+        }
+        int fileIndex;
+        synchronized (this) {
+            fileIndex = nextIndex++;
+            writing.add(fileIndex);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(genFilePath(fileIndex), NormalStore.RW_MODE)) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            file.writeInt(keyBytes.length);
+            file.writeInt(0);   //长度写完之后再回填
+            file.write(keyBytes);
+            file.write(buffer, 0, head);
+            long valueLen = head;
+            for (int n; (n = in.read(buffer)) >= 0; ) {
+                file.write(buffer, 0, n);
+                valueLen += n;
+            }
+            if (valueLen > Integer.MAX_VALUE) {
+                throw new IOException("value 过大: " + valueLen);
+            }
+            file.seek(4);
+            file.writeInt((int) valueLen);
+            file.getFD().sync();
+            return new ValuePointer(fileIndex, 8 + keyBytes.length, (int) valueLen);
+        } finally {
+            synchronized (this) {
+                writing.remove(fileIndex);
+            }
+        }
+    }
+
+    //打开 value 所在的文件，供调用方用 transferTo 发送；文件被回收删除后已经打开的通道仍然可以读
+    public FileChannel openChannel(ValuePointer pointer) throws IOException {
+        return new RandomAccessFile(genFilePath(pointer.getFileIndex()), "r").getChannel();
+    }
+
+    //把另一个文件中的 value 原样复制到当前文件末尾，供垃圾回收搬动仍然有效的 value，不经过 String
+    public synchronized ValuePointer copy(String key, ValuePointer from) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (activeFile.length() >= fileSizeThreshold) {
+            activeFile.getFD().sync();
+            activeFile.close();
+            activeIndex = nextIndex++;
+            activeFile = new RandomAccessFile(genFilePath(activeIndex), NormalStore.RW_MODE);
+        }
+        long start = activeFile.length();
+        activeFile.seek(start);
+        activeFile.writeInt(keyBytes.length);
+        activeFile.writeInt(from.getLen());
+        activeFile.write(keyBytes);
+        try (FileChannel src = openChannel(from)) {
+            FileChannel dst = activeFile.getChannel();
+            long copied = 0;
+            while (copied < from.getLen()) {
+                copied += src.transferTo(from.getPos() + copied, from.getLen() - copied, dst);
+            }
+        }
+        return new ValuePointer(activeIndex, start + 8 + keyBytes.length, from.getLen());
+    }
+
+    public synchronized void sync() throws IOException {
+        activeFile.getFD().sync();
+    }
+
+    //返回 value 的只读视图：已封存的文件整体映射到内存后缓存，直接返回映射的切片，不复制；当前文件还在增长，读到堆内存中
+    //一次映射最多 2GB，超过的文件（流式写入的大 value）不整体映射，每次只映射 value 所在的区间
+    public ByteBuffer slice(ValuePointer pointer) throws IOException {
+        MappedByteBuffer mapped = mappedFiles.get(pointer.getFileIndex());
+        if (mapped == null) {
+            synchronized (this) {
+                if (pointer.getFileIndex() == activeIndex) {
+                    return ByteBuffer.wrap(readBytes(pointer)).asReadOnlyBuffer();
+                }
+                mapped = mappedFiles.get(pointer.getFileIndex());
+                if (mapped == null) {
+                    try (FileChannel channel = openChannel(pointer)) {
+                        if (channel.size() > Integer.MAX_VALUE) {
+                            return channel.map(FileChannel.MapMode.READ_ONLY, pointer.getPos(), pointer.getLen()).asReadOnlyBuffer();
+                        }
+                        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());   //映射在通道关闭后仍然有效
+                    }
+                    mappedFiles.put(pointer.getFileIndex(), mapped);
+                }
+            }
+        }
+        ByteBuffer view = mapped.asReadOnlyBuffer();
+        ((Buffer) view).position((int) pointer.getPos());
+        ((Buffer) view).limit((int) pointer.getPos() + pointer.getLen());
+        return view.slice();
+    }
+
+    public String read(ValuePointer pointer) throws IOException {
+        return new String(readBytes(pointer), StandardCharsets.UTF_8);
+    }
+
+    public byte[] readBytes(ValuePointer pointer) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(genFilePath(pointer.getFileIndex()), "r")) {
+            byte[] bytes = new byte[pointer.getLen()];
+            file.seek(pointer.getPos());
+            file.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    //顺序读取值日志文件中每条记录的 key 和位置，不读取 value 本身，返回文件总字节数
+    public long forEachRecord(int fileIndex, BiConsumer<String, ValuePointer> consumer) throws IOException {
+        File file = new File(genFilePath(fileIndex));
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            long start = 0;
+            while (start + 8 <= length) {
+                in.seek(start);
+                int keyLen = in.readInt();
+                int valueLen = in.readInt();
+                if (keyLen < 0 || valueLen < 0 || start + 8 + keyLen + valueLen > length) {
+                    LoggerUtil.info(LOGGER, logFormat, "forEachRecord", file.getName() + " 在偏移量 " + start + " 处不完整");
+                    break;
+                }
+                byte[] keyBytes = new byte[keyLen];
+                in.readFully(keyBytes);
+                consumer.accept(new String(keyBytes, StandardCharsets.UTF_8), new ValuePointer(fileIndex, start + 8 + keyLen, valueLen));
+                start += 8 + keyLen + valueLen;
+            }
+            return length;
+        }
+    }
+
+    //已封存、可以参与垃圾回收的文件编号，包括已经写完的流式写入文件
+    public synchronized List<Integer> sealedFileIndexes() {
+        List<Integer> sealed = new ArrayList<>();
+        for (int fileIndex : listFileIndexes()) {
+            if (fileIndex != activeIndex && !writing.contains(fileIndex)) {
+                sealed.add(fileIndex);
+            }
+        }
+        return sealed;
+    }
+
+    //删除文件，已经返回给调用方的映射切片仍然可以读
+    public void delete(int fileIndex) {
+        mappedFiles.remove(fileIndex);
+        new File(genFilePath(fileIndex)).delete();
+    }
+
+    public synchronized void close() throws IOException {
+        activeFile.getFD().sync();
+        activeFile.close();
+    }
+
+    private List<Integer> listFileIndexes() {
+        List<Integer> fileIndexes = new ArrayList<>();
+        File[] files = new File(dataDir).listFiles();
+        if (files == null) {
+            return fileIndexes;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(NAME) && name.endsWith(EXT)) {
+                try {
+                    fileIndexes.add(Integer.parseInt(name.substring(NAME.length(), name.length() - EXT.length())));
+                } catch (NumberFormatException ignored) {
+                    //不是值日志文件
+                }
+            }
+        }
+        Collections.sort(fileIndexes);
+        return fileIndexes;
+    }
+
+    public String genFilePath(int fileIndex) {
+        return dataDir + File.separator + NAME + fileIndex + EXT;
+    }
+}
@@ -0,0 +1,74 @@
+package service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+//写缓冲管理器：按字节统计所有内存表占用的内存，总量超过预算时选出占用最多的内存表落盘
+//多个存储实例（例如 ShardedStore 的各个分片）共用一个管理器时，预算是它们的总和；
+//落盘对象在所有实例中选，不只是正在写入的实例，不再写入的分片占用的内存也能释放
+public class WriteBufferManager {
+    //共用预算的一个内存表
+    public interface Consumer {
+        //当前占用的字节数，不能获取存储实例的锁，调用方可能正持有另一个实例的锁
+        long getBufferedBytes();
+
+        //异步落盘：不能在调用方的线程中获取存储实例的锁
+        void requestFlush();
+    }
+
+    private volatile long budget;   //所有内存表合计的字节预算，小于等于 0 表示不限制
+    private final AtomicLong usage = new AtomicLong();   //当前所有内存表合计占用的字节数
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();   //共用这个管理器的内存表
+
+    public WriteBufferManager(long budget) {
+        this.budget = budget;
+    }
+
+    public void register(Consumer consumer) {
+        consumers.add(consumer);
+    }
+
+    public void unregister(Consumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    public void reserve(long bytes) {
+        usage.addAndGet(bytes);
+    }
+
+    public void free(long bytes) {
+        usage.addAndGet(-bytes);
+    }
+
+    //总量超过预算时返回占用最多的内存表，没有超出预算或所有内存表都是空的时返回 null
+    public Consumer flushVictim() {
+        long limit = budget;
+        if (limit <= 0 || usage.get() <= limit) {
+            return null;
+        }
+        Consumer victim = null;
+        long largest = 0;
+        for (Consumer consumer : consumers) {
+            long bytes = consumer.getBufferedBytes();
+            if (bytes > largest) {
+                largest = bytes;
+                victim = consumer;
+            }
+        }
+        return victim;
+    }
+
+    public long getUsage() {
+        return usage.get();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    //运行时调整预算，下一次写入时生效
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+}
@@ -0,0 +1,52 @@
+package utils;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+//分块读取：按 [int len][bytes] 逐块读出数据，遇到长度为 0 的结束块时返回 -1，不关闭底层输入
+public class ChunkedInputStream extends InputStream {
+    private final DataInput in;
+    private int remaining;   //当前块中还没读的字节数
+    private boolean finished;
+
+    public ChunkedInputStream(DataInput in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (remaining == 0) {
+            if (finished) {
+                return -1;
+            }
+            remaining = in.readInt();
+            if (remaining < 0) {
+                throw new IOException("数据块长度错误: " + remaining);
+            }
+            finished = remaining == 0;
+        }
+        int n = Math.min(len, remaining);
+        in.readFully(b, off, n);
+        remaining -= n;
+        return n;
+    }
+
+    //读完剩余的块，保证底层输入停在结束块之后
+    @Override
+    public void close() throws IOException {
+        byte[] skip = new byte[8192];
+        while (read(skip, 0, skip.length) >= 0) {
+            //丢弃
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+//分块写出：每次 write 写一个 [int len][bytes] 数据块，close 时写入长度为 0 的结束块，不关闭底层输出
+public class ChunkedOutputStream extends OutputStream {
+    private final DataOutput out;
+    private boolean finished;
+
+    public ChunkedOutputStream(DataOutput out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;   //长度为 0 的块表示结束
+        }
+        out.writeInt(len);
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            out.writeInt(0);
+        }
+    }
+}
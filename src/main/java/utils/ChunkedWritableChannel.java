@@ -0,0 +1,73 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+//按 [int len][bytes] 分块写入底层通道；文件内容通过 transferFrom 用 FileChannel.transferTo 直接发送，不经过用户态缓冲区
+public class ChunkedWritableChannel implements WritableByteChannel {
+    public static final int CHUNK_SIZE = 1024 * 1024;   //transferFrom 每块的最大字节数
+    private final WritableByteChannel out;
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private boolean open = true;
+
+    public ChunkedWritableChannel(WritableByteChannel out) {
+        this.out = out;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        if (len == 0) {
+            return 0;   //长度为 0 的块表示结束
+        }
+        writeHeader(len);
+        while (src.hasRemaining()) {
+            out.write(src);
+        }
+        return len;
+    }
+
+    //把文件中 [position, position + count) 的内容分块发送
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            int len = (int) Math.min(CHUNK_SIZE, count - sent);
+            writeHeader(len);
+            long chunkSent = 0;
+            while (chunkSent < len) {
+                long n = src.transferTo(position + sent + chunkSent, len - chunkSent, out);
+                if (n <= 0 && position + sent + chunkSent >= src.size()) {
+                    throw new IOException("文件长度不足，无法发送完整的数据");
+                }
+                chunkSent += n;
+            }
+            sent += len;
+        }
+        return sent;
+    }
+
+    private void writeHeader(int len) throws IOException {
+        header.clear();
+        header.putInt(len);
+        header.flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && out.isOpen();
+    }
+
+    //写入结束块，不关闭底层通道
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            writeHeader(0);
+        }
+    }
+}
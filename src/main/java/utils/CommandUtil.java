@@ -24,4 +24,26 @@ public class CommandUtil {
         }
         return null;
     }
+
+    //不编码字符串，直接按字符计算 UTF-8 字节数
+    public static int utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                len += 1;
+            } else if (c < 0x800) {
+                len += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 4;
+                i++;
+            } else {
+                len += 3;
+            }
+        }
+        return len;
+    }
 }
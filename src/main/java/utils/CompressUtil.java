@@ -0,0 +1,35 @@
+package utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//GZIP 压缩与解压
+public class CompressUtil {
+
+    public static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+        try (GZIPOutputStream gos = new GZIPOutputStream(bos)) {
+            gos.write(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    public static byte[] gunzip(byte[] data) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length * 4);
+        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = gis.read(buffer)) != -1) {
+                bos.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bos.toByteArray();
+    }
+}